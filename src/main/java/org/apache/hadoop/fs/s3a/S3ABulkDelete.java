@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.s3a;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.tools.cloudup.BulkDelete;
+
+import static org.apache.hadoop.fs.s3a.S3AUtils.translateException;
+
+/**
+ * S3 bulk deletes through S3A's own deletion of keys.
+ *
+ * Each page is one multi-object delete request, made with the
+ * filesystem's client, retries and statistics. After it, the deleted
+ * files are removed from any S3Guard table and, as when S3A deletes a
+ * single file, a directory marker is created for every parent directory
+ * left empty. That costs a probe of each distinct parent in the page.
+ */
+public class S3ABulkDelete implements BulkDelete {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      S3ABulkDelete.class);
+
+  /** S3 limit on the keys in a delete request: {@value}. */
+  public static final int PAGE_SIZE = 1000;
+
+  private final S3AFileSystem fs;
+
+  public S3ABulkDelete(final FileSystem fs) {
+    this.fs = (S3AFileSystem) fs;
+  }
+
+  @Override
+  public int getPageSize() {
+    return PAGE_SIZE;
+  }
+
+  @Override
+  public List<Path> delete(final List<Path> paths) throws IOException {
+    final Map<String, Path> keys = new HashMap<>(paths.size());
+    for (Path path : paths) {
+      keys.put(fs.pathToKey(path), path);
+    }
+    final List<DeleteObjectsRequest.KeyVersion> request =
+        new ArrayList<>(keys.size());
+    for (String key : keys.keySet()) {
+      request.add(new DeleteObjectsRequest.KeyVersion(key));
+    }
+    final Set<Path> failed = new HashSet<>();
+    try {
+      fs.removeKeys(request, false, false);
+    } catch (MultiObjectDeleteException e) {
+      for (MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+        LOG.debug("Failed to delete {}: {} {}", error.getKey(),
+            error.getCode(), error.getMessage());
+        failed.add(keys.get(error.getKey()));
+      }
+    } catch (AmazonClientException e) {
+      throw translateException("delete " + paths.size() + " objects",
+          paths.get(0), e);
+    }
+    finishDeletes(keys.values(), failed);
+    return new ArrayList<>(failed);
+  }
+
+  /**
+   * Update S3Guard with the deleted files, then create the markers of
+   * any parent directories they leave empty.
+   * @param paths paths in the request
+   * @param failed paths which were not deleted
+   * @throws IOException failure
+   */
+  private void finishDeletes(final Iterable<Path> paths,
+      final Set<Path> failed) throws IOException {
+    // one deleted child of every parent
+    final Map<Path, Path> parents = new LinkedHashMap<>();
+    for (Path path : paths) {
+      if (!failed.contains(path)) {
+        if (fs.hasMetadataStore()) {
+          fs.getMetadataStore().delete(path);
+        }
+        parents.putIfAbsent(path.getParent(), path);
+      }
+    }
+    for (Path child : parents.values()) {
+      try {
+        fs.maybeCreateFakeParentDirectory(child);
+      } catch (AmazonClientException e) {
+        throw translateException("create parent marker", child, e);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.s3a;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.tools.cloudup.MultipartStore;
+
+import static org.apache.hadoop.fs.s3a.S3AUtils.translateException;
+
+/**
+ * S3 multipart uploads through a client created by
+ * {@code InternalS3ClientFactory}.
+ *
+ * The client is created from the filesystem configuration, but
+ * it is not the one inside S3A; the requests are given the
+ * server-side encryption and canned ACL of the filesystem, as S3A's
+ * own multipart uploads are, and the storage class of
+ * {@link #STORAGE_CLASS}, if set.
+ *
+ * Completing an upload finishes the write in S3A as its own uploads
+ * do: the directory markers of the parent directories are deleted
+ * and, if the bucket has S3Guard, the file and its ancestors are
+ * added to the metadata store. Directory markers are not created;
+ * the parents of the file exist through it.
+ */
+public class S3AMultipartStore implements MultipartStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      S3AMultipartStore.class);
+
+  /** S3 minimum part size: {@value}. */
+  public static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+  /** S3 limit on parts in an upload: {@value}. */
+  public static final int MAX_PART_COUNT = 10000;
+
+  /**
+   * Storage class of uploaded objects: {@value}.
+   * This is the option of later S3A releases; unset means the
+   * bucket's default.
+   */
+  public static final String STORAGE_CLASS = "fs.s3a.create.storage.class";
+
+  private final S3AFileSystem fs;
+
+  private final String bucket;
+
+  private final AmazonS3 s3;
+
+  /** Storage class; null for the bucket's default. */
+  private final StorageClass storageClass;
+
+  public S3AMultipartStore(final FileSystem fs) throws IOException {
+    this.fs = (S3AFileSystem) fs;
+    this.bucket = this.fs.getBucket();
+    String sc = fs.getConf().getTrimmed(STORAGE_CLASS, "");
+    try {
+      this.storageClass = sc.isEmpty() ? null : StorageClass.fromValue(
+          sc.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown storage class in " + STORAGE_CLASS
+          + ": " + sc, e);
+    }
+    this.s3 = AwsClientExtractor.createAwsClient(fs);
+  }
+
+  @Override
+  public long getMinimumPartSize() {
+    return MIN_PART_SIZE;
+  }
+
+  @Override
+  public int getMaximumPartCount() {
+    return MAX_PART_COUNT;
+  }
+
+  @Override
+  public String initiate(final Path dest) throws IOException {
+    String key = fs.pathToKey(dest);
+    // as S3AFileSystem's own initiation of multipart uploads
+    InitiateMultipartUploadRequest request =
+        new InitiateMultipartUploadRequest(bucket, key,
+            fs.newObjectMetadata(-1));
+    request.setCannedACL(fs.getCannedACL());
+    fs.setOptionalMultipartUploadRequestParameters(request);
+    if (storageClass != null) {
+      request.setStorageClass(storageClass);
+    }
+    try {
+      String id = s3.initiateMultipartUpload(request).getUploadId();
+      LOG.debug("Initiated upload {} to {}", id, dest);
+      return id;
+    } catch (AmazonClientException e) {
+      throw translateException("initiate MultiPartUpload", dest, e);
+    }
+  }
+
+  @Override
+  public String uploadPart(final String uploadId,
+      final Path dest,
+      final int partNumber,
+      final InputStream in,
+      final long length) throws IOException {
+    try {
+      UploadPartRequest request = new UploadPartRequest()
+          .withBucketName(bucket)
+          .withKey(fs.pathToKey(dest))
+          .withUploadId(uploadId)
+          .withPartNumber(partNumber)
+          .withInputStream(in)
+          .withPartSize(length);
+      fs.setOptionalUploadPartRequestParameters(request);
+      return s3.uploadPart(request).getPartETag().getETag();
+    } catch (AmazonClientException e) {
+      throw translateException("upload part " + partNumber, dest, e);
+    }
+  }
+
+  @Override
+  public void complete(final String uploadId,
+      final Path dest,
+      final List<String> parts,
+      final long length) throws IOException {
+    List<PartETag> etags = new ArrayList<>(parts.size());
+    for (int i = 0; i < parts.size(); i++) {
+      etags.add(new PartETag(i + 1, parts.get(i)));
+    }
+    String key = fs.pathToKey(dest);
+    try {
+      s3.completeMultipartUpload(new CompleteMultipartUploadRequest(
+          bucket, key, uploadId, etags));
+    } catch (AmazonClientException e) {
+      throw translateException("complete MultiPartUpload", dest, e);
+    }
+    // delete the parent markers and update S3Guard, as S3A does
+    // after every write
+    fs.finishedWrite(key, length);
+  }
+
+  @Override
+  public void abort(final String uploadId, final Path dest)
+      throws IOException {
+    try {
+      s3.abortMultipartUpload(new AbortMultipartUploadRequest(
+          bucket, fs.pathToKey(dest), uploadId));
+    } catch (AmazonClientException e) {
+      throw translateException("abort MultiPartUpload", dest, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    s3.shutdown();
+  }
+}
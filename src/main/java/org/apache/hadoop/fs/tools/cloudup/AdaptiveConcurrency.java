@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import com.amazonaws.AmazonServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.s3a.AWSServiceThrottledException;
+import org.apache.hadoop.fs.s3a.AWSStatus500Exception;
+
+/**
+ * AIMD controller of the number of uploads in flight.
+ *
+ * Workers call {@link #acquire()} before an upload and
+ * {@link #release(long, long, Throwable)} with its outcome afterwards.
+ * <ol>
+ *   <li>Every successful upload adds {@code 1/limit} to the limit,
+ *   so it grows by one per round of {@code limit} uploads.</li>
+ *   <li>A throttling failure (503, SlowDown) halves the limit.</li>
+ *   <li>At the end of a round, if the throughput of the round has fallen
+ *   and latency has risen well above the best seen, the store is
+ *   assumed to be saturated and the limit is cut by 10%.</li>
+ * </ol>
+ * There is at most one decrease per round, so a burst of failures
+ * from uploads which were all in flight at the same time does not
+ * collapse the limit. A round ends after {@code limit} successes, or
+ * once every upload in flight at a decrease has completed; under
+ * sustained throttling the limit is halved again every round.
+ *
+ * Thread safe.
+ */
+final class AdaptiveConcurrency {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      AdaptiveConcurrency.class);
+
+  /** Decrease on throttling: {@value}. */
+  static final double THROTTLE_DECREASE = 0.5;
+
+  /** Decrease on saturation: {@value}. */
+  static final double SATURATION_DECREASE = 0.9;
+
+  /** Fall in throughput considered significant: {@value}. */
+  static final double THROUGHPUT_TOLERANCE = 0.8;
+
+  /** Rise in latency considered significant: {@value}. */
+  static final double LATENCY_TOLERANCE = 2.0;
+
+  /** Weight of a new sample in the latency average: {@value}. */
+  static final double LATENCY_WEIGHT = 0.2;
+
+  /** Are the S3A and AWS SDK classes available? */
+  private static final boolean S3A_ON_CLASSPATH = s3aOnClasspath();
+
+  private final String name;
+
+  private final int min;
+
+  private final int max;
+
+  private double limit;
+
+  private int inFlight;
+
+  private long roundStart;
+
+  private long roundBytes;
+
+  private int roundCompletions;
+
+  private boolean decreasedThisRound;
+
+  /**
+   * Uploads in flight at the last decrease whose outcomes are still
+   * to come; once they have all completed, the round ends.
+   */
+  private int awaitingDrain;
+
+  private double lastRoundThroughput;
+
+  private double latency;
+
+  private double minLatency = Double.MAX_VALUE;
+
+  private long throttleEvents;
+
+  /**
+   * Constructor.
+   * @param name name for logging
+   * @param min minimum limit
+   * @param max maximum limit
+   * @param initial initial limit
+   */
+  AdaptiveConcurrency(String name, int min, int max, int initial) {
+    if (min < 1 || max < min || initial < min || initial > max) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid limits: min=%d, max=%d, initial=%d", min, max, initial));
+    }
+    this.name = name;
+    this.min = min;
+    this.max = max;
+    this.limit = initial;
+    this.roundStart = System.nanoTime();
+  }
+
+  /**
+   * Wait until there is capacity for another upload, then take it.
+   * @throws InterruptedException interrupted while waiting
+   */
+  synchronized void acquire() throws InterruptedException {
+    while (inFlight >= getLimit()) {
+      wait();
+    }
+    inFlight++;
+  }
+
+  /**
+   * Release the capacity of an upload, adjusting the limit from
+   * its outcome.
+   * @param bytes bytes uploaded
+   * @param durationNanos duration of the upload
+   * @param failure any failure; null for success.
+   */
+  synchronized void release(long bytes, long durationNanos,
+      Throwable failure) {
+    inFlight--;
+    drain();
+    if (failure != null) {
+      if (isThrottled(failure)) {
+        throttleEvents++;
+        decrease(THROTTLE_DECREASE, "throttled");
+      }
+    } else {
+      roundBytes += bytes;
+      roundCompletions++;
+      latency = latency == 0
+          ? durationNanos
+          : latency + LATENCY_WEIGHT * (durationNanos - latency);
+      limit = Math.min(max, limit + 1.0 / limit);
+      if (roundCompletions >= getLimit()) {
+        endRound();
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Release the capacity of an upload which did not complete,
+   * without adjusting the limit.
+   */
+  synchronized void cancel() {
+    inFlight--;
+    drain();
+    notifyAll();
+  }
+
+  /**
+   * Count the outcome of an upload towards the end of a round in
+   * which the limit was decreased. Those in flight at the decrease
+   * cannot trigger another one; anything after them can.
+   */
+  private void drain() {
+    if (decreasedThisRound) {
+      if (awaitingDrain > 0) {
+        awaitingDrain--;
+      } else {
+        decreasedThisRound = false;
+      }
+    }
+  }
+
+  /**
+   * End a round: check for saturation, then reset the counters.
+   */
+  private void endRound() {
+    long now = System.nanoTime();
+    double throughput = roundBytes / Math.max(1.0, now - roundStart);
+    if (lastRoundThroughput > 0
+        && throughput < lastRoundThroughput * THROUGHPUT_TOLERANCE
+        && latency > minLatency * LATENCY_TOLERANCE) {
+      decrease(SATURATION_DECREASE, "saturated");
+    }
+    minLatency = Math.min(minLatency, latency);
+    lastRoundThroughput = throughput;
+    roundStart = now;
+    roundBytes = 0;
+    roundCompletions = 0;
+    decreasedThisRound = false;
+  }
+
+  private void decrease(double factor, String reason) {
+    if (!decreasedThisRound) {
+      decreasedThisRound = true;
+      awaitingDrain = inFlight;
+      double old = limit;
+      limit = Math.max(min, limit * factor);
+      LOG.debug("{}: {}; concurrency limit {} -> {}", name, reason,
+          (int) old, getLimit());
+    }
+  }
+
+  /**
+   * Get the current limit.
+   * @return the number of uploads which may be in flight.
+   */
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  synchronized long getThrottleEvents() {
+    return throttleEvents;
+  }
+
+  /**
+   * Does an exception, or any of its causes, indicate that the
+   * store is throttling requests?
+   * S3A exceptions and AWS service exceptions are classified on their
+   * type and status code; the message is only checked for the S3
+   * {@code SlowDown} error code and the text which goes with it, as
+   * numbers in it may be in paths, sizes or request IDs.
+   * @param thrown exception
+   * @return true if this looks like throttling.
+   */
+  static boolean isThrottled(Throwable thrown) {
+    for (Throwable t = thrown; t != null; t = t.getCause()) {
+      if (S3A_ON_CLASSPATH && S3AErrors.isThrottled(t)) {
+        return true;
+      }
+      String message = t.getMessage();
+      if (message != null
+          && (message.contains("SlowDown")
+          || message.contains("Please reduce your request rate"))) {
+        return true;
+      }
+      if (t.getCause() == t) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  private static boolean s3aOnClasspath() {
+    try {
+      Class.forName("org.apache.hadoop.fs.s3a.AWSServiceThrottledException");
+      Class.forName("com.amazonaws.AmazonServiceException");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      LOG.debug("No S3A classes; throttling is detected from messages");
+      return false;
+    }
+  }
+
+  /**
+   * Classification of S3A and AWS exceptions; only loaded when their
+   * classes are on the classpath.
+   */
+  private static final class S3AErrors {
+
+    private S3AErrors() {
+    }
+
+    static boolean isThrottled(Throwable t) {
+      if (t instanceof AWSServiceThrottledException
+          || t instanceof AWSStatus500Exception) {
+        return true;
+      }
+      if (t instanceof AmazonServiceException) {
+        int status = ((AmazonServiceException) t).getStatusCode();
+        return status == 503 || status == 429;
+      }
+      return false;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return name + ": concurrency limit=" + getLimit()
+        + "; in flight=" + inFlight
+        + "; throttle events=" + throttleEvents;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor which runs every task in a thread of its own from another
+ * executor, with the number of tasks running at the same time limited
+ * by a semaphore rather than by the number of threads.
+ *
+ * This is for virtual threads: on Java 21+, {@link #create(int, boolean)}
+ * runs every task in its own virtual thread, so a task blocked on I/O
+ * does not hold a platform thread. Tasks waiting for a permit are
+ * virtual threads parked on the semaphore, which cost little; permits
+ * are granted in the order the tasks were submitted.
+ * Older JVMs have no virtual threads; the executor is then a
+ * fixed-size pool of platform threads.
+ *
+ * A task whose thread is interrupted while waiting for a permit, or
+ * which is granted one after {@link #shutdownNow()}, is cancelled,
+ * so that its future completes.
+ *
+ * Thread safe.
+ */
+final class BoundedExecutor extends AbstractExecutorService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      BoundedExecutor.class);
+
+  /** {@code Executors.newVirtualThreadPerTaskExecutor()}; null if absent. */
+  private static final Method NEW_VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+  private final ExecutorService threads;
+
+  private final Semaphore permits;
+
+  private final int limit;
+
+  /** Set by {@link #shutdownNow()}: tasks not yet running are cancelled. */
+  private volatile boolean stopped;
+
+  /**
+   * Constructor.
+   * @param threads executor which runs every task in a new thread
+   * @param limit maximum number of tasks running at the same time.
+   */
+  BoundedExecutor(ExecutorService threads, int limit) {
+    this.threads = threads;
+    this.limit = limit;
+    this.permits = new Semaphore(limit, true);
+  }
+
+  private static Method virtualExecutorFactory() {
+    try {
+      return Executors.class.getMethod(
+          "newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      LOG.debug("No virtual threads in this JVM");
+      return null;
+    }
+  }
+
+  /**
+   * Are virtual threads available?
+   * @return true if the JVM has virtual threads.
+   */
+  static boolean isVirtualAvailable() {
+    return NEW_VIRTUAL_EXECUTOR != null;
+  }
+
+  /**
+   * Create an executor of a number of tasks at the same time.
+   * @param limit maximum number of tasks running at the same time
+   * @param virtual run every task in its own virtual thread, if
+   * the JVM has them?
+   * @return an executor which is either a bounded executor of virtual
+   * threads, or a fixed-size pool.
+   */
+  static ExecutorService create(int limit, boolean virtual) {
+    if (virtual && NEW_VIRTUAL_EXECUTOR != null) {
+      try {
+        return new BoundedExecutor(
+            (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null), limit);
+      } catch (ReflectiveOperationException e) {
+        LOG.warn("Failed to create an executor of virtual threads: {}",
+            e.toString());
+        LOG.debug("Virtual thread failure", e);
+      }
+    }
+    return new ThreadPoolExecutor(limit, limit,
+        0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>());
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    threads.execute(() -> {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        cancel(command);
+        return;
+      }
+      if (stopped) {
+        // shut down now as the permit was granted
+        permits.release();
+        cancel(command);
+        return;
+      }
+      try {
+        command.run();
+      } finally {
+        permits.release();
+      }
+    });
+  }
+
+  private static void cancel(Runnable command) {
+    if (command instanceof Future) {
+      ((Future<?>) command).cancel(false);
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    threads.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    stopped = true;
+    return threads.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return threads.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return threads.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    return threads.awaitTermination(timeout, unit);
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedExecutor{limit=" + limit
+        + "; running=" + (limit - permits.availablePermits())
+        + "; waiting=" + permits.getQueueLength() + '}';
+  }
+}
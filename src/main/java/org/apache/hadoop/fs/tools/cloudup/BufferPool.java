@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of byte buffers of a fixed size shared by all workers.
+ * If the pool is empty a new buffer is allocated; at most
+ * {@code capacity} buffers are retained when released.
+ *
+ * Thread safe.
+ */
+final class BufferPool {
+
+  private final int bufferSize;
+
+  private final int capacity;
+
+  private final boolean direct;
+
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger pooled = new AtomicInteger();
+
+  private final AtomicInteger allocated = new AtomicInteger();
+
+  /**
+   * Constructor.
+   * @param bufferSize size of buffers
+   * @param capacity maximum number of buffers to retain
+   * @param direct should the buffers be direct?
+   */
+  BufferPool(int bufferSize, int capacity, boolean direct) {
+    this.bufferSize = bufferSize;
+    this.capacity = capacity;
+    this.direct = direct;
+  }
+
+  /**
+   * Take a buffer from the pool, or allocate one.
+   * @return a cleared buffer.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer != null) {
+      pooled.decrementAndGet();
+      buffer.clear();
+    } else {
+      allocated.incrementAndGet();
+      buffer = direct
+          ? ByteBuffer.allocateDirect(bufferSize)
+          : ByteBuffer.allocate(bufferSize);
+    }
+    return buffer;
+  }
+
+  /**
+   * Return a buffer to the pool; it is discarded if the pool is full.
+   * @param buffer buffer
+   */
+  void release(ByteBuffer buffer) {
+    if (pooled.incrementAndGet() <= capacity) {
+      buffers.offer(buffer);
+    } else {
+      pooled.decrementAndGet();
+    }
+  }
+
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Get the number of buffers allocated.
+   * @return the number of buffers allocated over the life of the pool.
+   */
+  int getAllocated() {
+    return allocated.get();
+  }
+
+  @Override
+  public String toString() {
+    return (direct ? "direct" : "heap")
+        + " buffers of size " + bufferSize
+        + ": allocated=" + allocated.get()
+        + "; pooled=" + pooled.get();
+  }
+}
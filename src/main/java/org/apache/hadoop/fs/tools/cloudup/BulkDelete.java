@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Store-specific deletion of a page of files in one request.
+ *
+ * This is a cut down version of the {@code BulkDelete} API of
+ * Hadoop 3.4+, which isn't available in the versions this module
+ * builds against.
+ */
+public interface BulkDelete extends Closeable {
+
+  /**
+   * Maximum number of files deleted in one request.
+   * @return a page size.
+   */
+  int getPageSize();
+
+  /**
+   * Delete a page of files. Directories must not be passed in.
+   * @param paths files to delete; no more than the page size
+   * @return the paths which could not be deleted; empty if all were.
+   * @throws IOException failure of the whole request
+   */
+  List<Path> delete(List<Path> paths) throws IOException;
+}
@@ -18,27 +18,39 @@
 
 package org.apache.hadoop.fs.tools.cloudup;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
@@ -49,19 +61,26 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.collections.comparators.ReverseComparator;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIOException;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.StorageStatistics;
+import org.apache.hadoop.fs.s3a.S3ABulkDelete;
+import org.apache.hadoop.fs.s3a.S3AMultipartStore;
 import org.apache.hadoop.fs.store.DurationInfo;
 import org.apache.hadoop.fs.store.StoreEntryPoint;
 import org.apache.hadoop.fs.store.StoreUtils;
-import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.retry.RetryPolicies;
+import org.apache.hadoop.io.retry.RetryPolicy;
+import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.util.ToolRunner;
 
 import static org.apache.hadoop.fs.store.StoreExitCodes.E_USAGE;
@@ -76,13 +95,194 @@ public class Cloudup extends StoreEntryPoint {
   private static final Logger LOG = LoggerFactory.getLogger(Cloudup.class);
 
   public static final String USAGE
-      = "Usage: cloudup -s source -d dest [-o] [-i] [-l <largest>] [-t threads] ";
+      = "Usage: cloudup -s source -d dest [-o] [-i] [-l <largest>] [-t threads]"
+      + " [-lt <large-threads>] [-ls <large-size>]"
+      + " [-ms <multipart-size>] [-ps <part-size>]"
+      + " [-bandwidth <MB/s>] [-filebandwidth <MB/s>] [-a]"
+      + " [-j <journal> [-r]] [-u]"
+      + " [-pack <size> [-packsize <container-size>]]"
+      + " [-checksum <crc32c|md5> [-verify]] [-report <dir>]"
+      + " [-shard <depth>|hash:<groups> [-shardlimit <n>]]"
+      + " [-attempts <n> [-backoff <millis>]] [-window <n>] [-virtual]"
+      + " [-plan] [-move]"
+      + " [-include <pattern>]* [-exclude <pattern>]*"
+      + " [-minsize <size>] [-maxsize <size>]"
+      + " [-after <time>] [-before <time>]"
+      + " [-compress <codec>]";
 
   private static final int DEFAULT_LARGEST = 4;
   private static final int DEFAULT_THREADS = 16;
+  private static final int DEFAULT_LARGE_THREADS = 2;
+  private static final String DEFAULT_SHARD = "1";
+  private static final long DEFAULT_BACKOFF = 500;
+  private static final long DEFAULT_LARGE_SIZE = 128 * 1024 * 1024;
+  private static final long DEFAULT_MULTIPART_SIZE = 256 * 1024 * 1024;
+  private static final long DEFAULT_PART_SIZE = 64 * 1024 * 1024;
 
+  private static final long DEFAULT_PACK_SIZE = 128 * 1024 * 1024;
+  private static final int PACKERS = 2;
+
+  /** Number of slowest uploads to report. */
+  private static final int SLOWEST = 10;
+
+  /** Default limit on the uploads submitted and not yet completed. */
+  private static final int DEFAULT_WINDOW = 10000;
+
+  /** Number of failed uploads retained for the final report. */
+  private static final int FAILURES_RETAINED = 100;
+
+  /** Number of sample uploads of a plan. */
+  private static final int PLAN_SAMPLES = 8;
+
+  /** Maximum size of a sample upload of a plan. */
+  private static final long PLAN_SAMPLE_MAX_SIZE = 32 * 1024 * 1024;
+
+  /** Capacity of the queue between the listing and the uploads. */
+  private static final int LISTING_QUEUE_SIZE = 10000;
+
+  /** Interval in millis at which the listing queue is polled. */
+  private static final long LISTING_POLL_INTERVAL = 100;
+
+  /**
+   * Pool for the upload of small files.
+   */
   private ExecutorService workers;
 
+  /**
+   * Pool for the listing and the preparation of the destination,
+   * apart from the uploads, so that a listing waiting for room in
+   * its queue never holds a thread which the uploads need.
+   */
+  private ExecutorService listingWorkers;
+
+  /**
+   * Narrow pool for the upload of large files.
+   */
+  private ExecutorService largeWorkers;
+
+  /**
+   * Pool for the parts of multipart uploads and the ranges of ranged
+   * downloads; only created if the destination supports multipart
+   * uploads, or the download is from a remote store to a local file.
+   */
+  private ExecutorService partWorkers;
+
+  /**
+   * Multipart operations of the destination; null if unsupported.
+   */
+  private MultipartStore multipartStore;
+
+  private MultipartUpload multipartUpload;
+
+  /**
+   * Bulk delete of the source store in a move; null if unsupported.
+   */
+  private BulkDelete bulkDelete;
+
+  /**
+   * Pool for the deletion of source files in a move.
+   */
+  private ExecutorService deleteWorkers;
+
+  /**
+   * Deleter of the source files of successful uploads; null unless
+   * moving.
+   */
+  private SourceDeleter deleter;
+
+  /**
+   * Ranged download of large files from a remote source to a local
+   * destination; null if not downloading.
+   */
+  private RangedDownload rangedDownload;
+
+  /**
+   * Files of this size or larger are uploaded as parts, or downloaded
+   * as ranges.
+   */
+  private long multipartSize;
+
+  /**
+   * Limit on the total bandwidth of all uploads; null for none.
+   */
+  private TokenBucket bandwidthLimit;
+
+  /**
+   * Limit on the bandwidth of every upload in MB/s; 0 for none.
+   */
+  private double fileBandwidth;
+
+  /**
+   * Adaptive limits on the uploads in flight in the small and large
+   * file pools; null if the pools run at their full size.
+   */
+  private AdaptiveConcurrency concurrency;
+  private AdaptiveConcurrency largeConcurrency;
+
+  /**
+   * Copies files other than through the destination's own operations.
+   */
+  private CopyEngine copyEngine;
+
+  /**
+   * Creator of the parent directories of the destinations, before
+   * their files; null if the destination is an object store.
+   */
+  private DirectoryCreator directories;
+
+  /**
+   * Pool of the directory creation.
+   */
+  private ExecutorService directoryWorkers;
+
+  /**
+   * Compression of uploads; null if they are not compressed.
+   */
+  private CompressionStage compression;
+
+  /**
+   * Pool of the compression, of a thread per CPU.
+   */
+  private ExecutorService compressWorkers;
+
+  /**
+   * Packer of small files; null if files are not packed.
+   */
+  private Packer packer;
+
+  /**
+   * Pool of the packers.
+   */
+  private ExecutorService packWorkers;
+
+  /**
+   * Files smaller than this are packed.
+   */
+  private long packThreshold;
+
+  /**
+   * Journal of upload progress; null for none.
+   */
+  private UploadJournal journal;
+
+  /**
+   * Algorithm of the checksum calculated as data is uploaded;
+   * null for none.
+   */
+  private String checksumAlgorithm;
+
+  /**
+   * Compare checksums with those of the destination?
+   */
+  private boolean verify;
+
+  /**
+   * Number of uploads whose checksum was verified, and of those
+   * which could not be.
+   */
+  private final AtomicInteger verified = new AtomicInteger();
+  private final AtomicInteger unverified = new AtomicInteger();
+
   private FileSystem sourceFS;
 
   private Path sourcePath;
@@ -99,6 +299,55 @@ public class Cloudup extends StoreEntryPoint {
   // single element exception with sync access.
   private final Exception[] firstException = new Exception[1];
   private CompletionService<Outcome> completion;
+  private CompletionService<Outcome> largeCompletion;
+
+  /**
+   * Policy for retrying failed uploads; null for no retries.
+   */
+  private RetryPolicy retryPolicy;
+
+  /**
+   * Resubmits failed uploads once their backoff has elapsed.
+   */
+  private ScheduledExecutorService retryScheduler;
+
+  /**
+   * Number of retries scheduled.
+   */
+  private final AtomicInteger retries = new AtomicInteger();
+
+  /**
+   * Entries of the uploads queued again for a retry, by index, so that
+   * the retry continues the count of their attempts.
+   */
+  private final Map<Integer, UploadEntry> retrying =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Selects the files listed for upload.
+   */
+  private ListingFilter filter;
+
+  /**
+   * All files listed.
+   */
+  private UploadPlan plan;
+
+  /**
+   * Durations of all uploads.
+   */
+  private UploadReport report;
+
+  /**
+   * Uploads awaiting a worker in the small and large file pools.
+   */
+  private PendingUploads smallPending;
+  private PendingUploads largePending;
+
+  /**
+   * Files of this size or larger are uploaded in the large file pool.
+   */
+  private long largeFileSize;
 
   private FileStatus sourcePathStatus;
 
@@ -118,10 +367,66 @@ public class Cloudup extends StoreEntryPoint {
       workers.shutdown();
       workers = null;
     }
+    if (listingWorkers != null) {
+      listingWorkers.shutdownNow();
+      listingWorkers = null;
+    }
+    if (largeWorkers != null) {
+      largeWorkers.shutdown();
+      largeWorkers = null;
+    }
+    if (partWorkers != null) {
+      partWorkers.shutdown();
+      partWorkers = null;
+    }
+    if (packWorkers != null) {
+      packWorkers.shutdown();
+      packWorkers = null;
+    }
+    if (compressWorkers != null) {
+      compressWorkers.shutdownNow();
+      compressWorkers = null;
+    }
+    if (retryScheduler != null) {
+      retryScheduler.shutdownNow();
+      retryScheduler = null;
+    }
+    if (multipartStore != null) {
+      multipartStore.close();
+      multipartStore = null;
+    }
+    if (deleteWorkers != null) {
+      deleteWorkers.shutdown();
+      deleteWorkers = null;
+    }
+    if (directoryWorkers != null) {
+      directoryWorkers.shutdown();
+      directoryWorkers = null;
+    }
+    if (bulkDelete != null) {
+      bulkDelete.close();
+      bulkDelete = null;
+    }
   }
 
   @Override
   public int run(String[] args) throws Exception {
+    try {
+      return upload(args);
+    } finally {
+      if (journal != null) {
+        journal.close();
+      }
+    }
+  }
+
+  /**
+   * Parse the arguments and perform the upload.
+   * @param args command line arguments
+   * @return the exit code
+   * @throws Exception failure
+   */
+  private int upload(String[] args) throws Exception {
     // parse the path
     if (args.length == 0) {
       LOG.info(USAGE);
@@ -141,8 +446,90 @@ public class Cloudup extends StoreEntryPoint {
     }
     final int largest = OptionSwitch.LARGEST.eval(command, DEFAULT_LARGEST);
     final int threads = OptionSwitch.THREADS.eval(command, DEFAULT_THREADS);
+    final int largeThreads = OptionSwitch.LARGE_THREADS.eval(command,
+        DEFAULT_LARGE_THREADS);
+    largeFileSize = OptionSwitch.LARGE_SIZE.evalSize(command,
+        DEFAULT_LARGE_SIZE);
+    multipartSize = OptionSwitch.MULTIPART_SIZE.evalSize(command,
+        DEFAULT_MULTIPART_SIZE);
+    final long partSize = OptionSwitch.PART_SIZE.evalSize(command,
+        DEFAULT_PART_SIZE);
+    StoreUtils.checkArgument(threads > 0 && largeThreads > 0,
+        "Thread counts must be greater than zero");
+    final double bandwidth = OptionSwitch.BANDWIDTH.eval(command, 0.0);
+    fileBandwidth = OptionSwitch.FILE_BANDWIDTH.eval(command, 0.0);
+    StoreUtils.checkArgument(bandwidth >= 0 && fileBandwidth >= 0,
+        "Bandwidth limits must not be negative");
+    bandwidthLimit = bandwidth > 0
+        ? TokenBucket.fromMegabytes(bandwidth)
+        : null;
+    final String journalFile = OptionSwitch.JOURNAL.eval(command, null);
+    final boolean resume = OptionSwitch.RESUME.hasOption(command);
+    StoreUtils.checkArgument(!resume || journalFile != null,
+        "Resuming requires a journal");
+    final boolean update = OptionSwitch.UPDATE.hasOption(command);
+    packThreshold = OptionSwitch.PACK.evalSize(command, 0);
+    // packed files are never files at the destination, so an update
+    // would pack them all again
+    StoreUtils.checkArgument(packThreshold == 0 || !update,
+        "Packing cannot be used with update");
+    final long packSize = OptionSwitch.PACK_SIZE.evalSize(command,
+        DEFAULT_PACK_SIZE);
+    checksumAlgorithm = OptionSwitch.CHECKSUM.eval(command, null);
+    if (checksumAlgorithm != null) {
+      // validates and normalizes the name
+      checksumAlgorithm = InlineChecksum.create(checksumAlgorithm)
+          .getAlgorithm();
+    }
+    verify = OptionSwitch.VERIFY.hasOption(command);
+    final String reportDir = OptionSwitch.REPORT.eval(command, null);
+    final int attempts = OptionSwitch.ATTEMPTS.eval(command, 1);
+    final long backoff = OptionSwitch.BACKOFF.eval(command,
+        (int) DEFAULT_BACKOFF);
+    StoreUtils.checkArgument(attempts > 0 && backoff >= 0,
+        "Attempts must be greater than zero and backoff not negative");
+    final int window = OptionSwitch.WINDOW.eval(command, DEFAULT_WINDOW);
+    StoreUtils.checkArgument(window > 0,
+        "Window must be greater than zero");
+    final boolean planOnly = OptionSwitch.PLAN.hasOption(command);
+    final boolean move = OptionSwitch.MOVE.hasOption(command);
+    final String after = OptionSwitch.AFTER.eval(command, null);
+    final String before = OptionSwitch.BEFORE.eval(command, null);
+    filter = new ListingFilter(
+        OptionSwitch.INCLUDE.evalAll(command),
+        OptionSwitch.EXCLUDE.evalAll(command),
+        OptionSwitch.MIN_SIZE.evalSize(command, 0),
+        OptionSwitch.MAX_SIZE.evalSize(command, Long.MAX_VALUE),
+        after != null ? ListingFilter.parseTime(after) : Long.MIN_VALUE,
+        before != null ? ListingFilter.parseTime(before) : Long.MAX_VALUE);
+    final String codecName = OptionSwitch.COMPRESS.eval(command, null);
+    // validates the name
+    final CompressionCodec codec = codecName != null
+        ? CompressionStage.codec(codecName, getConf())
+        : null;
+    StoreUtils.checkArgument(codec == null || !update,
+        "Compression cannot be used with update");
+    boolean virtual = OptionSwitch.VIRTUAL.hasOption(command);
+    if (virtual && !BoundedExecutor.isVirtualAvailable()) {
+      LOG.warn("Virtual threads need Java 21+; using thread pools");
+      virtual = false;
+    }
+    final PendingUploads.Sharding sharding = PendingUploads.Sharding.parse(
+        OptionSwitch.SHARD.eval(command, DEFAULT_SHARD),
+        OptionSwitch.SHARD_LIMIT.eval(command, 0));
+    StoreUtils.checkArgument(!verify || checksumAlgorithm != null,
+        "Verification requires a checksum");
+    final boolean adaptive = OptionSwitch.ADAPTIVE.hasOption(command);
+    if (adaptive) {
+      // start at a quarter of the pool size and work up
+      concurrency = new AdaptiveConcurrency("small files",
+          1, threads, Math.max(1, threads / 4));
+      largeConcurrency = new AdaptiveConcurrency("large files",
+          1, largeThreads, Math.max(1, largeThreads / 4));
+    }
 
-    overwrite = OptionSwitch.OVERWRITE.hasOption(command);
+    // files which have changed are overwritten in update mode
+    overwrite = OptionSwitch.OVERWRITE.hasOption(command) || update;
     ignoreFailures = OptionSwitch.IGNORE_FAILURES.hasOption(command);
     final Path src = new Path(OptionSwitch.SOURCE.required(command));
     final Configuration conf = getConf();
@@ -153,9 +540,24 @@ public class Cloudup extends StoreEntryPoint {
 
     LOG.info("Uploading from {} to {};"
             + " threads={}; large files={}"
+            + " large file threads={}; large file size={}"
+            + " multipart size={}; part size={}"
+            + " bandwidth={} MB/s; file bandwidth={} MB/s"
+            + " adaptive={}; journal={}; resume={}; update={}"
+            + " pack threshold={}; pack size={}"
+            + " checksum={}; verify={}; report={}; sharding={}"
+            + " attempts={}; backoff={} ms; window={}; virtual threads={}"
+            + " plan only={}; move={}; compression={}"
             + " overwrite={}, ignore failures={}",
         sourcePath, destPath,
         threads, largest,
+        largeThreads, largeFileSize,
+        multipartSize, partSize,
+        bandwidth, fileBandwidth,
+        adaptive, journalFile, resume, update,
+        packThreshold, packSize,
+        checksumAlgorithm, verify, reportDir, sharding,
+        attempts, backoff, window, virtual, planOnly, move, codecName,
         overwrite, ignoreFailures);
 
 
@@ -182,95 +584,247 @@ public class Cloudup extends StoreEntryPoint {
               + "%s is under source path " + d);
     }
 
-    // worker pool
-    workers = new ThreadPoolExecutor(threads, threads,
-        0L, TimeUnit.MILLISECONDS,
-        new LinkedBlockingQueue<>());
+    // worker pools; with virtual threads, a thread per task
+    // with the thread counts as the limit of tasks running.
+    workers = BoundedExecutor.create(threads, virtual);
+    listingWorkers = Executors.newCachedThreadPool();
+    largeWorkers = BoundedExecutor.create(largeThreads, virtual);
+    if (attempts > 1) {
+      retryPolicy = RetryPolicies.exponentialBackoffRetry(attempts - 1,
+          backoff, TimeUnit.MILLISECONDS);
+      retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+    // in a filesystem, the parent directories of the files are created
+    // once, before the files, in a pool of their own: uploads wait
+    // for them, so they must not be queued behind the uploads.
+    if (!planOnly && !"s3a".equals(destFS.getUri().getScheme())) {
+      directoryWorkers = BoundedExecutor.create(threads, virtual);
+      directories = new DirectoryCreator(destFS, destPath,
+          directoryWorkers);
+    }
+    copyEngine = new CopyEngine(CopyEngine.DEFAULT_BUFFER_SIZE,
+        threads + largeThreads, directories != null);
+    multipartStore = createMultipartStore(destFS);
+    final boolean download = CopyEngine.localFile(destFS, destPath) != null
+        && CopyEngine.localFile(sourceFS, sourcePath) == null;
+    if (multipartStore != null || download) {
+      partWorkers = BoundedExecutor.create(threads, virtual);
+    }
+    if (multipartStore != null) {
+      multipartUpload = new MultipartUpload(multipartStore, sourceFS,
+          partWorkers, partSize);
+    }
+    if (download) {
+      rangedDownload = new RangedDownload(sourceFS, partWorkers, partSize,
+          CopyEngine.DEFAULT_BUFFER_SIZE, threads);
+    }
+    if (codec != null) {
+      final int cpus = Runtime.getRuntime().availableProcessors();
+      compressWorkers = new ThreadPoolExecutor(cpus, cpus,
+          0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>());
+      compression = new CompressionStage(codec, compressWorkers);
+    }
+    if (move && !planOnly) {
+      bulkDelete = createBulkDelete(sourceFS);
+      deleteWorkers = BoundedExecutor.create(threads, virtual);
+      deleter = new SourceDeleter(sourceFS, bulkDelete, deleteWorkers);
+    }
 
-    final DurationInfo preparationDuration = new DurationInfo();
-    // list the files
-    Future<List<UploadEntry>> listFilesOperation =
-        workers.submit(buildUploads());
+    // completion services for all outstanding workers,
+    // both pools sharing the same queue of completed operations.
+    final LinkedBlockingQueue<Future<Outcome>> completed
+        = new LinkedBlockingQueue<>();
+    completion = new ExecutorCompletionService<>(workers, completed);
+    largeCompletion = new ExecutorCompletionService<>(largeWorkers, completed);
+    plan = new UploadPlan(sourcePath);
+    report = new UploadReport(plan);
+    smallPending = new PendingUploads(plan, largest, new Random(), sharding);
+    largePending = PendingUploads.largestFirst(plan);
+
+    // full upload operation, which includes the listing.
+    final DurationInfo uploadDuration = new DurationInfo();
+    final NanoTimer uploadTimer = new NanoTimer();
+    final DurationInfo listingDuration = new DurationInfo();
 
     // prepare the destination
+    final Future<String> prepareDestResult =
+        listingWorkers.submit(prepareDest());
 
-    final Future<String> prepareDestResult = workers.submit(prepareDest());
-    String info = StoreUtils.await(prepareDestResult);
-    LOG.info("Destination prepared: {}", info);
-
-    List<UploadEntry> uploadList = StoreUtils.await(listFilesOperation);
-    final int uploadCount = uploadList.size();
-
-    preparationDuration.finished();
-    LOG.info("Files to upload = {}; preparation DurationInfo = {}",
-        uploadCount, preparationDuration);
-
+    // in update mode, list the destination
+    final Future<Map<String, FileStatus>> listDestOperation = update
+        ? listingWorkers.submit(listDest())
+        : null;
 
-    // full upload operation
-    final DurationInfo uploadDuration = new DurationInfo();
-    final NanoTimer uploadTimer = new NanoTimer();
+    // list the files, streaming them through a bounded queue.
+    final BlockingQueue<Integer> listing
+        = new LinkedBlockingQueue<>(LISTING_QUEUE_SIZE);
+    final Future<Integer> listFilesOperation =
+        listingWorkers.submit(buildUploads(listing));
 
-    // now completion service for all outstanding workers
-    completion = new ExecutorCompletionService<>(workers);
+    String info = StoreUtils.await(prepareDestResult);
+    LOG.info("Destination prepared: {}", info);
 
-    // upload initial sorted entries.
+    final Map<String, FileStatus> destFiles = update
+        ? StoreUtils.await(listDestOperation)
+        : null;
+
+    Set<String> uploaded = null;
+    if (journalFile != null) {
+      journal = new UploadJournal(new File(journalFile), sourcePath,
+          destPath);
+      if (resume) {
+        // skip everything which the journal records as uploaded
+        uploaded = journal.replay();
+      }
+      if (!planOnly) {
+        journal.open();
+      }
+    }
 
-    // reverse sort to get largest first
-    uploadList.sort(new ReverseComparator(new UploadEntry.SizeComparator()));
+    // start the packers of small files
+    final List<Future<Packer.Result>> packResults = new ArrayList<>();
+    if (packThreshold > 0 && !planOnly) {
+      // the files queued for packing are bounded by the window, as
+      // uploads are
+      packer = new Packer(plan, sourceFS, destFS, destPath, packSize,
+          window, conf, journal, checksumAlgorithm, deleter, bandwidthLimit);
+      packWorkers = new ThreadPoolExecutor(PACKERS, PACKERS,
+          0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>());
+      for (int i = 0; i < PACKERS; i++) {
+        packResults.add(packWorkers.submit(packer.createPacker(i)));
+      }
+    }
 
-    // select the largest few of them
-    final int sortUploadCount = Math.min(largest, uploadCount);
-    long sortUploadSize = 0;
+    // submit every file as it is listed, folding in the outcomes of
+    // completed uploads as they arrive. While the window of uploads
+    // submitted and not yet completed is full, no more are submitted,
+    // so the listing queue fills and the listing blocks.
+    final Outcomes outcomes = new Outcomes();
+    int listed = 0;
+    int unchanged = 0;
+    int resumed = 0;
     int submittedFiles = 0;
-    for (int i = 0; i < sortUploadCount; i++) {
-      UploadEntry upload = uploadList.get(i);
-      LOG.info("Large file {}: size = {}: {}",
-          i + 1, upload.getSize(),
-          upload.getSource());
-      long submitSize = submit(upload);
-      if (submitSize >= 0) {
-        submittedFiles++;
-        sortUploadSize += submitSize;
-      }
-    }
-    LOG.info("Largest {} uploads commenced, total size = {}",
-        uploadCount, sortUploadSize);
-
-
-    // shuffle and submit remainder
-    int shuffledUploadCount = 0;
-    long shuffledUploadSize = 0;
-
-    if (uploadCount > sortUploadCount) {
-      Collections.shuffle(uploadList);
-      for (UploadEntry entry : uploadList) {
-        long size = submit(entry);
-        if (size >= 0) {
-          // file was submitted for upload
-          shuffledUploadCount++;
-          shuffledUploadSize += size;
+    int largeFiles = 0;
+    int packedFiles = 0;
+    long uploadSize = 0;
+    long packedSize = 0;
+    // in a dry run, the files which would be uploaded
+    int[] planned = planOnly ? new int[1024] : null;
+    int plannedFiles = 0;
+    try {
+      while (true) {
+        Future<Outcome> done;
+        while ((done = completion.poll()) != null) {
+          outcomes.add(done);
+        }
+        // wait for an upload to complete, raising any failure of the
+        // listing rather than waiting on a listing which has failed
+        while (submittedFiles + retries.get() - outcomes.getTaken()
+            >= window) {
+          done = completion.poll(LISTING_POLL_INTERVAL,
+              TimeUnit.MILLISECONDS);
+          if (done != null) {
+            outcomes.add(done);
+          } else if (listFilesOperation.isDone()) {
+            StoreUtils.await(listFilesOperation);
+          }
+        }
+        Integer index = listing.poll(LISTING_POLL_INTERVAL,
+            TimeUnit.MILLISECONDS);
+        if (index == null) {
+          if (listFilesOperation.isDone() && listing.isEmpty()) {
+            break;
+          }
+          continue;
         }
+        listed++;
+        if (uploaded != null
+            && uploaded.contains(plan.getRelativePath(index))) {
+          resumed++;
+          continue;
+        }
+        if (destFiles != null
+            && isUnchanged(index, destFiles.get(destKey(getDest(index))))) {
+          unchanged++;
+          continue;
+        }
+        if (planned != null) {
+          if (plannedFiles == planned.length) {
+            planned = Arrays.copyOf(planned, plannedFiles * 2);
+          }
+          planned[plannedFiles++] = index;
+          continue;
+        }
+        long submitSize = submit(index);
+        if (submitSize < 0) {
+          continue;
+        }
+        if (isPacked(submitSize)) {
+          packedFiles++;
+          packedSize += submitSize;
+        } else {
+          submittedFiles++;
+          uploadSize += submitSize;
+          if (isLarge(submitSize)) {
+            largeFiles++;
+          }
+        }
+      }
+      // raise any failure of the listing
+      StoreUtils.await(listFilesOperation);
+    } finally {
+      listFilesOperation.cancel(true);
+      if (packer != null) {
+        packer.finish();
       }
-      LOG.info("Shuffled uploads commenced: {}, total size = {}",
-          shuffledUploadCount, shuffledUploadSize);
     }
-    submittedFiles += shuffledUploadCount;
+    listingDuration.finished();
+
+    LOG.info("Files listed = {}; unchanged = {}; already uploaded = {};"
+            + " listing DurationInfo = {}",
+        listed, unchanged, resumed, listingDuration);
+    if (filter.getExcludedFiles() > 0 || filter.getPrunedDirectories() > 0) {
+      LOG.info("Files excluded = {}; directories pruned = {}",
+          filter.getExcludedFiles(), filter.getPrunedDirectories());
+    }
+    LOG.info("Uploads submitted: {}, of which large: {}; total size = {}",
+        submittedFiles, largeFiles, uploadSize);
+    if (packer != null) {
+      LOG.info("Files to pack: {}; total size = {}", packedFiles, packedSize);
+    }
+    LOG.info("{}", plan);
+
+    if (planned != null) {
+      return planUploads(planned, plannedFiles, threads, largest,
+          largeThreads);
+    }
 
-    if (submittedFiles == 0) {
+    if (submittedFiles == 0 && packedFiles == 0) {
       LOG.info("No files submitted");
       return 0;
     }
 
-    final long uploadSize = sortUploadSize + shuffledUploadSize;
+    // now await all outcomes to complete, including retries.
+    // A retry is counted before the outcome of the failed attempt
+    // is available, so once all outcomes have been taken, no more
+    // retries can be scheduled.
+    LOG.info("Awaiting completion of {} operations",
+        submittedFiles + retries.get() - outcomes.getTaken());
+    while (outcomes.getTaken() < submittedFiles + retries.get()) {
+      outcomes.add(completion.take());
+    }
 
+    // and for the packers
+    final List<Packer.Result> packed = new ArrayList<>(packResults.size());
+    for (Future<Packer.Result> result : packResults) {
+      packed.add(StoreUtils.await(result));
+    }
 
-    // now await all outcomes to complete
-    LOG.info("Awaiting completion of {} operations", uploadCount);
-    List<Future<Outcome>> outcomes = new ArrayList<>(uploadCount);
-    for (int i = 0; i < uploadCount; i++) {
-      Future<Outcome> outcome = completion.take();
-      LOG.debug("Operation {} completed", i + 1);
-      outcomes.add(outcome);
+    // and for the deletion of the sources of a move
+    if (deleter != null) {
+      deleter.finish();
     }
 
     uploadDuration.finished();
@@ -283,30 +837,83 @@ public class Cloudup extends StoreEntryPoint {
     }
 
     LOG.info("\n\nUploads attempted: {}, size {}, DurationInfo:  {}",
-        uploadCount, uploadSize, uploadDuration);
+        submittedFiles, uploadSize, uploadDuration);
     LOG.info("Bandwidth {} MB/s",
-        uploadTimer.bandwidthDescription(uploadSize));
+        uploadTimer.bandwidthDescription(uploadSize + packedSize));
     LOG.info(String.format("Seconds per file %.3fs",
-        ((double) uploadDuration.value()) / uploadCount));
+        ((double) uploadDuration.value()) / (submittedFiles + packedFiles)));
+    LOG.info("{}", copyEngine);
+    if (directories != null) {
+      LOG.info("Directories created: {}", directories.getCreated());
+    }
+    if (compression != null) {
+      LOG.info("{}", compression);
+    }
+    LOG.info("Small files taken round-robin from {} groups by {}",
+        smallPending.groups(), sharding);
+    if (verify) {
+      LOG.info("Checksums verified: {}; unverifiable: {}",
+          verified.get(), unverified.get());
+    }
+    report.log(LOG, SLOWEST);
+    if (reportDir != null) {
+      // the uploads are complete, so a failure here does not fail the run
+      try {
+        report.write(new File(reportDir), SLOWEST);
+        LOG.info("Report of {} uploads written to {}", report.size(),
+            reportDir);
+      } catch (IOException e) {
+        LOG.warn("Failed to write report to {}: {}", reportDir, e.toString());
+      }
+    }
+    if (concurrency != null) {
+      LOG.info("{}", concurrency);
+      LOG.info("{}", largeConcurrency);
+    }
 
-    // run through the outcomes and process errors
-    // at this point, all the uploads have been executed.
-    long finalUploadedSize = 0;
-    int errors = 0;
+    // at this point, all the uploads have been executed
+    // and their outcomes folded in.
+    long finalUploadedSize = outcomes.getBytesUploaded();
+    int errors = outcomes.getErrors();
     Exception exception = firstException[0];
+    if (exception == null) {
+      exception = outcomes.getException();
+    }
+    for (Outcome failure : outcomes.getFailures()) {
+      LOG.warn("Failed: {}: {}", failure.getUpload() != null
+              ? failure.getUpload().getSource()
+              : "(unknown)",
+          String.valueOf(failure.getException()));
+    }
+    if (errors > outcomes.getFailures().size()) {
+      LOG.warn("... and {} more failures",
+          errors - outcomes.getFailures().size());
+    }
 
-    for (Future<Outcome> outcome : outcomes) {
-      try {
-        final Outcome result = StoreUtils.await(outcome);
-        result.maybeThrowException();
-        finalUploadedSize += result.getBytesUploaded();
-      } catch (InterruptedException ignored) {
-        // ignored
-    } catch (Exception e) {
-        errors++;
-        if (exception == null) {
-          exception = e;
-        }
+    int containers = 0;
+    for (Packer.Result result : packed) {
+      containers += result.getContainers();
+      finalUploadedSize += result.getBytes();
+      errors += result.getFailures();
+      if (exception == null) {
+        exception = result.getException();
+      }
+    }
+    if (packer != null) {
+      LOG.info("Packed files: {} in {} containers",
+          packedFiles, containers);
+    }
+    if (retryPolicy != null) {
+      LOG.info("Retries: {}; files uploaded after a retry: {}",
+          retries.get(), outcomes.getRecovered());
+    }
+    if (deleter != null) {
+      LOG.info("Source files deleted: {}; not deleted: {};"
+              + " delete requests: {}",
+          deleter.getDeleted(), deleter.getFailures(), deleter.getRequests());
+      errors += deleter.getFailures();
+      if (exception == null) {
+        exception = deleter.getException();
       }
     }
 
@@ -323,32 +930,232 @@ public class Cloudup extends StoreEntryPoint {
   }
 
   /**
-   * Create an upload.
-   * @param upload upload entry
-   * @return length of upload; -1 for "none"
+   * Predict the duration of the uploads rather than perform them.
+   * Sample files are uploaded one at a time to a temporary directory
+   * under the destination, which is deleted afterwards; the latency and
+   * bandwidth of an upload fitted to their durations are used to
+   * simulate the run with its options and with the candidate thread
+   * counts and counts of largest files; see {@link MakespanPlanner}.
+   * @param indices indices of the files to upload
+   * @param count number of files
+   * @param threads threads of the small file pool
+   * @param largest number of small files uploaded largest first
+   * @param largeThreads threads of the large file pool
+   * @return the exit code
+   * @throws IOException failure of a sample upload
+   */
+  private int planUploads(final int[] indices, final int count,
+      final int threads, final int largest, final int largeThreads)
+      throws IOException {
+    if (count == 0) {
+      LOG.info("No files to upload");
+      return 0;
+    }
+    final long[] sizes = new long[count];
+    long total = 0;
+    for (int i = 0; i < count; i++) {
+      sizes[i] = plan.getSize(indices[i]);
+      total += sizes[i];
+    }
+    if (packThreshold > 0) {
+      LOG.warn("Packing is not part of the plan");
+    }
+    final double[] model = sampleUploads(indices, sizes);
+    final MakespanPlanner planner = new MakespanPlanner(sizes,
+        model[0], model[1], largeFileSize, largeThreads, 0);
+    LOG.info("Files to upload: {}; total size {}", count, total);
+    LOG.info(String.format(
+        "Latency of an upload %.1f ms; bandwidth of a stream %.3f MB/s",
+        planner.getLatencyNanos() / 1.0e6,
+        planner.getBandwidth() / (1024 * 1024)));
+    final MakespanPlanner.Simulation current =
+        planner.simulate(threads, largest);
+    LOG.info(String.format("Predicted duration with %s; lower bound %,.3f s",
+        current, planner.lowerBound(threads) / 1.0e9));
+    LOG.info("Last files to finish:");
+    for (int i : current.last(SLOWEST)) {
+      LOG.info(String.format("  %s: size %,d; finishes at %,.3f s",
+          plan.getRelativePath(indices[i]), sizes[i],
+          current.getFinish(i) / 1.0e9));
+    }
+    final MakespanPlanner.Simulation best = planner.best();
+    LOG.info("Recommended: {}", best);
+    return 0;
+  }
+
+  /**
+   * Time the upload of sample files, spread across the sizes of the
+   * files up to {@link #PLAN_SAMPLE_MAX_SIZE}, and fit the model of
+   * an upload to their durations.
+   * The smallest is first uploaded without being timed, as the first
+   * upload also creates the directory and opens the connections.
+   * @return the latency in nanoseconds and the nanoseconds per byte.
    */
-  private Callable<Outcome> createUploadOperation(final UploadEntry upload) {
-    return () -> uploadOneFile(upload);
+  private double[] sampleUploads(final int[] indices, final long[] sizes)
+      throws IOException {
+    final List<Integer> candidates = new ArrayList<>();
+    int smallest = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      if (sizes[i] <= PLAN_SAMPLE_MAX_SIZE) {
+        candidates.add(i);
+      }
+      if (sizes[i] < sizes[smallest]) {
+        smallest = i;
+      }
+    }
+    if (candidates.isEmpty()) {
+      candidates.add(smallest);
+    }
+    candidates.sort((l, r) -> Long.compare(sizes[l], sizes[r]));
+    final int samples = Math.min(PLAN_SAMPLES, candidates.size());
+    final long[] sampleSizes = new long[samples];
+    final long[] sampleNanos = new long[samples];
+    final Path sampleDir = new Path(destPath,
+        "_cloudup-plan-" + UUID.randomUUID().toString().substring(0, 8));
+    try {
+      final int first = candidates.get(0);
+      uploadOneFile(plan.getSource(indices[first]),
+          new Path(sampleDir, "warmup"), sizes[first]);
+      for (int s = 0; s < samples; s++) {
+        final int i = candidates.get(samples == 1
+            ? 0
+            : s * (candidates.size() - 1) / (samples - 1));
+        final Path source = plan.getSource(indices[i]);
+        final NanoTimer timer = new NanoTimer();
+        uploadOneFile(source, new Path(sampleDir, "sample-" + s), sizes[i]);
+        sampleNanos[s] = timer.end();
+        sampleSizes[s] = sizes[i];
+        LOG.info("Sample upload of {}: size {}; {} ms", source, sizes[i],
+            sampleNanos[s] / 1_000_000);
+      }
+    } finally {
+      try {
+        destFS.delete(sampleDir, true);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete {}: {}", sampleDir, e.toString());
+      }
+    }
+    return MakespanPlanner.fit(sampleSizes, sampleNanos);
+  }
+
+  /**
+   * Create an upload operation, which uploads the next of the
+   * pending uploads when it is executed.
+   * @param pending pending uploads
+   * @return the operation
+   */
+  private Callable<Outcome> createUploadOperation(
+      final PendingUploads pending) {
+    return () -> {
+      int index = pending.take();
+      if (index < 0) {
+        return Outcome.notExecuted(null);
+      }
+      try {
+        UploadEntry upload = retrying.remove(index);
+        if (upload == null) {
+          upload = plan.createEntry(index, getDest(index));
+        } else {
+          upload.setState(plan.getState(index));
+        }
+        return uploadOneFile(upload);
+      } finally {
+        pending.done(index);
+      }
+    };
+  }
+
+  /**
+   * Is a file small enough to be packed?
+   * @param size file size
+   * @return true if files are being packed and this is below the threshold.
+   */
+  private boolean isPacked(final long size) {
+    return packer != null && size < packThreshold;
+  }
+
+  /**
+   * Is a file large enough to go into the large file pool?
+   * @param size file size
+   * @return true if the file is at or above the large file size.
+   */
+  private boolean isLarge(final long size) {
+    return size >= largeFileSize;
   }
 
   /**
-   *
    * Submit an upload; does nothing if the upload is already queued.
-   * @param upload upload to submit
+   * Small files are passed to the packer, if there is one.
+   * Large files are added to the pending uploads of the large file pool,
+   * all others to those of the main worker pool; an operation is then
+   * submitted to the pool to upload whichever pending file is to go next.
+   * The creation of the parent directory of an upload starts here.
+   * @param index index in the plan of the file to submit
    * @return size to upload; -1 for no upload
+   * @throws IOException failure to journal the upload
+   * @throws InterruptedException interrupted waiting for room in
+   * the queue of the packer
    */
-  private long submit(final UploadEntry upload) {
-    LOG.debug("Submit {}", upload);
-    if (upload.inState(UploadEntry.State.ready)) {
-      Callable<Outcome> operation = createUploadOperation(upload);
-      upload.setState(UploadEntry.State.queued);
-      LOG.debug("Queued {}", upload);
-      completion.submit(operation);
-      return upload.getSize();
+  private long submit(final int index)
+      throws IOException, InterruptedException {
+    if (plan.inState(index, UploadEntry.State.ready)) {
+      plan.setState(index, UploadEntry.State.queued);
+      final String relativePath = plan.getRelativePath(index);
+      if (journal != null) {
+        journal.queued(relativePath);
+      }
+      LOG.debug("Queued {}", relativePath);
+      final long size = plan.getSize(index);
+      if (isPacked(size)) {
+        packer.add(index);
+        return size;
+      }
+      if (directories != null) {
+        // start creating the parent while the upload is queued
+        directories.create(getDest(index).getParent());
+      }
+      if (isLarge(size)) {
+        largePending.add(index);
+        largeCompletion.submit(createUploadOperation(largePending));
+      } else {
+        smallPending.add(index);
+        completion.submit(createUploadOperation(smallPending));
+      }
+      return size;
     }
     return -1;
   }
 
+  /**
+   * Create the multipart operations for the destination, if it
+   * supports them. Only S3A does.
+   * @param fs destination filesystem
+   * @return the multipart store or null
+   * @throws IOException failure to create the store
+   */
+  private MultipartStore createMultipartStore(FileSystem fs)
+      throws IOException {
+    if ("s3a".equals(fs.getUri().getScheme())) {
+      return new S3AMultipartStore(fs);
+    }
+    LOG.debug("No multipart upload support for {}", fs.getUri());
+    return null;
+  }
+
+  /**
+   * Create the bulk delete of the source, if it supports it.
+   * Only S3A does.
+   * @param fs source filesystem
+   * @return the bulk delete or null
+   */
+  private BulkDelete createBulkDelete(FileSystem fs) {
+    if ("s3a".equals(fs.getUri().getScheme())) {
+      return new S3ABulkDelete(fs);
+    }
+    LOG.debug("No bulk delete support for {}", fs.getUri());
+    return null;
+  }
+
   /**
    * Callable to prepare destination;
    * @return a string for logging.
@@ -364,28 +1171,152 @@ public class Cloudup extends StoreEntryPoint {
     };
   }
 
-  private Callable<List<UploadEntry>> buildUploads() {
+  private Callable<Integer> buildUploads(
+      final BlockingQueue<Integer> listing) {
     return () -> {
       LOG.info("Listing source files under {}", sourcePath);
-      return createUploadList();
+      return createUploadList(listing);
     };
   }
 
   /**
-   * List the source files and build the list
-   * @return list of uploads
+   * List the source files, adding each which the filter accepts to the
+   * plan and putting its index onto a queue.
+   * If the filter can prune directories, and the source is not S3A,
+   * whose recursive listing is flat, the source tree is walked one
+   * directory at a time so that pruned directories are never listed.
+   * This blocks while the queue is full.
+   * @param listing queue of indices
+   * @return the number of files listed
    * @throws IOException failure to list
+   * @throws InterruptedException interrupted while waiting for the queue
    */
-  private List<UploadEntry> createUploadList() throws IOException {
-    List<UploadEntry> uploads = new ArrayList<>();
+  private int createUploadList(final BlockingQueue<Integer> listing)
+      throws IOException, InterruptedException {
+    int count = 0;
+    if (filter.canPrune() && sourcePathStatus.isDirectory()
+        && !"s3a".equals(sourceFS.getUri().getScheme())) {
+      final Deque<Path> directories = new ArrayDeque<>();
+      directories.push(sourcePath);
+      while (!directories.isEmpty()) {
+        RemoteIterator<FileStatus> ri = sourceFS.listStatusIterator(
+            directories.pop());
+        while (ri.hasNext()) {
+          FileStatus status = ri.next();
+          if (!status.isDirectory()) {
+            count += addListed(status, listing);
+          } else if (!filter.prune(relativize(status.getPath()).getPath())) {
+            directories.push(status.getPath());
+          }
+        }
+      }
+      return count;
+    }
     RemoteIterator<LocatedFileStatus> ri = sourceFS.listFiles(sourcePath, true);
     while (ri.hasNext()) {
-      LocatedFileStatus status = ri.next();
-      UploadEntry entry = new UploadEntry(status);
-      entry.setDest(getFinalPath(status.getPath()));
-      uploads.add(entry);
+      count += addListed(ri.next(), listing);
+    }
+    return count;
+  }
+
+  /**
+   * Add a listed file to the plan and the queue, if the filter accepts it.
+   * @param status status of the file
+   * @param listing queue of indices
+   * @return 1 if it was added, else 0
+   * @throws IOException failure to relativize the path
+   * @throws InterruptedException interrupted while waiting for the queue
+   */
+  private int addListed(final FileStatus status,
+      final BlockingQueue<Integer> listing)
+      throws IOException, InterruptedException {
+    final URI relativePath = relativize(status.getPath());
+    if (!filter.accept(relativePath.getPath(), status.getPath().getName(),
+        status.getLen(), status.getModificationTime())) {
+      return 0;
+    }
+    listing.put(plan.add(relativePath.getRawPath(), status.getLen(),
+        status.getModificationTime()));
+    return 1;
+  }
+
+  /**
+   * Get the path of a listed file or directory relative to the source.
+   * @param path listed path
+   * @return the relative path as a URI
+   * @throws IOException if the path is not under the source
+   */
+  private URI relativize(final Path path) throws IOException {
+    final URI fileUri = path.toUri();
+    final URI relativePath = sourcePath.toUri().relativize(fileUri);
+    if (fileUri == relativePath) {
+      throw new IOException("Can not get the relative path:"
+          + " base = " + sourcePath + " child = " + path);
+    }
+    return relativePath;
+  }
+
+  /**
+   * Callable to list all files under the destination.
+   * @return a map of the files from their key to their status; empty
+   * if there is nothing at the destination.
+   */
+  private Callable<Map<String, FileStatus>> listDest() {
+    return () -> {
+      LOG.info("Listing destination files under {}", destPath);
+      Map<String, FileStatus> files = new HashMap<>();
+      try {
+        RemoteIterator<LocatedFileStatus> ri = destFS.listFiles(destPath,
+            true);
+        while (ri.hasNext()) {
+          LocatedFileStatus status = ri.next();
+          files.put(destKey(status.getPath()), status);
+        }
+      } catch (FileNotFoundException e) {
+        // dest doesn't exist
+      }
+      return files;
+    };
+  }
+
+  /**
+   * Get the key of a destination file: its path relative to the
+   * destination path.
+   * @param path path under the destination
+   * @return the relative path
+   */
+  private String destKey(Path path) {
+    return destFS.makeQualified(destPath).toUri()
+        .relativize(destFS.makeQualified(path).toUri())
+        .getPath();
+  }
+
+  /**
+   * Is the destination of a file unchanged from the source?
+   * It is if it has the same size and is no older than the source.
+   * If the source is newer, the checksums are compared, if both
+   * filesystems provide them.
+   * @param index index of the file in the plan
+   * @param dest status of the destination; null if there is none
+   * @return true if the file need not be uploaded.
+   */
+  private boolean isUnchanged(int index, FileStatus dest) {
+    if (dest == null || dest.getLen() != plan.getSize(index)) {
+      return false;
+    }
+    if (dest.getModificationTime() >= plan.getModificationTime(index)) {
+      return true;
+    }
+    final Path source = plan.getSource(index);
+    try {
+      FileChecksum sourceChecksum = sourceFS.getFileChecksum(source);
+      return sourceChecksum != null
+          && sourceChecksum.equals(destFS.getFileChecksum(dest.getPath()));
+    } catch (IOException e) {
+      LOG.debug("Failed to compare checksums of {} and {}",
+          source, dest.getPath(), e);
+      return false;
     }
-    return uploads;
   }
 
   /**
@@ -400,50 +1331,270 @@ public class Cloudup extends StoreEntryPoint {
       return Outcome.notExecuted(upload);
     }
 
-    //skip uploading duplicate (and uploaded already) files
-    if (!upload.inState(UploadEntry.State.ready)
-        && !upload.inState(UploadEntry.State.queued)) {
+    // skip anything which was not taken from the pending uploads
+    if (!upload.inState(UploadEntry.State.active)) {
       LOG.warn("Skipping upload of {}", upload);
       return Outcome.notExecuted(upload);
     }
 
+    // wait for capacity if the uploads in flight are being limited
+    final AdaptiveConcurrency limiter = isLarge(upload.getSize())
+        ? largeConcurrency
+        : concurrency;
+    if (limiter == null) {
+      return executeUpload(upload);
+    }
+    try {
+      limiter.acquire();
+    } catch (InterruptedException e) {
+      return Outcome.notExecuted(upload);
+    }
+    Outcome outcome = null;
+    try {
+      outcome = executeUpload(upload);
+      return outcome;
+    } finally {
+      if (outcome != null) {
+        limiter.release(outcome.getBytesUploaded(),
+            TimeUnit.MILLISECONDS.toNanos(upload.getDuration()),
+            outcome.getException());
+      } else {
+        limiter.cancel();
+      }
+    }
+  }
+
+  /**
+   * Execute the upload of one entry.
+   * @param upload upload information
+   * @return the outcome of the upload
+   */
+  private Outcome executeUpload(final UploadEntry upload) {
     // Although S3A in Hadoop 2.9 has a robust copy call which qualifies
     // the path and checks for safe operations, 2.8 doesn't. Add robustness
     // here at the expense of IOPs
     upload.setStartTime(now());
+    final int attempt = upload.attempt();
     final Path source = upload.getSource();
     final Path dest = destFS.makeQualified(upload.getDest());
     try {
       LOG.info("Uploading {} to {} (size: {}",
           source, dest, upload.getSize());
-      uploadOneFile(source, dest);
+      if (directories != null) {
+        directories.await(dest.getParent());
+      }
+      final String checksum = uploadOneFile(source, dest, upload.getSize());
+      upload.setChecksum(checksum);
+      if (verify) {
+        verify(dest, checksum);
+      }
       upload.setState(UploadEntry.State.succeeded);
       upload.setEndTime(now());
-      LOG.info("Successful upload of {} tpo {} in {} s",
+      plan.setState(upload.getIndex(), upload.getState());
+      report.record(upload);
+      journalCompletion(upload);
+      if (deleter != null) {
+        // only now that the upload is known to have succeeded
+        deleter.delete(source);
+      }
+      LOG.info("Successful upload of {} tpo {} in {} s{}",
           source,
           dest,
-          DurationInfo.humanTime(upload.getDuration()));
+          DurationInfo.humanTime(upload.getDuration()),
+          checksum != null ? "; checksum " + checksum : "");
       return Outcome.succeeded(upload);
     } catch (Exception e) {
+      LOG.debug("Upload to {} failed", dest, e);
+      if (scheduleRetry(upload, e)) {
+        return Outcome.retried(upload, e);
+      }
       upload.setState(UploadEntry.State.failed);
       upload.setException(e);
       upload.setEndTime(now());
-      LOG.warn("Failed to  upload {} : {}", source, e.toString());
-      LOG.debug("Upload to {} failed", dest, e);
+      plan.setState(upload.getIndex(), upload.getState());
+      report.record(upload);
+      journalCompletion(upload);
+      LOG.warn("Failed to  upload {} after {} attempt(s): {}", source,
+          attempt, e.toString());
       noteException(e);
       return Outcome.failed(upload, e);
     }
   }
 
-  private void uploadOneFile(final Path source, final Path dest)
+  /**
+   * Schedule a retry of a failed upload, if the failure may be transient
+   * and the upload has attempts left. Once its backoff has elapsed,
+   * the upload is queued again in its pending uploads, and an upload
+   * operation submitted to its pool, so that the retry is subject to
+   * the limit on the uploads in flight of its shard.
+   * It stays active until then: were it queued, it could be taken
+   * again from the pending uploads, which remove entries lazily.
+   * @param upload upload which failed
+   * @param e failure
+   * @return true if a retry was scheduled.
+   */
+  private boolean scheduleRetry(final UploadEntry upload,
+      final Exception e) {
+    if (retryPolicy == null || exit.get() || !isRetriable(e)) {
+      return false;
+    }
+    final RetryPolicy.RetryAction action;
+    try {
+      action = retryPolicy.shouldRetry(e, upload.getAttempts() - 1, 0, true);
+    } catch (Exception ex) {
+      return false;
+    }
+    if (action.action != RetryPolicy.RetryAction.RetryDecision.RETRY) {
+      return false;
+    }
+    LOG.info("Retrying upload of {} in {} ms after attempt {} failed: {}",
+        upload.getSource(), action.delayMillis, upload.getAttempts(),
+        e.toString());
+    final boolean large = isLarge(upload.getSize());
+    final CompletionService<Outcome> service = large
+        ? largeCompletion
+        : completion;
+    final PendingUploads pending = large ? largePending : smallPending;
+    final int index = upload.getIndex();
+    retries.incrementAndGet();
+    retryScheduler.schedule(() -> {
+      retrying.put(index, upload);
+      plan.setState(index, UploadEntry.State.queued);
+      pending.add(index);
+      service.submit(createUploadOperation(pending));
+    }, action.delayMillis, TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  /**
+   * Is a failure one which may succeed if retried?
+   * Failures of the filesystem which are not about the existence
+   * or permissions of the files, or interruptions, may be transient;
+   * timeouts are.
+   * @param e failure
+   * @return true if the upload may be retried
+   */
+  static boolean isRetriable(final Exception e) {
+    return e instanceof IOException
+        && !(e instanceof FileNotFoundException
+        || e instanceof FileAlreadyExistsException
+        || e instanceof java.nio.file.FileAlreadyExistsException
+        || e instanceof java.nio.file.AccessDeniedException
+        || e instanceof AccessControlException
+        || e instanceof PathIOException
+        || (e instanceof InterruptedIOException
+            && !(e instanceof SocketTimeoutException)));
+  }
+
+  /**
+   * Upload a file.
+   * @return the checksum of the data as "algorithm:hex", or null if
+   * none was calculated.
+   */
+  private String uploadOneFile(final Path source, final Path dest,
+      final long size)
       throws IOException {
-    if (sourceFS instanceof LocalFileSystem) {
-      // source is local, use the local operation
+    final TokenBucket fileLimit = fileBandwidth > 0
+        ? TokenBucket.fromMegabytes(fileBandwidth)
+        : null;
+    final boolean throttled = bandwidthLimit != null || fileLimit != null;
+    if (compression != null) {
+      // compressed in the compression pool while this worker uploads
+      // the output. Its size is unknown until the end, so it is never
+      // uploaded as parts. The checksum is of the compressed data,
+      // so that it can be verified.
+      final InlineChecksum checksum = checksumAlgorithm != null
+          ? InlineChecksum.create(checksumAlgorithm)
+          : null;
+      try (InputStream in = InlineChecksum.wrap(
+          compression.compress(sourceFS.open(source)), checksum)) {
+        copyEngine.copy(in, destFS, dest, overwrite, bandwidthLimit,
+            fileLimit);
+      }
+      return checksum != null
+          ? checksum.getAlgorithm() + ":" + checksum.getHex()
+          : null;
+    } else if (multipartUpload != null && size >= multipartSize) {
+      // large file to a store which can upload parts in parallel.
+      // Only CRCs can be combined across parts.
+      if (!overwrite && destFS.exists(dest)) {
+        throw new FileAlreadyExistsException(dest.toString());
+      }
+      final boolean crc = InlineChecksum.CRC32C.equals(checksumAlgorithm);
+      final String hex = multipartUpload.upload(source, size, dest, crc,
+          bandwidthLimit, fileLimit);
+      return hex != null ? InlineChecksum.CRC32C + ":" + hex : null;
+    } else if (rangedDownload != null && size >= multipartSize) {
+      // large remote file to a local file, downloaded as ranges.
+      // As with multipart uploads, only CRCs can be combined.
+      final boolean crc = InlineChecksum.CRC32C.equals(checksumAlgorithm);
+      final String hex = rangedDownload.download(source, size, destFS, dest,
+          overwrite, crc, bandwidthLimit, fileLimit);
+      return hex != null ? InlineChecksum.CRC32C + ":" + hex : null;
+    } else if (sourceFS instanceof LocalFileSystem && !throttled
+        && checksumAlgorithm == null && directories == null
+        && CopyEngine.localFile(destFS, dest) == null) {
+      // source is local, use the store's upload operation.
+      // This cannot be throttled or checksummed, so is only used when
+      // there are no limits or checksums; nor can it skip the creation
+      // of the parents, so is only used with object stores.
       destFS.copyFromLocalFile(false, overwrite, source, dest);
+      return null;
+    } else {
+      final InlineChecksum checksum = checksumAlgorithm != null
+          ? InlineChecksum.create(checksumAlgorithm)
+          : null;
+      copyEngine.copy(sourceFS, source, destFS, dest, overwrite,
+          checksum, bandwidthLimit, fileLimit);
+      return checksum != null
+          ? checksum.getAlgorithm() + ":" + checksum.getHex()
+          : null;
+    }
+  }
+
+  /**
+   * Compare the checksum of an upload with that of the destination,
+   * where the destination has a checksum which can be compared.
+   * @param dest destination
+   * @param checksum checksum as "algorithm:hex"; may be null
+   * @throws IOException failure to get the checksum, or a mismatch.
+   */
+  private void verify(final Path dest, final String checksum)
+      throws IOException {
+    Boolean matched = null;
+    FileChecksum destChecksum = null;
+    if (checksum != null) {
+      final int split = checksum.indexOf(':');
+      destChecksum = destFS.getFileChecksum(dest);
+      matched = InlineChecksum.matches(checksum.substring(0, split),
+          checksum.substring(split + 1), destChecksum);
+    }
+    if (matched == null) {
+      LOG.debug("Cannot verify the checksum of {}", dest);
+      unverified.incrementAndGet();
+    } else if (matched) {
+      verified.incrementAndGet();
     } else {
-      try(InputStream in = sourceFS.open(source);
-          OutputStream out = destFS.create(dest, overwrite)) {
-        IOUtils.copyBytes(in, out, getConf(), true);
+      throw new IOException("Checksum mismatch of " + dest
+          + ": uploaded data has checksum " + checksum
+          + " but the destination has " + destChecksum);
+    }
+  }
+
+  /**
+   * Record the completion of an upload in the journal, if there is one.
+   * Failures are logged and do not fail the upload; the cost of such
+   * a failure is only that a resumed run may upload the file again.
+   * @param upload completed upload
+   */
+  private void journalCompletion(final UploadEntry upload) {
+    if (journal != null) {
+      try {
+        journal.completed(upload);
+      } catch (IOException e) {
+        LOG.warn("Failed to journal {}: {}", upload.getSource(),
+            e.toString());
+        LOG.debug("Journal failure", e);
       }
     }
   }
@@ -464,28 +1615,26 @@ public class Cloudup extends StoreEntryPoint {
   }
 
   /**
-   * Find the final name of a given output file, given the job output directory
-   * and the work directory.
-   * @param srcFile the specific task output file
-   * @return the final path for the specific output file
-   * @throws IOException failure
+   * Find the destination of a file in the plan.
+   * When compressing, the codec's suffix is added, unless the
+   * destination is an existing file.
+   * @param index index of the file
+   * @return the final path of the file
    */
-  private Path getFinalPath(Path srcFile) throws IOException {
-    URI taskOutputUri = srcFile.toUri();
-    URI relativePath = sourcePath.toUri().relativize(taskOutputUri);
-    if (taskOutputUri == relativePath) {
-      throw new IOException("Can not get the relative path:"
-          + " base = " + sourcePath + " child = " + srcFile);
-    }
-    if (!relativePath.getPath().isEmpty()) {
-      return new Path(destPath, relativePath.getPath());
+  private Path getDest(int index) {
+    String relativePath = UploadPlan.decode(plan.getRelativePath(index));
+    final String suffix = compression != null
+        ? compression.getExtension()
+        : "";
+    if (!relativePath.isEmpty()) {
+      return UploadPlan.child(destPath, relativePath + suffix);
     } else {
       // relative path is none.
       if (destPathStatus != null && destPathStatus.isFile()) {
         return destPath;
       } else {
         // source is a file, dest is a dir
-        return new Path(destPath, srcFile.getName());
+        return new Path(destPath, sourcePath.getName() + suffix);
       }
     }
   }
@@ -523,15 +1672,27 @@ public class Cloudup extends StoreEntryPoint {
 
     private final Exception exception;
 
+    private final boolean retried;
+
     private Outcome(
         final boolean executed,
         final UploadEntry upload,
         final long bytesUploaded,
-        final Exception exception) {
+        final Exception exception,
+        final boolean retried) {
       this.executed = executed;
       this.upload = upload;
       this.bytesUploaded = bytesUploaded;
       this.exception = exception;
+      this.retried = retried;
+    }
+
+    private Outcome(
+        final boolean executed,
+        final UploadEntry upload,
+        final long bytesUploaded,
+        final Exception exception) {
+      this(executed, upload, bytesUploaded, exception, false);
     }
 
     private static Outcome notExecuted(final UploadEntry upload)  {
@@ -547,6 +1708,26 @@ public class Cloudup extends StoreEntryPoint {
       return new Outcome(true, upload, 0, exception);
     }
 
+    /**
+     * An attempt which failed, and whose upload will be retried.
+     */
+    private static Outcome retried(final UploadEntry upload,
+        final Exception exception)  {
+      return new Outcome(true, upload, 0, exception, true);
+    }
+
+    private boolean isRetried() {
+      return retried;
+    }
+
+    /**
+     * Get the number of attempts of the upload.
+     * @return the attempts made, or 0 if never executed.
+     */
+    private int getAttempts() {
+      return upload != null ? upload.getAttempts() : 0;
+    }
+
     private long getBytesUploaded() {
       return bytesUploaded;
     }
@@ -562,12 +1743,94 @@ public class Cloudup extends StoreEntryPoint {
     private Exception getException() {
       return exception;
     }
+  }
 
-    private void maybeThrowException() throws Exception {
-      if (exception != null) {
-        throw exception;
+  /**
+   * Running totals of the outcomes of the upload operations, into which
+   * each outcome is folded as it is taken; only failures are retained,
+   * up to {@link #FAILURES_RETAINED} of them, so the memory used does
+   * not grow with the number of files.
+   * Only used in the thread which takes the outcomes.
+   */
+  private static final class Outcomes {
+
+    private final List<Outcome> failures = new ArrayList<>();
+
+    private int taken;
+
+    private long bytesUploaded;
+
+    private int errors;
+
+    private int recovered;
+
+    private Exception exception;
+
+    /**
+     * Fold in the outcome of a completed operation.
+     * @param completed completed operation
+     */
+    private void add(final Future<Outcome> completed) {
+      taken++;
+      LOG.debug("Operation {} completed", taken);
+      try {
+        final Outcome result = StoreUtils.await(completed);
+        if (result.isRetried()) {
+          // the final attempt has its own outcome
+          return;
+        }
+        if (result.getException() != null) {
+          failed(result);
+          return;
+        }
+        bytesUploaded += result.getBytesUploaded();
+        if (result.getAttempts() > 1) {
+          recovered++;
+        }
+      } catch (InterruptedException ignored) {
+        // ignored
+      } catch (Exception e) {
+        failed(Outcome.failed(null, e));
+      }
+    }
+
+    private void failed(final Outcome result) {
+      errors++;
+      if (exception == null) {
+        exception = result.getException();
+      }
+      if (failures.size() < FAILURES_RETAINED) {
+        failures.add(result);
       }
     }
+
+    /**
+     * Get the number of operations taken.
+     * @return the number of outcomes folded in.
+     */
+    private int getTaken() {
+      return taken;
+    }
+
+    private long getBytesUploaded() {
+      return bytesUploaded;
+    }
+
+    private int getErrors() {
+      return errors;
+    }
+
+    private int getRecovered() {
+      return recovered;
+    }
+
+    private Exception getException() {
+      return exception;
+    }
+
+    private List<Outcome> getFailures() {
+      return failures;
+    }
   }
 
   /**
@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Compressor;
+
+/**
+ * Compresses the data of uploads in a pool of its own, sized to the
+ * CPUs, so that compression overlaps with the transfer of the
+ * compressed data by the upload workers.
+ *
+ * Every file is compressed by a task in the pool, which reads the
+ * source and writes the compressed data into a bounded pipe of chunks;
+ * the upload worker reads from the other end of the pipe and writes
+ * to the destination. At most a few chunks of every file are held in
+ * memory; when the pipe is full, the compressing task waits for the
+ * upload to catch up.
+ *
+ * If the compression fails, the upload fails when it reaches the end
+ * of the data compressed; if the upload fails and closes its end of
+ * the pipe, the compression stops.
+ *
+ * Thread safe.
+ */
+final class CompressionStage {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      CompressionStage.class);
+
+  /** Size of the chunks of a pipe: {@value}. */
+  static final int CHUNK_SIZE = 256 * 1024;
+
+  /** Chunks a pipe can hold: {@value}. */
+  static final int PIPE_CHUNKS = 4;
+
+  /** Interval in millis at which a blocked writer checks for a close. */
+  private static final long POLL_INTERVAL = 100;
+
+  private final CompressionCodec codec;
+
+  private final ExecutorService pool;
+
+  private final AtomicLong bytesIn = new AtomicLong();
+
+  private final AtomicLong bytesOut = new AtomicLong();
+
+  /**
+   * Constructor.
+   * @param codec codec
+   * @param pool pool of compressing tasks.
+   */
+  CompressionStage(CompressionCodec codec, ExecutorService pool) {
+    this.codec = codec;
+    this.pool = pool;
+  }
+
+  /**
+   * Find a codec by name, such as "gzip" or "bzip2", or by class name.
+   * @param name name of the codec
+   * @param conf configuration
+   * @return the codec
+   * @throws IllegalArgumentException no such codec.
+   */
+  static CompressionCodec codec(String name, Configuration conf) {
+    CompressionCodec codec = new CompressionCodecFactory(conf)
+        .getCodecByName(name);
+    if (codec == null) {
+      throw new IllegalArgumentException("Unknown codec " + name
+          + "; available: " + CompressionCodecFactory.getCodecClasses(conf));
+    }
+    return codec;
+  }
+
+  /**
+   * Get the suffix of compressed files, such as ".gz".
+   * @return the suffix
+   */
+  String getExtension() {
+    return codec.getDefaultExtension();
+  }
+
+  /**
+   * Compress a stream in the pool.
+   * The source is closed once it has been compressed, or when the
+   * returned stream is closed.
+   * @param source stream of the data to compress
+   * @return a stream of the compressed data.
+   */
+  InputStream compress(final InputStream source) {
+    final Pipe pipe = new Pipe(source);
+    pipe.task = pool.submit(() -> {
+      Compressor compressor = CodecPool.getCompressor(codec);
+      Exception failure = null;
+      try (InputStream in = source;
+           OutputStream out = compressor != null
+               ? codec.createOutputStream(pipe.sink, compressor)
+               : codec.createOutputStream(pipe.sink)) {
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+          out.write(buffer, 0, read);
+          bytesIn.addAndGet(read);
+        }
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      } finally {
+        CodecPool.returnCompressor(compressor);
+      }
+      pipe.finish(failure);
+      return null;
+    });
+    return pipe;
+  }
+
+  /**
+   * Get the number of bytes compressed.
+   * @return a count
+   */
+  long getBytesIn() {
+    return bytesIn.get();
+  }
+
+  /**
+   * Get the number of compressed bytes read from pipes.
+   * @return a count
+   */
+  long getBytesOut() {
+    return bytesOut.get();
+  }
+
+  @Override
+  public String toString() {
+    return "CompressionStage{codec=" + codec.getClass().getSimpleName()
+        + String.format("; compressed %,d bytes to %,d", bytesIn.get(),
+            bytesOut.get())
+        + '}';
+  }
+
+  /**
+   * A bounded pipe of chunks from a compressing task to an upload:
+   * the stream read by the upload, with {@link #sink} as the stream
+   * written by the task.
+   */
+  private final class Pipe extends InputStream {
+
+    /** Marks the end of the data. */
+    private final byte[] end = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks =
+        new ArrayBlockingQueue<>(PIPE_CHUNKS);
+
+    private final OutputStream sink = new Sink();
+
+    private final InputStream source;
+
+    private volatile boolean closed;
+
+    private volatile Exception failure;
+
+    private Future<?> task;
+
+    private byte[] chunk;
+
+    private int position;
+
+    private Pipe(InputStream source) {
+      this.source = source;
+    }
+
+    /**
+     * End the data, noting any failure of the compression first.
+     * @param e failure; null if the data was all compressed.
+     */
+    private void finish(Exception e) {
+      if (e != null) {
+        LOG.debug("Compression failed", e);
+        failure = e;
+      }
+      try {
+        put(end);
+      } catch (IOException ignored) {
+        // closed by the reader
+      }
+    }
+
+    /**
+     * Put a chunk, waiting for space unless the reader has closed
+     * the pipe.
+     */
+    private void put(byte[] data) throws IOException {
+      try {
+        if (closed) {
+          throw new IOException("Upload of compressed data closed");
+        }
+        while (!chunks.offer(data, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+          if (closed) {
+            throw new IOException("Upload of compressed data closed");
+          }
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted compression");
+      }
+    }
+
+    /**
+     * Get the current chunk with data remaining, taking the next one
+     * if needed.
+     * @return false at the end of the data.
+     */
+    private boolean next() throws IOException {
+      if (chunk == end) {
+        return false;
+      }
+      if (chunk != null && position < chunk.length) {
+        return true;
+      }
+      try {
+        chunk = chunks.take();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted upload");
+      }
+      position = 0;
+      if (chunk == end) {
+        if (failure != null) {
+          throw new IOException("Compression failed: " + failure, failure);
+        }
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!next()) {
+        return -1;
+      }
+      bytesOut.incrementAndGet();
+      return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!next()) {
+        return -1;
+      }
+      int count = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, count);
+      position += count;
+      bytesOut.addAndGet(count);
+      return count;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        chunks.clear();
+        if (task != null && task.cancel(false)) {
+          // the task had not started, so has not closed the source
+          IOUtils.cleanupWithLogger(LOG, source);
+        }
+      }
+    }
+
+    /**
+     * Stream written by the compressing task, in chunks.
+     */
+    private final class Sink extends OutputStream {
+
+      private final byte[] buffer = new byte[CHUNK_SIZE];
+
+      private int count;
+
+      @Override
+      public void write(int b) throws IOException {
+        if (count == buffer.length) {
+          flushChunk();
+        }
+        buffer[count++] = (byte) b;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+          if (count == buffer.length) {
+            flushChunk();
+          }
+          int copied = Math.min(len, buffer.length - count);
+          System.arraycopy(b, off, buffer, count, copied);
+          count += copied;
+          off += copied;
+          len -= copied;
+        }
+      }
+
+      private void flushChunk() throws IOException {
+        if (count > 0) {
+          put(Arrays.copyOf(buffer, count));
+          count = 0;
+        }
+      }
+
+      /**
+       * Flush the last chunk; the end of the data is only marked by
+       * the task, once any failure is known.
+       */
+      @Override
+      public void close() throws IOException {
+        flushChunk();
+      }
+    }
+  }
+}
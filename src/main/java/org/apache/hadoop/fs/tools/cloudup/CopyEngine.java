@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Copies files between filesystems with as little copying of data
+ * in memory as each pair of filesystems allows.
+ * <ol>
+ *   <li>Local to local: {@code FileChannel.transferTo()}, which
+ *   the OS may perform without copying into user space.</li>
+ *   <li>Any stream to local, where the stream can read into a
+ *   {@code ByteBuffer} (HDFS): reads into pooled direct buffers which
+ *   are written straight to the file channel.</li>
+ *   <li>Any other stream to local: {@code FileChannel.transferFrom()}.</li>
+ *   <li>Stream to stream: pooled heap buffers. Output streams can only
+ *   write arrays, so a direct buffer would add a copy.</li>
+ * </ol>
+ * Files written directly to a local filesystem have no checksum file;
+ * any existing file is deleted first, along with its checksum.
+ *
+ * If a copy fails, any file it created is deleted, so that it can be
+ * retried.
+ *
+ * When an inline checksum is requested, every copy is through heap
+ * buffers, as the bytes must pass through user space to be checksummed.
+ *
+ * All copies take tokens from the bandwidth limits, if any.
+ *
+ * If the parents of every destination are known to exist, files are
+ * created without checking or creating their parents; a filesystem
+ * which cannot do that creates them as usual.
+ *
+ * Thread safe.
+ */
+final class CopyEngine {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CopyEngine.class);
+
+  /** Default size of buffers: {@value}. */
+  static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  private final BufferPool directBuffers;
+
+  private final BufferPool heapBuffers;
+
+  private final int bufferSize;
+
+  private final boolean parentsExist;
+
+  /** Set once a filesystem has rejected a non-recursive create. */
+  private final AtomicBoolean nonRecursiveUnsupported = new AtomicBoolean();
+
+  /**
+   * Constructor.
+   * @param bufferSize size of buffers and of throttled transfers.
+   * @param poolSize number of buffers of each type to retain; this
+   * should be the number of workers.
+   */
+  CopyEngine(int bufferSize, int poolSize) {
+    this(bufferSize, poolSize, false);
+  }
+
+  /**
+   * Constructor.
+   * @param bufferSize size of buffers and of throttled transfers.
+   * @param poolSize number of buffers of each type to retain; this
+   * should be the number of workers.
+   * @param parentsExist have the parents of all destinations been
+   * created?
+   */
+  CopyEngine(int bufferSize, int poolSize, boolean parentsExist) {
+    this.bufferSize = bufferSize;
+    this.parentsExist = parentsExist;
+    this.directBuffers = new BufferPool(bufferSize, poolSize, true);
+    this.heapBuffers = new BufferPool(bufferSize, poolSize, false);
+  }
+
+  /**
+   * Get the local file of a path, if the filesystem is the local one.
+   * @param fs filesystem
+   * @param path path
+   * @return the file or null if the filesystem is not local.
+   */
+  static File localFile(FileSystem fs, Path path) {
+    if (!"file".equals(fs.getUri().getScheme())) {
+      return null;
+    }
+    if (fs instanceof LocalFileSystem) {
+      return ((LocalFileSystem) fs).pathToFile(path);
+    }
+    if (fs instanceof RawLocalFileSystem) {
+      return ((RawLocalFileSystem) fs).pathToFile(path);
+    }
+    return null;
+  }
+
+  /**
+   * Copy a file.
+   * @param sourceFS source filesystem
+   * @param source source file
+   * @param destFS destination filesystem
+   * @param dest destination file
+   * @param overwrite overwrite any existing file?
+   * @param checksum checksum to update with the data; may be null.
+   * @param limits bandwidth limits; null entries are ignored.
+   * @return the number of bytes copied
+   * @throws IOException failure
+   */
+  long copy(FileSystem sourceFS, Path source,
+      FileSystem destFS, Path dest,
+      boolean overwrite,
+      InlineChecksum checksum,
+      TokenBucket... limits) throws IOException {
+    final File destFile = localFile(destFS, dest);
+    if (destFile == null) {
+      try (InputStream in = InlineChecksum.wrap(sourceFS.open(source),
+          checksum)) {
+        OutputStream out = create(destFS, dest, overwrite);
+        try {
+          long copied = copy(in, out, limits);
+          out.close();
+          return copied;
+        } catch (IOException | RuntimeException e) {
+          IOUtils.cleanupWithLogger(LOG, out);
+          deleteCreated(destFS, dest, overwrite);
+          throw e;
+        }
+      }
+    }
+    prepareLocal(destFS, dest, overwrite);
+    final File sourceFile = localFile(sourceFS, source);
+    try {
+      return copyToFile(sourceFS, source, sourceFile, destFile, checksum,
+          limits);
+    } catch (FileAlreadyExistsException
+        | java.nio.file.FileAlreadyExistsException e) {
+      // created by someone else
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      deleteQuietly(destFS, dest);
+      throw e;
+    }
+  }
+
+  /**
+   * Copy a stream of data with no source file, such as the output of
+   * a compression, to a file.
+   * @param in input stream; not closed
+   * @param destFS destination filesystem
+   * @param dest destination file
+   * @param overwrite overwrite any existing file?
+   * @param limits bandwidth limits; null entries are ignored.
+   * @return the number of bytes copied
+   * @throws IOException failure
+   */
+  long copy(InputStream in,
+      FileSystem destFS, Path dest,
+      boolean overwrite,
+      TokenBucket... limits) throws IOException {
+    final File destFile = localFile(destFS, dest);
+    final OutputStream out;
+    if (destFile == null) {
+      out = create(destFS, dest, overwrite);
+    } else {
+      prepareLocal(destFS, dest, overwrite);
+      out = Channels.newOutputStream(FileChannel.open(destFile.toPath(),
+          StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+    try {
+      long copied = copy(in, out, limits);
+      out.close();
+      return copied;
+    } catch (IOException | RuntimeException e) {
+      IOUtils.cleanupWithLogger(LOG, out);
+      if (destFile != null) {
+        // any previous file was deleted before this one was created
+        deleteQuietly(destFS, dest);
+      } else {
+        deleteCreated(destFS, dest, overwrite);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Create a file through the filesystem; without the check of its
+   * parents if they exist and the filesystem supports that.
+   */
+  private OutputStream create(FileSystem destFS, Path dest,
+      boolean overwrite) throws IOException {
+    if (parentsExist && !nonRecursiveUnsupported.get()) {
+      try {
+        return destFS.createNonRecursive(dest, overwrite, bufferSize,
+            destFS.getDefaultReplication(dest),
+            destFS.getDefaultBlockSize(dest), null);
+      } catch (IOException e) {
+        if (e.getMessage() == null
+            || !e.getMessage().startsWith("createNonRecursive unsupported")) {
+          throw e;
+        }
+        LOG.debug("{}", e.toString());
+        nonRecursiveUnsupported.set(true);
+      }
+    }
+    return destFS.create(dest, overwrite);
+  }
+
+  /**
+   * Prepare to write a local file: delete any existing file if it may
+   * be overwritten, and create the parent directory unless it exists.
+   */
+  private void prepareLocal(FileSystem destFS, Path dest,
+      boolean overwrite) throws IOException {
+    if (destFS.exists(dest)) {
+      if (!overwrite) {
+        throw new FileAlreadyExistsException(dest.toString());
+      }
+      // also deletes any checksum file
+      destFS.delete(dest, false);
+    }
+    if (!parentsExist) {
+      destFS.mkdirs(dest.getParent());
+    }
+  }
+
+  /**
+   * Copy to a new local file.
+   */
+  private long copyToFile(FileSystem sourceFS, Path source,
+      File sourceFile, File destFile,
+      InlineChecksum checksum,
+      TokenBucket[] limits) throws IOException {
+    try (FileChannel out = FileChannel.open(destFile.toPath(),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      if (checksum != null) {
+        try (InputStream in = InlineChecksum.wrap(sourceFS.open(source),
+            checksum)) {
+          return copy(in, Channels.newOutputStream(out), limits);
+        }
+      }
+      if (sourceFile != null) {
+        LOG.debug("Transfer of {} to {}", sourceFile, destFile);
+        try (FileChannel in = FileChannel.open(sourceFile.toPath(),
+            StandardOpenOption.READ)) {
+          return transfer(in, out, limits);
+        }
+      }
+      try (FSDataInputStream in = sourceFS.open(source)) {
+        return in.getWrappedStream() instanceof ByteBufferReadable
+            ? copy(in, out, limits)
+            : transferFrom(in, out, limits);
+      }
+    }
+  }
+
+  /**
+   * Transfer from one file to another. Without limits, this is a single
+   * transfer; with them, one of a buffer's size at a time.
+   */
+  long transfer(FileChannel in, FileChannel out, TokenBucket... limits)
+      throws IOException {
+    final long size = in.size();
+    final boolean throttled = isThrottled(limits);
+    long position = 0;
+    while (position < size) {
+      long count = throttled
+          ? Math.min(bufferSize, size - position)
+          : size - position;
+      long transferred = in.transferTo(position, count, out);
+      if (transferred <= 0) {
+        break;
+      }
+      position += transferred;
+      throttle(transferred, limits);
+    }
+    return position;
+  }
+
+  /**
+   * Transfer from a stream to a file, a buffer's size at a time.
+   */
+  long transferFrom(InputStream in, FileChannel out, TokenBucket... limits)
+      throws IOException {
+    final ReadableByteChannel channel = Channels.newChannel(in);
+    long position = 0;
+    long transferred;
+    while ((transferred = out.transferFrom(channel, position, bufferSize))
+        > 0) {
+      position += transferred;
+      throttle(transferred, limits);
+    }
+    return position;
+  }
+
+  /**
+   * Copy from a stream which can read into byte buffers to a file,
+   * through a direct buffer.
+   */
+  long copy(FSDataInputStream in, FileChannel out, TokenBucket... limits)
+      throws IOException {
+    final ByteBuffer buffer = directBuffers.acquire();
+    try {
+      long total = 0;
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        buffer.clear();
+        total += read;
+        throttle(read, limits);
+      }
+      return total;
+    } finally {
+      directBuffers.release(buffer);
+    }
+  }
+
+  /**
+   * Copy from a stream to a stream through a heap buffer.
+   */
+  long copy(InputStream in, OutputStream out, TokenBucket... limits)
+      throws IOException {
+    final ByteBuffer buffer = heapBuffers.acquire();
+    try {
+      final byte[] bytes = buffer.array();
+      long total = 0;
+      int read;
+      while ((read = in.read(bytes)) >= 0) {
+        out.write(bytes, 0, read);
+        total += read;
+        throttle(read, limits);
+      }
+      return total;
+    } finally {
+      heapBuffers.release(buffer);
+    }
+  }
+
+  /**
+   * After a failed copy through a filesystem, delete the destination
+   * only if the copy created it: when overwriting, an object store
+   * keeps the previous object until the new one is complete, and
+   * deleting the destination would lose it.
+   */
+  private static void deleteCreated(FileSystem fs, Path path,
+      boolean overwrite) {
+    if (!overwrite) {
+      deleteQuietly(fs, path);
+    }
+  }
+
+  static void deleteQuietly(FileSystem fs, Path path) {
+    try {
+      fs.delete(path, false);
+    } catch (IOException e) {
+      LOG.debug("Failed to delete {}", path, e);
+    }
+  }
+
+  private static boolean isThrottled(TokenBucket[] limits) {
+    for (TokenBucket limit : limits) {
+      if (limit != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static void throttle(long bytes, TokenBucket[] limits)
+      throws IOException {
+    for (TokenBucket limit : limits) {
+      if (limit != null) {
+        limit.acquire(bytes);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CopyEngine{" + directBuffers + "; " + heapBuffers + '}';
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Creates each destination directory once, before the files in it,
+ * so that files can be created without checking or creating their
+ * parents.
+ *
+ * Directories are registered as their files are listed. Each is
+ * created in a pool once its parent has been, so creation is top-down,
+ * with separate branches of the tree created in parallel; the
+ * destination root, and any directory not under it, is created with
+ * a single {@code mkdirs()}. An upload waits for the creation of its
+ * parent before it creates its file.
+ *
+ * A failed creation fails the uploads waiting for it, and is forgotten,
+ * so that a retried upload tries to create the directory again.
+ *
+ * The pool must not be one in which uploads wait for directories,
+ * or they could wait for creations queued behind them.
+ *
+ * Thread safe.
+ */
+final class DirectoryCreator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      DirectoryCreator.class);
+
+  private final FileSystem fs;
+
+  private final Path root;
+
+  private final String rootPrefix;
+
+  private final ExecutorService pool;
+
+  /** Creation of every directory registered, by qualified path. */
+  private final Map<Path, CompletableFuture<Void>> directories =
+      new HashMap<>();
+
+  private final AtomicInteger created = new AtomicInteger();
+
+  /**
+   * Constructor.
+   * @param fs destination filesystem
+   * @param root destination root
+   * @param pool pool in which to create directories.
+   */
+  DirectoryCreator(FileSystem fs, Path root, ExecutorService pool) {
+    this.fs = fs;
+    this.root = fs.makeQualified(root);
+    String path = this.root.toUri().getPath();
+    this.rootPrefix = path.endsWith("/") ? path : path + "/";
+    this.pool = pool;
+  }
+
+  /**
+   * Register a directory to create, along with its parents under the
+   * root; does nothing if it is already registered, unless its
+   * creation failed.
+   * @param dir directory
+   * @return the creation of the directory.
+   */
+  CompletableFuture<Void> create(Path dir) {
+    return register(fs.makeQualified(dir));
+  }
+
+  private synchronized CompletableFuture<Void> register(Path dir) {
+    CompletableFuture<Void> creation = directories.get(dir);
+    if (creation != null && !creation.isCompletedExceptionally()) {
+      return creation;
+    }
+    if (isUnderRoot(dir)) {
+      creation = register(dir.getParent())
+          .thenRunAsync(() -> mkdir(dir), pool);
+    } else {
+      creation = CompletableFuture.runAsync(() -> mkdir(dir), pool);
+    }
+    directories.put(dir, creation);
+    return creation;
+  }
+
+  private boolean isUnderRoot(Path dir) {
+    return dir.toUri().getPath().startsWith(rootPrefix);
+  }
+
+  private void mkdir(Path dir) {
+    try {
+      if (!fs.mkdirs(dir)) {
+        throw new IOException("Failed to create directory " + dir);
+      }
+      LOG.debug("Created {}", dir);
+      created.incrementAndGet();
+    } catch (IOException e) {
+      throw new DirectoryException(e);
+    }
+  }
+
+  /**
+   * Create a directory, if it has not been, and wait for it.
+   * @param dir directory
+   * @throws IOException failure to create it or any of its parents.
+   */
+  void await(Path dir) throws IOException {
+    try {
+      create(dir).get();
+    } catch (InterruptedException e) {
+      throw (IOException) new InterruptedIOException(
+          "Interrupted creating " + dir).initCause(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof DirectoryException) {
+        throw ((DirectoryException) cause).getCause();
+      }
+      throw new IOException("Failed to create " + dir + ": " + cause, cause);
+    }
+  }
+
+  /**
+   * Get the number of directories created.
+   * @return a count
+   */
+  int getCreated() {
+    return created.get();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DirectoryCreator{root=" + root
+        + "; registered=" + directories.size()
+        + "; created=" + created.get() + '}';
+  }
+
+  /**
+   * Failure to create a directory, carried through the futures.
+   */
+  private static final class DirectoryException extends RuntimeException {
+
+    private DirectoryException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.Checksum;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.util.CrcUtil;
+import org.apache.hadoop.util.PureJavaCrc32C;
+
+/**
+ * Checksum of a file computed as its bytes are copied: CRC32C or MD5.
+ *
+ * CRC32C uses the JDK's {@code java.util.zip.CRC32C} when running on
+ * Java 9+, which is hardware accelerated; on Java 8 it falls back to
+ * Hadoop's {@code PureJavaCrc32C}.
+ * CRCs of consecutive ranges can be combined, so the parts of a
+ * multipart upload can be checksummed in parallel.
+ *
+ * Not thread safe.
+ */
+final class InlineChecksum {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      InlineChecksum.class);
+
+  static final String CRC32C = "crc32c";
+
+  static final String MD5 = "md5";
+
+  /** Algorithm name of HDFS composite CRC checksums. */
+  static final String COMPOSITE_CRC32C = "COMPOSITE-CRC32C";
+
+  /** Algorithm name of S3A etag checksums. */
+  static final String ETAG = "etag";
+
+  private static final Constructor<? extends Checksum> JDK_CRC32C =
+      jdkCrc32c();
+
+  private final String algorithm;
+
+  private final Checksum crc;
+
+  private final MessageDigest digest;
+
+  private InlineChecksum(String algorithm, Checksum crc,
+      MessageDigest digest) {
+    this.algorithm = algorithm;
+    this.crc = crc;
+    this.digest = digest;
+  }
+
+  /**
+   * Create a checksum.
+   * @param algorithm algorithm: {@value #CRC32C} or {@value #MD5}.
+   * @return a new checksum
+   * @throws IllegalArgumentException unknown algorithm
+   */
+  static InlineChecksum create(String algorithm) {
+    String name = algorithm.toLowerCase(Locale.ENGLISH);
+    switch (name) {
+    case CRC32C:
+      return new InlineChecksum(name, newCrc32c(), null);
+    case MD5:
+      try {
+        return new InlineChecksum(name, null,
+            MessageDigest.getInstance("MD5"));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    default:
+      throw new IllegalArgumentException("Unknown checksum algorithm "
+          + algorithm + "; use " + CRC32C + " or " + MD5);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Constructor<? extends Checksum> jdkCrc32c() {
+    try {
+      return (Constructor<? extends Checksum>)
+          Class.forName("java.util.zip.CRC32C").getConstructor();
+    } catch (ReflectiveOperationException e) {
+      LOG.debug("No JDK CRC32C; using PureJavaCrc32C");
+      return null;
+    }
+  }
+
+  private static Checksum newCrc32c() {
+    if (JDK_CRC32C != null) {
+      try {
+        return JDK_CRC32C.newInstance();
+      } catch (ReflectiveOperationException e) {
+        LOG.debug("Failed to create JDK CRC32C", e);
+      }
+    }
+    return new PureJavaCrc32C();
+  }
+
+  String getAlgorithm() {
+    return algorithm;
+  }
+
+  boolean isCrc() {
+    return crc != null;
+  }
+
+  void update(byte[] b, int off, int len) {
+    if (crc != null) {
+      crc.update(b, off, len);
+    } else {
+      digest.update(b, off, len);
+    }
+  }
+
+  /**
+   * Get the CRC.
+   * @return the CRC of the bytes so far.
+   */
+  int getCrc() {
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Get the checksum; for MD5 this can only be called once.
+   * @return the checksum bytes, big-endian for a CRC.
+   */
+  byte[] getBytes() {
+    return crc != null
+        ? CrcUtil.intToBytes(getCrc())
+        : digest.digest();
+  }
+
+  /**
+   * Get the checksum as a hex string; for MD5 this can only be called once.
+   * @return the checksum in hex.
+   */
+  String getHex() {
+    return toHex(getBytes());
+  }
+
+  /**
+   * Combine the CRCs of consecutive ranges of a file.
+   * @param crcs CRCs of each range
+   * @param lengths length of each range
+   * @return the CRC of the whole file as a hex string.
+   */
+  static String combineCrcs(int[] crcs, long[] lengths) {
+    int combined = crcs[0];
+    for (int i = 1; i < crcs.length; i++) {
+      combined = CrcUtil.compose(combined, crcs[i], lengths[i],
+          CrcUtil.CASTAGNOLI_POLYNOMIAL);
+    }
+    return toHex(CrcUtil.intToBytes(combined));
+  }
+
+  /**
+   * Compare a checksum with that of the destination.
+   * Only HDFS composite CRC32C checksums and S3 etags of single part
+   * uploads can be compared.
+   * @param algorithm algorithm of the checksum
+   * @param hex checksum in hex
+   * @param dest checksum of the destination; may be null
+   * @return true or false if compared; null if they cannot be compared.
+   */
+  static Boolean matches(String algorithm, String hex, FileChecksum dest) {
+    if (dest == null || hex == null) {
+      return null;
+    }
+    String destAlgorithm = dest.getAlgorithmName();
+    if (CRC32C.equals(algorithm)
+        && COMPOSITE_CRC32C.equalsIgnoreCase(destAlgorithm)) {
+      return hex.equals(toHex(dest.getBytes()));
+    }
+    if (MD5.equals(algorithm) && ETAG.equals(destAlgorithm)) {
+      String etag = new String(dest.getBytes(), StandardCharsets.UTF_8)
+          .replace("\"", "").toLowerCase(Locale.ENGLISH);
+      // the etag of a multipart upload is not an MD5 of the data
+      return etag.contains("-") ? null : hex.equals(etag);
+    }
+    return null;
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Wrap a stream so that all bytes read update a checksum.
+   * @param in stream
+   * @param checksum checksum; if null the stream is returned.
+   * @return the stream to read.
+   */
+  static InputStream wrap(InputStream in, InlineChecksum checksum) {
+    return checksum == null ? in : new ChecksummingInputStream(in, checksum);
+  }
+
+  /**
+   * Stream which updates a checksum with every byte read.
+   * Mark/reset is not supported.
+   */
+  private static final class ChecksummingInputStream
+      extends FilterInputStream {
+
+    private final InlineChecksum checksum;
+
+    private ChecksummingInputStream(InputStream in, InlineChecksum checksum) {
+      super(in);
+      this.checksum = checksum;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        checksum.update(new byte[]{(byte) b}, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int r = super.read(b, off, len);
+      if (r > 0) {
+        checksum.update(b, off, r);
+      }
+      return r;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return algorithm;
+  }
+}
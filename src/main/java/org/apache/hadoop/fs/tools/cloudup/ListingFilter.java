@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the files listed for upload by their path relative to the
+ * source, their size and their modification time.
+ *
+ * Include and exclude patterns are globs, or regular expressions if
+ * prefixed with {@value #REGEX_PREFIX}. In a glob, {@code *} matches
+ * within a path element, {@code **} across elements, {@code **}{@code /}
+ * any leading directories, {@code ?} one character, and {@code {a,b}}
+ * and {@code [abc]} alternatives. A glob without a {@code /} is matched
+ * against the file name; all others, and all regular expressions,
+ * against the whole relative path.
+ *
+ * A file is accepted if there are no includes or one matches, no
+ * exclude matches, and its size and modification time are in range.
+ *
+ * All patterns of each kind are compiled once into a single
+ * alternation, so a file costs at most four matches, with their
+ * matchers reused. A directory can be pruned from a listing if an
+ * exclude whose pattern ends in {@code .*}, such as {@code tmp/**},
+ * matches its path followed by {@code /}: it then matches every file
+ * under the directory.
+ *
+ * Not thread safe: it is used by the single listing thread.
+ */
+final class ListingFilter {
+
+  /** Prefix of a pattern which is a regular expression: {@value}. */
+  static final String REGEX_PREFIX = "regex:";
+
+  /** Matchers of the patterns; null for none. */
+  private final Matcher includePaths;
+  private final Matcher includeNames;
+  private final Matcher excludePaths;
+  private final Matcher excludeNames;
+  private final Matcher pruned;
+
+  private final long minSize;
+
+  private final long maxSize;
+
+  private final long after;
+
+  private final long before;
+
+  private long excludedFiles;
+
+  private long prunedDirectories;
+
+  /**
+   * Constructor.
+   * @param includes patterns of the files to include; empty for all
+   * @param excludes patterns of the files to exclude
+   * @param minSize minimum size of a file
+   * @param maxSize maximum size of a file
+   * @param after earliest modification time of a file
+   * @param before modification time before which a file must have been
+   * modified.
+   * @throws IllegalArgumentException an invalid pattern.
+   */
+  ListingFilter(String[] includes, String[] excludes,
+      long minSize, long maxSize, long after, long before) {
+    List<String> paths = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    compile(includes, paths, names, null);
+    includePaths = matcher(paths);
+    includeNames = matcher(names);
+    List<String> prunable = new ArrayList<>();
+    paths.clear();
+    names.clear();
+    compile(excludes, paths, names, prunable);
+    excludePaths = matcher(paths);
+    excludeNames = matcher(names);
+    pruned = matcher(prunable);
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.after = after;
+    this.before = before;
+  }
+
+  /**
+   * A filter which accepts everything.
+   * @return the filter
+   */
+  static ListingFilter acceptAll() {
+    return new ListingFilter(new String[0], new String[0],
+        0, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Compile patterns into regular expressions of paths or names.
+   * @param patterns patterns
+   * @param paths expressions of the relative paths
+   * @param names expressions of the file names
+   * @param prunable expressions which can prune directories; null
+   * if not wanted
+   */
+  private static void compile(String[] patterns, List<String> paths,
+      List<String> names, List<String> prunable) {
+    for (String pattern : patterns) {
+      String regex;
+      boolean name = false;
+      if (pattern.startsWith(REGEX_PREFIX)) {
+        regex = pattern.substring(REGEX_PREFIX.length());
+      } else {
+        regex = globToRegex(pattern);
+        name = pattern.indexOf('/') < 0;
+      }
+      // validate each on its own, for a meaningful error
+      Pattern.compile(regex);
+      if (name) {
+        names.add(regex);
+      } else {
+        paths.add(regex);
+        if (prunable != null && endsWithAnything(regex)) {
+          prunable.add(regex);
+        }
+      }
+    }
+  }
+
+  private static Matcher matcher(List<String> regexes) {
+    if (regexes.isEmpty()) {
+      return null;
+    }
+    StringBuilder alternation = new StringBuilder();
+    for (String regex : regexes) {
+      if (alternation.length() > 0) {
+        alternation.append('|');
+      }
+      alternation.append("(?:").append(regex).append(')');
+    }
+    return Pattern.compile(alternation.toString(), Pattern.DOTALL)
+        .matcher("");
+  }
+
+  /**
+   * Does a regular expression end with an unescaped {@code .*}?
+   * If it matches a string, it then matches every extension of it.
+   */
+  private static boolean endsWithAnything(String regex) {
+    if (!regex.endsWith(".*")) {
+      return false;
+    }
+    int escapes = 0;
+    for (int i = regex.length() - 3; i >= 0 && regex.charAt(i) == '\\';
+         i--) {
+      escapes++;
+    }
+    return escapes % 2 == 0;
+  }
+
+  /**
+   * Convert a glob to a regular expression.
+   * @param glob glob
+   * @return the regular expression
+   * @throws IllegalArgumentException an invalid glob.
+   */
+  static String globToRegex(String glob) {
+    final StringBuilder regex = new StringBuilder(glob.length() * 2);
+    int braces = 0;
+    final int length = glob.length();
+    for (int i = 0; i < length; i++) {
+      char c = glob.charAt(i);
+      switch (c) {
+      case '*':
+        if (i + 1 < length && glob.charAt(i + 1) == '*') {
+          if (i + 2 < length && glob.charAt(i + 2) == '/') {
+            regex.append("(?:.*/)?");
+            i += 2;
+          } else {
+            regex.append(".*");
+            i++;
+          }
+        } else {
+          regex.append("[^/]*");
+        }
+        break;
+      case '?':
+        regex.append("[^/]");
+        break;
+      case '{':
+        braces++;
+        regex.append("(?:");
+        break;
+      case '}':
+        if (braces > 0) {
+          braces--;
+          regex.append(')');
+        } else {
+          regex.append("\\}");
+        }
+        break;
+      case ',':
+        regex.append(braces > 0 ? "|" : ",");
+        break;
+      case '[':
+        int close = glob.indexOf(']', i + 2);
+        if (close < 0) {
+          throw new IllegalArgumentException(
+              "Unclosed character class in " + glob);
+        }
+        String members = glob.substring(i + 1, close);
+        regex.append('[');
+        if (members.charAt(0) == '!') {
+          regex.append('^');
+          members = members.substring(1);
+        }
+        regex.append(members.replace("\\", "\\\\").replace("[", "\\["))
+            .append(']');
+        i = close;
+        break;
+      case '\\':
+        if (i + 1 == length) {
+          throw new IllegalArgumentException("Trailing escape in " + glob);
+        }
+        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+        break;
+      default:
+        if (".()+|^$@%".indexOf(c) >= 0) {
+          regex.append('\\');
+        }
+        regex.append(c);
+      }
+    }
+    if (braces != 0) {
+      throw new IllegalArgumentException("Unbalanced braces in " + glob);
+    }
+    return regex.toString();
+  }
+
+  /**
+   * Parse a time: milliseconds since the epoch, an ISO-8601 instant
+   * such as {@code 2020-01-31T12:00:00Z}, or a date such as
+   * {@code 2020-01-31}, which is the start of that day in UTC.
+   * @param time time
+   * @return milliseconds since the epoch.
+   * @throws IllegalArgumentException unparseable time.
+   */
+  static long parseTime(String time) {
+    try {
+      if (time.chars().allMatch(Character::isDigit)) {
+        return Long.parseLong(time);
+      } else if (time.indexOf('T') >= 0) {
+        return Instant.parse(time).toEpochMilli();
+      } else {
+        return LocalDate.parse(time).atStartOfDay(ZoneOffset.UTC)
+            .toInstant().toEpochMilli();
+      }
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Not a time: " + time, e);
+    }
+  }
+
+  /**
+   * Can directories be pruned from a listing?
+   * @return true if there are excludes which can prune directories.
+   */
+  boolean canPrune() {
+    return pruned != null;
+  }
+
+  /**
+   * Should a directory be pruned from the listing, because
+   * every file under it is excluded?
+   * @param relativePath decoded path of the directory relative to the
+   * source
+   * @return true to prune it
+   */
+  boolean prune(String relativePath) {
+    if (pruned != null && pruned.reset(relativePath + "/").matches()) {
+      prunedDirectories++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Is a file accepted?
+   * @param relativePath decoded path of the file relative to the source
+   * @param name file name
+   * @param size file size
+   * @param modificationTime modification time
+   * @return true if it is to be uploaded.
+   */
+  boolean accept(String relativePath, String name, long size,
+      long modificationTime) {
+    boolean accepted = size >= minSize
+        && size <= maxSize
+        && modificationTime >= after
+        && modificationTime < before
+        && (includePaths == null && includeNames == null
+            || matches(includePaths, relativePath)
+            || matches(includeNames, name))
+        && !matches(excludePaths, relativePath)
+        && !matches(excludeNames, name);
+    if (!accepted) {
+      excludedFiles++;
+    }
+    return accepted;
+  }
+
+  private static boolean matches(Matcher matcher, String s) {
+    return matcher != null && matcher.reset(s).matches();
+  }
+
+  /**
+   * Get the number of files not accepted.
+   * @return a count
+   */
+  long getExcludedFiles() {
+    return excludedFiles;
+  }
+
+  /**
+   * Get the number of directories pruned.
+   * @return a count
+   */
+  long getPrunedDirectories() {
+    return prunedDirectories;
+  }
+
+  @Override
+  public String toString() {
+    return "ListingFilter{excluded files=" + excludedFiles
+        + "; pruned directories=" + prunedDirectories + '}';
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Predicts the makespan of a run, the time from the first upload to
+ * the last, by simulating the scheduling of the uploads.
+ *
+ * Every upload is modelled as taking a fixed latency plus its size
+ * divided by the bandwidth of a single stream; the model is fitted to
+ * the durations of sample uploads. Each stream is assumed to get
+ * its bandwidth whatever the number of streams, so the model does not
+ * know the limits of the network or the store; it predicts how the
+ * scheduling of the files affects the makespan.
+ *
+ * Large files are simulated in their own pool, largest first.
+ * Small files are simulated with the {@code largest} largest first,
+ * then the rest in a random order. Every file is started by the first
+ * worker of its pool to become free. The makespan is the later
+ * finish of the two pools.
+ *
+ * Not thread safe.
+ */
+final class MakespanPlanner {
+
+  /** Thread counts considered for the small file pool. */
+  static final int[] THREAD_CANDIDATES = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+
+  /** Counts of largest files first considered. */
+  static final int[] LARGEST_CANDIDATES = {0, 1, 2, 4, 8, 16, 32, 64};
+
+  /**
+   * A configuration within this factor of the best makespan is as good
+   * as the best; the one with the fewest threads is recommended.
+   */
+  static final double TOLERANCE = 1.05;
+
+  private final long[] sizes;
+
+  private final double latencyNanos;
+
+  private final double nanosPerByte;
+
+  private final int largeThreads;
+
+  private final long seed;
+
+  /** Small files, largest first. */
+  private final int[] smallBySize;
+
+  /** Large files, largest first. */
+  private final int[] largeBySize;
+
+  /**
+   * Constructor.
+   * @param sizes sizes of the files to upload
+   * @param latencyNanos latency of every upload in nanoseconds
+   * @param nanosPerByte time per byte of a single stream
+   * @param largeSize size at or above which files are large
+   * @param largeThreads threads of the large file pool
+   * @param seed seed of the random order of small files
+   */
+  MakespanPlanner(long[] sizes,
+      double latencyNanos,
+      double nanosPerByte,
+      long largeSize,
+      int largeThreads,
+      long seed) {
+    this.sizes = sizes;
+    this.latencyNanos = latencyNanos;
+    this.nanosPerByte = nanosPerByte;
+    this.largeThreads = largeThreads;
+    this.seed = seed;
+    Integer[] order = new Integer[sizes.length];
+    int large = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      order[i] = i;
+      if (sizes[i] >= largeSize) {
+        large++;
+      }
+    }
+    Arrays.sort(order,
+        Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+    largeBySize = new int[large];
+    smallBySize = new int[sizes.length - large];
+    for (int i = 0; i < order.length; i++) {
+      if (i < large) {
+        largeBySize[i] = order[i];
+      } else {
+        smallBySize[i - large] = order[i];
+      }
+    }
+  }
+
+  /**
+   * Fit the model to sample uploads by least squares, with the
+   * latency as the intercept and the time per byte as the slope.
+   * If the samples cannot separate the two, the latency is that of
+   * the fastest sample and the rest of the time is spent on the bytes.
+   * @param sampleSizes sizes of the samples
+   * @param sampleNanos durations of the samples
+   * @return the latency in nanoseconds and the nanoseconds per byte.
+   */
+  static double[] fit(long[] sampleSizes, long[] sampleNanos) {
+    final int n = sampleSizes.length;
+    double meanSize = 0;
+    double meanTime = 0;
+    long totalBytes = 0;
+    long minTime = Long.MAX_VALUE;
+    for (int i = 0; i < n; i++) {
+      meanSize += sampleSizes[i];
+      meanTime += sampleNanos[i];
+      totalBytes += sampleSizes[i];
+      minTime = Math.min(minTime, sampleNanos[i]);
+    }
+    meanSize /= n;
+    meanTime /= n;
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i < n; i++) {
+      covariance += (sampleSizes[i] - meanSize) * (sampleNanos[i] - meanTime);
+      variance += (sampleSizes[i] - meanSize) * (sampleSizes[i] - meanSize);
+    }
+    if (variance > 0 && covariance > 0) {
+      double slope = covariance / variance;
+      double intercept = meanTime - slope * meanSize;
+      if (intercept >= 0) {
+        return new double[]{intercept, slope};
+      }
+    }
+    double latency = minTime;
+    double perByte = totalBytes > 0
+        ? Math.max(0, (meanTime - latency) * n / totalBytes)
+        : 0;
+    return new double[]{latency, perByte};
+  }
+
+  /**
+   * Predicted duration of an upload.
+   * @param size size of the file
+   * @return the duration in nanoseconds.
+   */
+  long duration(long size) {
+    return (long) (latencyNanos + size * nanosPerByte);
+  }
+
+  /**
+   * Simulate a run.
+   * @param threads threads of the small file pool
+   * @param largest number of small files uploaded largest first
+   * @return the simulation
+   */
+  Simulation simulate(int threads, int largest) {
+    final long[] finish = new long[sizes.length];
+    final long makespan = makespan(threads, largest,
+        new int[smallBySize.length], finish);
+    return new Simulation(threads, largest, makespan, finish);
+  }
+
+  /**
+   * Simulate a run.
+   * @param threads threads of the small file pool
+   * @param largest number of small files uploaded largest first
+   * @param order array in which to put the order of the small files
+   * @param finish array in which to put the finish of every file;
+   * null if only the makespan is needed.
+   * @return the makespan
+   */
+  private long makespan(int threads, int largest, int[] order,
+      long[] finish) {
+    final long large = schedule(largeBySize, largeThreads, finish);
+    final int first = Math.min(largest, smallBySize.length);
+    System.arraycopy(smallBySize, 0, order, 0, order.length);
+    // shuffle all but the first, as the pending uploads take them
+    final Random random = new Random(seed);
+    for (int i = order.length - 1; i > first; i--) {
+      int j = first + random.nextInt(i - first + 1);
+      int t = order[i];
+      order[i] = order[j];
+      order[j] = t;
+    }
+    final long small = schedule(order, threads, finish);
+    return Math.max(small, large);
+  }
+
+  /**
+   * Give every file in turn to the first worker to become free.
+   * @return the time the last file finishes.
+   */
+  private long schedule(int[] order, int workers, long[] finish) {
+    final PriorityQueue<Long> free = new PriorityQueue<>(workers);
+    for (int i = 0; i < workers; i++) {
+      free.add(0L);
+    }
+    long end = 0;
+    for (int index : order) {
+      long done = free.poll() + duration(sizes[index]);
+      if (finish != null) {
+        finish[index] = done;
+      }
+      free.add(done);
+      end = Math.max(end, done);
+    }
+    return end;
+  }
+
+  /**
+   * Find the best configuration of the candidates: the fewest threads
+   * whose makespan is within {@link #TOLERANCE} of the best of all, then
+   * the number of largest files first with the shortest makespan for
+   * those threads.
+   * @return the simulation of the best configuration.
+   */
+  Simulation best() {
+    // only the makespans are kept: the best of every thread count, and
+    // the shortest of all. The finishes are only simulated for the
+    // configuration returned.
+    final int[] order = new int[smallBySize.length];
+    final long[] rowMakespan = new long[THREAD_CANDIDATES.length];
+    final int[] rowLargest = new int[THREAD_CANDIDATES.length];
+    long shortest = Long.MAX_VALUE;
+    for (int t = 0; t < THREAD_CANDIDATES.length; t++) {
+      rowMakespan[t] = Long.MAX_VALUE;
+      for (int largest : LARGEST_CANDIDATES) {
+        long makespan = makespan(THREAD_CANDIDATES[t], largest, order, null);
+        if (makespan < rowMakespan[t]) {
+          rowMakespan[t] = makespan;
+          rowLargest[t] = largest;
+        }
+      }
+      shortest = Math.min(shortest, rowMakespan[t]);
+    }
+    for (int t = 0; t < THREAD_CANDIDATES.length; t++) {
+      if (rowMakespan[t] <= shortest * TOLERANCE) {
+        return simulate(THREAD_CANDIDATES[t], rowLargest[t]);
+      }
+    }
+    throw new IllegalStateException("No best configuration");
+  }
+
+  /**
+   * Lower bound of the makespan with a number of threads: the longest
+   * upload, or the total time of the small uploads spread evenly
+   * across the threads.
+   * @param threads threads of the small file pool
+   * @return the lower bound in nanoseconds.
+   */
+  long lowerBound(int threads) {
+    long longest = 0;
+    long smallTotal = 0;
+    for (int index : smallBySize) {
+      smallTotal += duration(sizes[index]);
+    }
+    for (long size : sizes) {
+      longest = Math.max(longest, duration(size));
+    }
+    long largeTotal = 0;
+    for (int index : largeBySize) {
+      largeTotal += duration(sizes[index]);
+    }
+    return Math.max(longest, Math.max(smallTotal / threads,
+        largeTotal / largeThreads));
+  }
+
+  double getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  /**
+   * Bandwidth of a single stream.
+   * @return the bandwidth in bytes per second; 0 if unknown.
+   */
+  double getBandwidth() {
+    return nanosPerByte > 0 ? 1.0e9 / nanosPerByte : 0;
+  }
+
+  /**
+   * A simulated run.
+   */
+  static final class Simulation {
+
+    private final int threads;
+
+    private final int largest;
+
+    private final long makespan;
+
+    private final long[] finish;
+
+    private Simulation(int threads, int largest, long makespan,
+        long[] finish) {
+      this.threads = threads;
+      this.largest = largest;
+      this.makespan = makespan;
+      this.finish = finish;
+    }
+
+    int getThreads() {
+      return threads;
+    }
+
+    int getLargest() {
+      return largest;
+    }
+
+    /**
+     * Get the makespan.
+     * @return the time from the first upload to the last in nanoseconds.
+     */
+    long getMakespan() {
+      return makespan;
+    }
+
+    /**
+     * Get the time a file finishes.
+     * @param index index of the file
+     * @return nanoseconds from the start of the run.
+     */
+    long getFinish(int index) {
+      return finish[index];
+    }
+
+    /**
+     * Get the files which finish last: the long tail of the run.
+     * @param count maximum number of files
+     * @return their indices, the last to finish first.
+     */
+    int[] last(int count) {
+      final int n = Math.min(count, finish.length);
+      // min-heap of the latest n finishes
+      final PriorityQueue<Integer> latest = new PriorityQueue<>(
+          Math.max(1, n), Comparator.comparingLong((Integer i) -> finish[i]));
+      for (int i = 0; i < finish.length && n > 0; i++) {
+        if (latest.size() < n) {
+          latest.add(i);
+        } else if (finish[i] > finish[latest.peek()]) {
+          latest.poll();
+          latest.add(i);
+        }
+      }
+      final int[] result = new int[latest.size()];
+      for (int i = result.length - 1; i >= 0; i--) {
+        result[i] = latest.poll();
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("-t %d -l %d: %,.3f s", threads, largest,
+          makespan / 1.0e9);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Store-specific operations to upload a single file as a set of parts,
+ * which may be uploaded in parallel, then committed in one operation.
+ *
+ * This is a cut down version of the {@code MultipartUploader} API of
+ * Hadoop 3.3+, which isn't available in the versions this module
+ * builds against.
+ */
+public interface MultipartStore extends Closeable {
+
+  /**
+   * Minimum size of every part other than the last one.
+   * @return a size in bytes.
+   */
+  long getMinimumPartSize();
+
+  /**
+   * Maximum number of parts in an upload.
+   * @return a part count.
+   */
+  int getMaximumPartCount();
+
+  /**
+   * Initiate an upload.
+   * @param dest destination path
+   * @return the upload ID
+   * @throws IOException failure
+   */
+  String initiate(Path dest) throws IOException;
+
+  /**
+   * Upload a part.
+   * @param uploadId upload ID
+   * @param dest destination path
+   * @param partNumber part number, starting at 1
+   * @param in input stream of the part's data
+   * @param length length of the part
+   * @return the handle of the uploaded part, to be passed to
+   * {@link #complete(String, Path, List, long)}
+   * @throws IOException failure
+   */
+  String uploadPart(String uploadId, Path dest, int partNumber,
+      InputStream in, long length) throws IOException;
+
+  /**
+   * Complete an upload, making it visible at the destination.
+   * The store must then do what it does at the end of any other write
+   * of a file, such as removing parent directory markers.
+   * @param uploadId upload ID
+   * @param dest destination path
+   * @param parts handles of the parts, in part number order.
+   * @param length length of the uploaded file
+   * @throws IOException failure
+   */
+  void complete(String uploadId, Path dest, List<String> parts, long length)
+      throws IOException;
+
+  /**
+   * Abort an upload, discarding all uploaded parts.
+   * @param uploadId upload ID
+   * @param dest destination path
+   * @throws IOException failure
+   */
+  void abort(String uploadId, Path dest) throws IOException;
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.store.StoreUtils;
+
+/**
+ * Upload of a single file as parts, which are uploaded in parallel
+ * in a pool of part workers and then committed.
+ * Each part opens its own stream of the source file; the stream
+ * supports mark/reset, so that the store can retry the part.
+ * If any part fails, the outstanding parts are cancelled
+ * and the upload aborted.
+ * A CRC32C of the file can be calculated as the parts are read;
+ * the CRCs of the parts are combined once they have all been uploaded.
+ */
+final class MultipartUpload {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      MultipartUpload.class);
+
+  private final MultipartStore store;
+
+  private final FileSystem sourceFS;
+
+  private final ExecutorService partWorkers;
+
+  private final long partSize;
+
+  /**
+   * Constructor.
+   * @param store store to upload to
+   * @param sourceFS source filesystem
+   * @param partWorkers pool in which to upload the parts. This must
+   * not be the pool of the caller, else it may deadlock.
+   * @param partSize preferred size of parts
+   */
+  MultipartUpload(final MultipartStore store,
+      final FileSystem sourceFS,
+      final ExecutorService partWorkers,
+      final long partSize) {
+    this.store = store;
+    this.sourceFS = sourceFS;
+    this.partWorkers = partWorkers;
+    this.partSize = partSize;
+  }
+
+  /**
+   * Work out the size of parts for a file; this is the preferred
+   * part size, raised if needed to the store's minimum part size
+   * and so that the part count is within the store's limit.
+   * @param size file size
+   * @return the part size to use.
+   */
+  long partSizeFor(long size) {
+    long min = Math.max(partSize, store.getMinimumPartSize());
+    long max = store.getMaximumPartCount();
+    return Math.max(min, (size + max - 1) / max);
+  }
+
+  /**
+   * Upload a file.
+   * @param source source file
+   * @param size size of the source file
+   * @param dest destination
+   * @param crc calculate the CRC32C of the file?
+   * @param limits bandwidth limits for all the parts; may be empty.
+   * @return the CRC32C of the file in hex, or null if not calculated.
+   * @throws IOException failure
+   */
+  String upload(Path source, long size, Path dest, boolean crc,
+      TokenBucket... limits)
+      throws IOException {
+    final long ps = partSizeFor(size);
+    final int count = (int) Math.max(1, (size + ps - 1) / ps);
+    final String uploadId = store.initiate(dest);
+    LOG.info("Uploading {} to {} as {} parts of size {}; upload ID {}",
+        source, dest, count, ps, uploadId);
+    List<Future<String>> parts = new ArrayList<>(count);
+    // each part only writes its own element; they are read after
+    // the parts have been awaited.
+    final int[] crcs = new int[count];
+    final long[] lengths = new long[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        final int part = i;
+        final long offset = i * ps;
+        lengths[i] = Math.min(ps, size - offset);
+        parts.add(partWorkers.submit(() -> {
+          InlineChecksum checksum = crc
+              ? InlineChecksum.create(InlineChecksum.CRC32C)
+              : null;
+          String handle = uploadPart(uploadId, source, dest, part + 1,
+              offset, lengths[part], checksum, limits);
+          if (checksum != null) {
+            crcs[part] = checksum.getCrc();
+          }
+          return handle;
+        }));
+      }
+      List<String> handles = new ArrayList<>(count);
+      for (Future<String> part : parts) {
+        handles.add(StoreUtils.await(part));
+      }
+      store.complete(uploadId, dest, handles, size);
+      return crc ? InlineChecksum.combineCrcs(crcs, lengths) : null;
+    } catch (IOException | RuntimeException e) {
+      abort(uploadId, dest, parts);
+      throw e;
+    } catch (InterruptedException e) {
+      abort(uploadId, dest, parts);
+      throw (InterruptedIOException) new InterruptedIOException(
+          "Interrupted uploading " + dest).initCause(e);
+    }
+  }
+
+  /**
+   * Upload a single part from its own input stream.
+   * @return the part handle
+   */
+  private String uploadPart(String uploadId,
+      Path source,
+      Path dest,
+      int partNumber,
+      long offset,
+      long length,
+      InlineChecksum checksum,
+      TokenBucket[] limits) throws IOException {
+    LOG.debug("Uploading part {} of {}: offset {} length {}",
+        partNumber, source, offset, length);
+    try (FSDataInputStream in = sourceFS.open(source)) {
+      return store.uploadPart(uploadId, dest, partNumber,
+          ThrottledInputStream.wrap(
+              new PartInputStream(in, offset, length, checksum), limits),
+          length);
+    }
+  }
+
+  /**
+   * Stream of a range of a seekable source, which supports mark/reset
+   * by seeking back in the source.
+   * The checksum, if any, is only updated with bytes read for the first
+   * time, so re-reading the data after a reset does not change it.
+   */
+  static final class PartInputStream extends InputStream {
+
+    private final FSDataInputStream in;
+
+    private final long offset;
+
+    private final long length;
+
+    private final InlineChecksum checksum;
+
+    /** Position in the part. */
+    private long position;
+
+    /** Marked position in the part. */
+    private long mark;
+
+    /** The bytes of the part before this have updated the checksum. */
+    private long checksummed;
+
+    /**
+     * Constructor.
+     * @param in source stream; not closed by this stream
+     * @param offset offset of the part in the source
+     * @param length length of the part
+     * @param checksum checksum to update; may be null.
+     * @throws IOException failure to seek to the start of the part
+     */
+    PartInputStream(FSDataInputStream in, long offset, long length,
+        InlineChecksum checksum) throws IOException {
+      this.in = in;
+      this.offset = offset;
+      this.length = length;
+      this.checksum = checksum;
+      in.seek(offset);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int r = read(b, 0, 1);
+      return r < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= length) {
+        return -1;
+      }
+      int r = in.read(b, off, (int) Math.min(len, length - position));
+      if (r < 0) {
+        throw new EOFException("Source ends at " + (offset + position)
+            + " in a part of length " + length + " at " + offset);
+      }
+      if (checksum != null && position + r > checksummed) {
+        int skip = (int) (checksummed - position);
+        if (skip < 0) {
+          skip = 0;
+        }
+        checksum.update(b, off + skip, r - skip);
+        checksummed = position + r;
+      }
+      position += r;
+      return r;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(Integer.MAX_VALUE,
+          Math.min(in.available(), length - position));
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    /**
+     * Mark the position; the read limit is ignored, as any position
+     * of the part can be returned to.
+     * @param readlimit ignored
+     */
+    @Override
+    public synchronized void mark(int readlimit) {
+      mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      in.seek(offset + mark);
+      position = mark;
+    }
+  }
+
+  /**
+   * Cancel all outstanding parts and abort the upload.
+   * Failures in the abort are logged and swallowed.
+   */
+  private void abort(String uploadId, Path dest,
+      List<Future<String>> parts) {
+    for (Future<String> part : parts) {
+      part.cancel(true);
+    }
+    try {
+      store.abort(uploadId, dest);
+    } catch (IOException e) {
+      LOG.warn("Failed to abort upload {} to {}: {}", uploadId, dest,
+          e.toString());
+      LOG.debug("Abort failure", e);
+    }
+  }
+}
@@ -21,6 +21,7 @@ package org.apache.hadoop.fs.tools.cloudup;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
+import org.apache.hadoop.util.StringUtils;
 
 import static org.apache.hadoop.fs.store.StoreUtils.checkArgument;
 
@@ -47,12 +48,211 @@ public enum OptionSwitch {
    */
   LARGEST(new Option("l", "largest", true, "Largest files to upload first")),
 
+  /**
+   * Threads in the pool for files at or above the large file threshold.
+   */
+  LARGE_THREADS(new Option("lt", "large-threads", true,
+      "Threads to perform upload of large files")),
+
+  /**
+   * Size at which a file is classified as large.
+   */
+  LARGE_SIZE(new Option("ls", "large-size", true,
+      "Size (e.g 128M) at or above which files are uploaded in the"
+          + " large file pool")),
+
+  /**
+   * Size at which a file is uploaded as parts, or downloaded as
+   * ranges, in parallel.
+   */
+  MULTIPART_SIZE(new Option("ms", "multipart-size", true,
+      "Size (e.g 256M) at or above which files are uploaded as parallel"
+          + " parts, if the destination supports it, or downloaded to"
+          + " a local destination as parallel ranges")),
+
+  /**
+   * Size of parts in a parallel upload or ranged download.
+   */
+  PART_SIZE(new Option("ps", "part-size", true,
+      "Size (e.g 64M) of parts in parallel uploads and ranges in"
+          + " parallel downloads")),
+
+  /**
+   * Total bandwidth limit.
+   */
+  BANDWIDTH(new Option("bandwidth", "bandwidth", true,
+      "Maximum total bandwidth of all uploads in MB/s")),
+
+  /**
+   * Per-file bandwidth limit.
+   */
+  FILE_BANDWIDTH(new Option("filebandwidth", "filebandwidth", true,
+      "Maximum bandwidth of each upload in MB/s")),
+
+  /**
+   * Adapt the number of uploads in flight.
+   */
+  ADAPTIVE(new Option("a", "adaptive", false,
+      "Adapt the number of uploads in flight to the store's throttling,"
+          + " latency and throughput")),
+
   /**
    * Overwrite target-files unconditionally.
    */
   OVERWRITE(new Option("o", "overwrite", false,
           "Overwrite target files even if they exist.")),
 
+  /**
+   * Journal of upload progress.
+   */
+  JOURNAL(new Option("j", "journal", true,
+      "Local file in which to journal the progress of uploads")),
+
+  /**
+   * Resume from the journal.
+   */
+  RESUME(new Option("r", "resume", false,
+      "Resume from the journal, skipping completed uploads")),
+
+  /**
+   * Only upload files which are missing or changed at the destination.
+   */
+  UPDATE(new Option("u", "update", false,
+      "Only upload files which are missing or differ at the destination")),
+
+  /**
+   * Pack files smaller than this size into container files.
+   */
+  PACK(new Option("pack", "pack", true,
+      "Pack files smaller than this size into container files")),
+
+  /**
+   * Size of container files.
+   */
+  PACK_SIZE(new Option("packsize", "packsize", true,
+      "Size at which a container file is closed and another started")),
+
+  /**
+   * Checksum the data as it is uploaded.
+   */
+  CHECKSUM(new Option("checksum", "checksum", true,
+      "Checksum the data as it is uploaded: crc32c or md5")),
+
+  /**
+   * Verify checksums against those of the destination.
+   */
+  VERIFY(new Option("verify", "verify", false,
+      "Compare checksums with those of the destination, where comparable")),
+
+  /**
+   * Directory of the report of every upload.
+   */
+  REPORT(new Option("report", "report", true,
+      "Local directory in which to write a report of every upload")),
+
+  /**
+   * Grouping of uploads by destination prefix.
+   */
+  SHARD(new Option("shard", "shard", true,
+      "Group uploads by the first N directories of their path, or by"
+          + " hash:N of their directory, and take them round-robin")),
+
+  /**
+   * Limit of the uploads in flight per group.
+   */
+  SHARD_LIMIT(new Option("shardlimit", "shardlimit", true,
+      "Maximum number of uploads in flight per group")),
+
+  /**
+   * Attempts per upload.
+   */
+  ATTEMPTS(new Option("attempts", "attempts", true,
+      "Maximum number of attempts to upload each file, retrying"
+          + " transient failures")),
+
+  /**
+   * Base delay of the backoff between attempts.
+   */
+  BACKOFF(new Option("backoff", "backoff", true,
+      "Base delay in milliseconds before retrying, doubled every attempt")),
+
+  /**
+   * Limit on the uploads submitted and not yet completed.
+   */
+  WINDOW(new Option("window", "window", true,
+      "Maximum number of uploads submitted and not yet completed;"
+          + " the listing waits while the window is full")),
+
+  /**
+   * Run uploads in virtual threads.
+   */
+  VIRTUAL(new Option("virtual", "virtual", false,
+      "Run every upload in its own virtual thread (Java 21+), with the"
+          + " thread counts limiting the uploads in flight")),
+
+  /**
+   * Predict the duration of the run rather than upload.
+   */
+  PLAN(new Option("plan", "plan", false,
+      "Dry run: list the source, time sample uploads and predict the"
+          + " duration of the run and the best thread count")),
+
+  /**
+   * Delete every source file once it has been uploaded.
+   */
+  MOVE(new Option("move", "move", false,
+      "Move rather than copy: delete every source file once its upload"
+          + " has succeeded, in bulk where the source store supports it")),
+
+  /**
+   * Pattern of files to upload; may be repeated.
+   */
+  INCLUDE(new Option("include", "include", true,
+      "Only upload files matching this glob, or regex:<expression>;"
+          + " may be repeated")),
+
+  /**
+   * Pattern of files not to upload; may be repeated.
+   */
+  EXCLUDE(new Option("exclude", "exclude", true,
+      "Do not upload files matching this glob, or regex:<expression>;"
+          + " may be repeated. Directories matched with a trailing /**"
+          + " are not listed")),
+
+  /**
+   * Minimum size of files to upload.
+   */
+  MIN_SIZE(new Option("minsize", "minsize", true,
+      "Only upload files of at least this size")),
+
+  /**
+   * Maximum size of files to upload.
+   */
+  MAX_SIZE(new Option("maxsize", "maxsize", true,
+      "Only upload files of at most this size")),
+
+  /**
+   * Earliest modification time of files to upload.
+   */
+  AFTER(new Option("after", "after", true,
+      "Only upload files modified at or after this time: epoch millis,"
+          + " yyyy-mm-dd or an ISO-8601 instant")),
+
+  /**
+   * Modification time before which files to upload were modified.
+   */
+  BEFORE(new Option("before", "before", true,
+      "Only upload files modified before this time: epoch millis,"
+          + " yyyy-mm-dd or an ISO-8601 instant")),
+
+  /**
+   * Codec with which to compress uploads.
+   */
+  COMPRESS(new Option("compress", "compress", true,
+      "Compress every upload with this codec, e.g. gzip or bzip2,"
+          + " adding its suffix to the destination; compression runs"
+          + " in a thread per CPU, overlapping the uploads")),
+
   SOURCE(new Option("s", "source", true, "source path")),
 
   DEST(new Option("d", "dest", true, "destination path"));
@@ -123,6 +323,22 @@ public enum OptionSwitch {
     return optionValue == null ? defVal : optionValue.trim();
   }
 
+  /**
+   * Get all values of an option which may be repeated.
+   * @param command command line
+   * @return the values; empty if unset
+   */
+  public String[] evalAll(CommandLine command) {
+    String[] values = command.getOptionValues(getOptionName());
+    if (values == null) {
+      return new String[0];
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] = values[i].trim();
+    }
+    return values;
+  }
+
   public boolean hasOption(CommandLine command) {
     return command.hasOption(getOptionName());
   }
@@ -131,6 +347,23 @@ public enum OptionSwitch {
     return Integer.valueOf(eval(command, Integer.toString(defVal)));
   }
 
+  public double eval(CommandLine command, double defVal) {
+    return Double.valueOf(eval(command, Double.toString(defVal)));
+  }
+
+  /**
+   * Get a size value; this may have a binary prefix such as "k", "m" or "g".
+   * @param command command line
+   * @param defVal default value
+   * @return the size in bytes
+   */
+  public long evalSize(CommandLine command, long defVal) {
+    String v = eval(command, null);
+    return v == null
+        ? defVal
+        : StringUtils.TraditionalBinaryPrefix.string2long(v);
+  }
+
   /**
    * Enum all the options and add them.
    * @param cliOptions option set
@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Packs small files into SequenceFile containers under the directory
+ * {@value #PACK_DIR} of the destination, so that many small uploads
+ * become a few large ones.
+ *
+ * Each record has the encoded relative path of the file as its key
+ * and the file's data as its value. Records are not compressed, so
+ * the data of every file is stored as-is in the container.
+ * Once a container is closed, an index file of the same name but with
+ * the suffix {@value #INDEX_SUFFIX} is written, with one line per file:
+ * the relative path, the offset of the data in the container and its
+ * length, separated by tabs. A file can be read with a single ranged
+ * read of the container.
+ *
+ * Every packer thread writes its own containers, taking files from a
+ * shared queue. The queue is bounded, so that files are not queued
+ * faster than they can be packed. A file is only complete once its
+ * container has been closed; if a container fails, all files in it
+ * have failed.
+ * In a move, the sources of a container's files are only deleted
+ * once it has been committed.
+ */
+final class Packer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Packer.class);
+
+  /** Directory of containers under the destination: {@value}. */
+  static final String PACK_DIR = "_packed";
+
+  /** Suffix of containers: {@value}. */
+  static final String CONTAINER_SUFFIX = ".seq";
+
+  /** Suffix of index files: {@value}. */
+  static final String INDEX_SUFFIX = ".index";
+
+  /** Interval in millis at which the queue is polled. */
+  private static final long POLL_INTERVAL = 100;
+
+  private final UploadPlan plan;
+
+  private final FileSystem sourceFS;
+
+  private final FileSystem destFS;
+
+  private final Path packDir;
+
+  private final long containerSize;
+
+  private final Configuration conf;
+
+  private final UploadJournal journal;
+
+  private final String checksumAlgorithm;
+
+  private final SourceDeleter deleter;
+
+  private final TokenBucket[] limits;
+
+  /** Set once no more files will be queued. */
+  private volatile boolean finished;
+
+  /** Unique to a run, so that resumed runs do not overwrite containers. */
+  private final String runId = UUID.randomUUID().toString().substring(0, 8);
+
+  private final BlockingQueue<Integer> queue;
+
+  /**
+   * Constructor.
+   * @param plan plan of the uploads
+   * @param sourceFS source filesystem
+   * @param destFS destination filesystem
+   * @param dest destination directory
+   * @param containerSize size at which a container is closed
+   * @param capacity maximum number of files queued and not yet packed
+   * @param conf configuration
+   * @param journal journal; may be null
+   * @param checksumAlgorithm algorithm of the checksum of each file's
+   * data to journal; may be null
+   * @param deleter deleter of the sources of packed files; null
+   * unless moving
+   * @param limits bandwidth limits; null entries are ignored.
+   */
+  Packer(UploadPlan plan,
+      FileSystem sourceFS,
+      FileSystem destFS,
+      Path dest,
+      long containerSize,
+      int capacity,
+      Configuration conf,
+      UploadJournal journal,
+      String checksumAlgorithm,
+      SourceDeleter deleter,
+      TokenBucket... limits) {
+    this.plan = plan;
+    this.sourceFS = sourceFS;
+    this.destFS = destFS;
+    this.packDir = new Path(dest, PACK_DIR);
+    this.containerSize = containerSize;
+    this.queue = new LinkedBlockingQueue<>(capacity);
+    this.conf = conf;
+    this.journal = journal;
+    this.checksumAlgorithm = checksumAlgorithm;
+    this.deleter = deleter;
+    this.limits = limits;
+  }
+
+  /**
+   * Queue a file for packing, waiting while the queue is full.
+   * @param index index of the file in the plan
+   * @throws InterruptedException interrupted while waiting
+   */
+  void add(int index) throws InterruptedException {
+    queue.put(index);
+  }
+
+  /**
+   * Mark the end of the files, so that the packers finish once they
+   * have packed all queued files. This does not wait for room in the
+   * queue, so it cannot block.
+   */
+  void finish() {
+    finished = true;
+  }
+
+  /**
+   * Create a packer, which writes containers until the end of the queue.
+   * @param id ID of this packer, unique in the run.
+   * @return the packer
+   */
+  Callable<Result> createPacker(int id) {
+    return () -> pack(id);
+  }
+
+  private Result pack(int id) throws InterruptedException {
+    Result result = new Result();
+    Container container = null;
+    int sequence = 0;
+    while (true) {
+      // read the flag before polling: if it is set, every file
+      // has already been queued
+      boolean last = finished;
+      Integer index = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      if (index == null) {
+        if (last) {
+          break;
+        }
+        continue;
+      }
+      byte[] data;
+      try {
+        data = read(plan.getSource(index), plan.getSize(index));
+      } catch (IOException e) {
+        LOG.warn("Failed to read {}: {}", plan.getSource(index),
+            e.toString());
+        result.failed(1, e);
+        completed(index, UploadEntry.State.failed, null);
+        continue;
+      }
+      try {
+        if (container == null) {
+          container = new Container(new Path(packDir,
+              String.format("pack-%s-%02d-%05d", runId, id, sequence++)));
+        }
+        container.append(index, data);
+        if (container.getLength() >= containerSize) {
+          commit(container, result);
+          container = null;
+        }
+      } catch (IOException e) {
+        if (container == null) {
+          // failed to create the container
+          result.failed(1, e);
+          completed(index, UploadEntry.State.failed, null);
+        } else {
+          abort(container, result, e);
+          container = null;
+        }
+      }
+    }
+    if (container != null) {
+      try {
+        commit(container, result);
+      } catch (IOException e) {
+        abort(container, result, e);
+      }
+    }
+    return result;
+  }
+
+  private byte[] read(Path source, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Too large to pack: " + source);
+    }
+    byte[] data = new byte[(int) size];
+    try (InputStream in = new ThrottledInputStream(sourceFS.open(source),
+        limits)) {
+      IOUtils.readFully(in, data, 0, data.length);
+    }
+    return data;
+  }
+
+  /**
+   * Close a container and write its index, then mark its files
+   * as succeeded, and, in a move, delete their sources.
+   */
+  private void commit(Container container, Result result)
+      throws IOException {
+    container.close();
+    Path indexPath = container.base.suffix(INDEX_SUFFIX);
+    try (FSDataOutputStream out = destFS.create(indexPath, true);
+         Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+      for (Record record : container.records) {
+        writer.write(plan.getRelativePath(record.index));
+        writer.write('\t');
+        writer.write(Long.toString(record.offset));
+        writer.write('\t');
+        writer.write(Long.toString(record.length));
+        writer.write('\n');
+      }
+    }
+    LOG.info("Packed {} files of total size {} into {}",
+        container.records.size(), container.bytes, container.path);
+    result.containers++;
+    result.files += container.records.size();
+    result.bytes += container.bytes;
+    for (Record record : container.records) {
+      completed(record.index, UploadEntry.State.succeeded, record.checksum);
+      if (deleter != null) {
+        deleter.delete(plan.getSource(record.index));
+      }
+    }
+  }
+
+  /**
+   * Abandon a container, marking all its files as failed.
+   */
+  private void abort(Container container, Result result, IOException e) {
+    LOG.warn("Failed to write container {}: {}", container.path,
+        e.toString());
+    LOG.debug("Container failure", e);
+    IOUtils.cleanupWithLogger(LOG, container.writer);
+    try {
+      destFS.delete(container.path, false);
+    } catch (IOException ex) {
+      LOG.debug("Failed to delete {}", container.path, ex);
+    }
+    result.failed(container.records.size(), e);
+    for (Record record : container.records) {
+      completed(record.index, UploadEntry.State.failed, null);
+    }
+  }
+
+  private void completed(int index, UploadEntry.State state,
+      String checksum) {
+    plan.setState(index, state);
+    if (journal != null) {
+      try {
+        journal.completed(plan.getRelativePath(index), state, checksum);
+      } catch (IOException e) {
+        LOG.warn("Failed to journal {}: {}", plan.getRelativePath(index),
+            e.toString());
+      }
+    }
+  }
+
+  /**
+   * A container being written.
+   */
+  private final class Container {
+
+    private final Path base;
+
+    private final Path path;
+
+    private final SequenceFile.Writer writer;
+
+    private final List<Record> records = new ArrayList<>();
+
+    private long bytes;
+
+    /**
+     * Create a container.
+     * @param base path of the container without its suffix.
+     */
+    private Container(Path base) throws IOException {
+      this.base = base;
+      this.path = base.suffix(CONTAINER_SUFFIX);
+      this.writer = SequenceFile.createWriter(conf,
+          SequenceFile.Writer.file(destFS.makeQualified(this.path)),
+          SequenceFile.Writer.keyClass(Text.class),
+          SequenceFile.Writer.valueClass(BytesWritable.class),
+          SequenceFile.Writer.compression(SequenceFile.CompressionType.NONE));
+    }
+
+    /**
+     * Append a file; the data is the last bytes of the record,
+     * so its offset is the length after the append less its length.
+     */
+    private void append(int index, byte[] data) throws IOException {
+      writer.append(new Text(plan.getRelativePath(index)),
+          new BytesWritable(data));
+      String checksum = null;
+      if (checksumAlgorithm != null) {
+        InlineChecksum crc = InlineChecksum.create(checksumAlgorithm);
+        crc.update(data, 0, data.length);
+        checksum = crc.getAlgorithm() + ":" + crc.getHex();
+      }
+      records.add(new Record(index, writer.getLength() - data.length,
+          data.length, checksum));
+      bytes += data.length;
+    }
+
+    private long getLength() throws IOException {
+      return writer.getLength();
+    }
+
+    private void close() throws IOException {
+      writer.close();
+    }
+  }
+
+  /**
+   * A file in a container.
+   */
+  private static final class Record {
+
+    private final int index;
+
+    private final long offset;
+
+    private final long length;
+
+    private final String checksum;
+
+    private Record(int index, long offset, long length, String checksum) {
+      this.index = index;
+      this.offset = offset;
+      this.length = length;
+      this.checksum = checksum;
+    }
+  }
+
+  /**
+   * Result of a packer.
+   */
+  static final class Result {
+
+    private int containers;
+
+    private int files;
+
+    private long bytes;
+
+    private int failures;
+
+    private Exception exception;
+
+    private void failed(int count, Exception e) {
+      failures += count;
+      if (exception == null) {
+        exception = e;
+      }
+    }
+
+    int getContainers() {
+      return containers;
+    }
+
+    int getFiles() {
+      return files;
+    }
+
+    long getBytes() {
+      return bytes;
+    }
+
+    int getFailures() {
+      return failures;
+    }
+
+    Exception getException() {
+      return exception;
+    }
+  }
+}
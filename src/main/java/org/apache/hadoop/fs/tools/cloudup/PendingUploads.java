@@ -0,0 +1,403 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.hadoop.fs.store.StoreUtils;
+
+/**
+ * Uploads which have been listed but not yet started, from which
+ * workers take their next upload as they become free.
+ *
+ * The first {@code largest} uploads taken are the largest pending at
+ * the time; after that, uploads are taken round-robin from groups of
+ * uploads sharing a destination prefix, and at random within a group.
+ * Object stores partition their keys by prefix, with a limit on the
+ * request rate of each partition: taking uploads round-robin spreads
+ * them across the partitions, where a purely random order clusters
+ * on some by chance. With a single group, the order is purely random.
+ * As uploads are added while the listing is still in progress,
+ * "largest" means the largest listed so far.
+ *
+ * If there is a limit on the uploads in flight per group, a group at
+ * its limit is passed over, and {@link #take()} blocks if all groups
+ * with pending uploads are at their limit, until {@link #done(int)} is
+ * called for one of their uploads.
+ *
+ * Uploads are identified by their index in the {@link UploadPlan};
+ * each group's random pool is an array of them.
+ * The heap of the largest entries is discarded once it is no longer
+ * needed; entries taken from the heap are lazily removed from the
+ * random pools, and vice versa, by their state in the plan.
+ *
+ * Thread safe.
+ */
+final class PendingUploads {
+
+  private final UploadPlan plan;
+
+  private final PriorityQueue<Integer> heap;
+
+  private final boolean shuffled;
+
+  private final Random random;
+
+  private final Sharding sharding;
+
+  private final Map<String, Group> groupsByPrefix = new HashMap<>();
+
+  private final List<Group> groups = new ArrayList<>();
+
+  /** Group of every upload added, by index in the plan; -1 for none. */
+  private int[] groupOf = new int[1024];
+
+  /** Next group to take from. */
+  private int cursor;
+
+  private int largestRemaining;
+
+  private int size;
+
+  /**
+   * Create a set of pending uploads taken largest first, then at random.
+   * @param plan plan of the uploads
+   * @param largest number of uploads to take largest first.
+   * @param random source of randomness.
+   */
+  PendingUploads(UploadPlan plan, int largest, Random random) {
+    this(plan, largest, true, random, Sharding.NONE);
+  }
+
+  /**
+   * Create a set of pending uploads taken largest first, then
+   * round-robin across the groups of the sharding, at random
+   * within each group.
+   * @param plan plan of the uploads
+   * @param largest number of uploads to take largest first.
+   * @param random source of randomness.
+   * @param sharding grouping of uploads by destination prefix.
+   */
+  PendingUploads(UploadPlan plan, int largest, Random random,
+      Sharding sharding) {
+    this(plan, largest, true, random, sharding);
+  }
+
+  /**
+   * Create a set of pending uploads which are always taken
+   * largest first.
+   * @param plan plan of the uploads
+   * @return the pending uploads
+   */
+  static PendingUploads largestFirst(UploadPlan plan) {
+    return new PendingUploads(plan, Integer.MAX_VALUE, false, null,
+        Sharding.NONE);
+  }
+
+  private PendingUploads(UploadPlan plan, int largest, boolean shuffled,
+      Random random, Sharding sharding) {
+    this.plan = plan;
+    this.largestRemaining = largest;
+    this.shuffled = shuffled;
+    this.random = random;
+    this.sharding = sharding;
+    this.heap = new PriorityQueue<>(
+        (l, r) -> Long.compare(plan.getSize(r), plan.getSize(l)));
+    Arrays.fill(groupOf, -1);
+  }
+
+  /**
+   * Add an upload; it must be in the state {@code queued}.
+   * @param index index of the upload in the plan
+   */
+  synchronized void add(int index) {
+    if (largestRemaining > 0) {
+      heap.add(index);
+    }
+    if (shuffled) {
+      Group group = group(index);
+      if (index >= groupOf.length) {
+        int length = groupOf.length;
+        groupOf = Arrays.copyOf(groupOf, Math.max(length * 2, index + 1));
+        Arrays.fill(groupOf, length, groupOf.length, -1);
+      }
+      groupOf[index] = group.id;
+      group.add(index);
+    }
+    size++;
+  }
+
+  private Group group(int index) {
+    String prefix = sharding.prefix(plan.getRelativePath(index));
+    Group group = groupsByPrefix.get(prefix);
+    if (group == null) {
+      group = new Group(groups.size(), prefix);
+      groupsByPrefix.put(prefix, group);
+      groups.add(group);
+    }
+    return group;
+  }
+
+  /**
+   * Take the next upload, moving it to the state {@code active}.
+   * This blocks while there are pending uploads, but all their groups
+   * are at their limit of uploads in flight.
+   * @return the index of the upload or -1 if there are none pending,
+   * or the thread was interrupted.
+   */
+  synchronized int take() {
+    try {
+      int index;
+      while ((index = next()) == -2) {
+        wait();
+      }
+      return index;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return -1;
+    }
+  }
+
+  /**
+   * Find and remove the next upload.
+   * @return the index of the upload; -1 if there are none pending;
+   * -2 if the groups of all pending uploads are at their limit.
+   */
+  private int next() {
+    int index = -1;
+    while (index < 0 && largestRemaining > 0 && !heap.isEmpty()) {
+      Group group = groupOf(heap.peek());
+      if (group != null && group.isFull()) {
+        // take from another group for now
+        break;
+      }
+      index = pending(heap.poll());
+    }
+    if (index >= 0) {
+      largestRemaining--;
+      if (largestRemaining == 0) {
+        heap.clear();
+      }
+    }
+    boolean full = false;
+    for (int scanned = 0; index < 0 && scanned < groups.size(); scanned++) {
+      Group group = groups.get(cursor);
+      cursor = (cursor + 1) % groups.size();
+      if (group.isFull()) {
+        full |= group.poolSize > 0;
+        continue;
+      }
+      index = group.take();
+    }
+    if (index < 0) {
+      return full ? -2 : -1;
+    }
+    plan.setState(index, UploadEntry.State.active);
+    Group group = groupOf(index);
+    if (group != null) {
+      group.inFlight++;
+    }
+    size--;
+    return index;
+  }
+
+  /**
+   * Note that an upload taken has finished, so that another upload
+   * of its group may be taken.
+   * @param index index of the upload
+   */
+  synchronized void done(int index) {
+    Group group = groupOf(index);
+    if (group != null && group.inFlight > 0) {
+      group.inFlight--;
+      notifyAll();
+    }
+  }
+
+  private Group groupOf(int index) {
+    return index < groupOf.length && groupOf[index] >= 0
+        ? groups.get(groupOf[index])
+        : null;
+  }
+
+  /**
+   * Get the number of pending uploads.
+   * @return the number of uploads added and not yet taken.
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of groups.
+   * @return the number of distinct prefixes of the uploads added.
+   */
+  synchronized int groups() {
+    return groups.size();
+  }
+
+  private int pending(int index) {
+    return plan.inState(index, UploadEntry.State.queued) ? index : -1;
+  }
+
+  /**
+   * Uploads with the same destination prefix.
+   */
+  private final class Group {
+
+    private final int id;
+
+    private final String prefix;
+
+    private int[] pool = new int[16];
+
+    private int poolSize;
+
+    private int inFlight;
+
+    private Group(int id, String prefix) {
+      this.id = id;
+      this.prefix = prefix;
+    }
+
+    private void add(int index) {
+      if (poolSize == pool.length) {
+        pool = Arrays.copyOf(pool, poolSize * 2);
+      }
+      pool[poolSize++] = index;
+    }
+
+    private boolean isFull() {
+      return sharding.limit > 0 && inFlight >= sharding.limit;
+    }
+
+    /**
+     * Take a random pending upload.
+     * @return its index, or -1 if the group has none.
+     */
+    private int take() {
+      int index = -1;
+      while (index < 0 && poolSize > 0) {
+        // swap a random entry with the last, then remove it
+        int r = random.nextInt(poolSize);
+        int candidate = pool[r];
+        pool[r] = pool[--poolSize];
+        index = pending(candidate);
+      }
+      return index;
+    }
+
+    @Override
+    public String toString() {
+      return "Group{'" + prefix + "'; pending=" + poolSize
+          + "; in flight=" + inFlight + '}';
+    }
+  }
+
+  /**
+   * How uploads are grouped by the prefix of their destination,
+   * and the limit on the uploads in flight of each group.
+   */
+  static final class Sharding {
+
+    /** A single group without limit. */
+    static final Sharding NONE = new Sharding(0, 0, 0);
+
+    private static final String HASH = "hash:";
+
+    private final int depth;
+
+    private final int hashes;
+
+    private final int limit;
+
+    /**
+     * Constructor.
+     * @param depth number of directories of the relative path which
+     * are the prefix.
+     * @param hashes if greater than zero, the number of groups into
+     * which the parent directories are hashed.
+     * @param limit maximum uploads in flight per group; 0 for none.
+     */
+    Sharding(int depth, int hashes, int limit) {
+      this.depth = depth;
+      this.hashes = hashes;
+      this.limit = limit;
+    }
+
+    /**
+     * Parse a sharding.
+     * @param spec either a depth, or {@code hash:N}
+     * @param limit maximum uploads in flight per group; 0 for none.
+     * @return the sharding
+     * @throws IllegalArgumentException invalid specification
+     */
+    static Sharding parse(String spec, int limit) {
+      StoreUtils.checkArgument(limit >= 0,
+          "Shard limit must not be negative");
+      try {
+        Sharding sharding = spec.startsWith(HASH)
+            ? new Sharding(0, Integer.parseInt(spec.substring(HASH.length())),
+                limit)
+            : new Sharding(Integer.parseInt(spec), 0, limit);
+        StoreUtils.checkArgument(sharding.depth >= 0 && sharding.hashes >= 0,
+            "Invalid sharding " + spec);
+        return sharding;
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid sharding " + spec
+            + "; expected a directory depth or hash:<groups>", e);
+      }
+    }
+
+    /**
+     * Get the prefix of a relative path.
+     * @param relativePath encoded relative path
+     * @return the first {@code depth} directories, or the hash of the
+     * parent directory as {@code #N}.
+     */
+    String prefix(String relativePath) {
+      if (hashes > 0) {
+        int parent = Math.max(0, relativePath.lastIndexOf('/'));
+        int hash = relativePath.substring(0, parent).hashCode();
+        return "#" + Math.floorMod(hash, hashes);
+      }
+      int end = 0;
+      for (int d = 0; d < depth; d++) {
+        int next = relativePath.indexOf('/', end == 0 ? 0 : end + 1);
+        if (next < 0) {
+          break;
+        }
+        end = next;
+      }
+      return relativePath.substring(0, end);
+    }
+
+    @Override
+    public String toString() {
+      return (hashes > 0 ? HASH + hashes : "depth " + depth)
+          + (limit > 0 ? "; limit " + limit : "");
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.store.StoreUtils;
+
+/**
+ * Download of a single remote file to a local file as byte ranges,
+ * which are read in parallel in a pool of range workers.
+ * Each range opens its own stream of the source and reads it with
+ * {@code PositionedReadable.readFully()}, a buffer at a time; the data
+ * is written at its position in the local file through a shared
+ * {@code FileChannel}, so the ranges can complete in any order.
+ * The local file is extended to its full length before any range
+ * is written.
+ * If any range fails, the outstanding ranges are cancelled and the
+ * local file deleted.
+ * A CRC32C of the file can be calculated as the ranges are read;
+ * the CRCs of the ranges are combined once they have all been written.
+ */
+final class RangedDownload {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      RangedDownload.class);
+
+  private final FileSystem sourceFS;
+
+  private final ExecutorService rangeWorkers;
+
+  private final long rangeSize;
+
+  private final BufferPool buffers;
+
+  /**
+   * Constructor.
+   * @param sourceFS source filesystem
+   * @param rangeWorkers pool in which to read the ranges. This must
+   * not be the pool of the caller, else it may deadlock.
+   * @param rangeSize size of ranges
+   * @param bufferSize size of the buffers of each read
+   * @param poolSize number of buffers to retain; this should be
+   * the number of range workers.
+   */
+  RangedDownload(final FileSystem sourceFS,
+      final ExecutorService rangeWorkers,
+      final long rangeSize,
+      final int bufferSize,
+      final int poolSize) {
+    StoreUtils.checkArgument(rangeSize > 0, "Invalid range size");
+    this.sourceFS = sourceFS;
+    this.rangeWorkers = rangeWorkers;
+    this.rangeSize = rangeSize;
+    this.buffers = new BufferPool(bufferSize, poolSize, false);
+  }
+
+  /**
+   * Download a file.
+   * @param source source file
+   * @param size size of the source file
+   * @param destFS destination filesystem, which must be local
+   * @param dest destination file
+   * @param overwrite overwrite any existing file?
+   * @param crc calculate the CRC32C of the file?
+   * @param limits bandwidth limits for all the ranges; may be empty.
+   * @return the CRC32C of the file in hex, or null if not calculated.
+   * @throws IOException failure
+   */
+  String download(Path source, long size,
+      FileSystem destFS, Path dest,
+      boolean overwrite,
+      boolean crc,
+      TokenBucket... limits) throws IOException {
+    final File destFile = CopyEngine.localFile(destFS, dest);
+    StoreUtils.checkArgument(destFile != null,
+        "Not a local destination: " + dest);
+    if (destFS.exists(dest)) {
+      if (!overwrite) {
+        throw new FileAlreadyExistsException(dest.toString());
+      }
+      // also deletes any checksum file
+      destFS.delete(dest, false);
+    }
+    destFS.mkdirs(dest.getParent());
+    final int count = (int) Math.max(1, (size + rangeSize - 1) / rangeSize);
+    LOG.info("Downloading {} to {} as {} ranges of size {}",
+        source, dest, count, rangeSize);
+    final List<Future<Long>> ranges = new ArrayList<>(count);
+    // each range only writes its own element; they are read after
+    // the ranges have been awaited.
+    final int[] crcs = new int[count];
+    final long[] lengths = new long[count];
+    try (FileChannel out = FileChannel.open(destFile.toPath(),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      try {
+        if (size > 0) {
+          out.write(ByteBuffer.allocate(1), size - 1);
+        }
+        for (int i = 0; i < count; i++) {
+          final int range = i;
+          final long offset = i * rangeSize;
+          lengths[i] = Math.min(rangeSize, size - offset);
+          ranges.add(rangeWorkers.submit(() -> {
+            InlineChecksum checksum = crc
+                ? InlineChecksum.create(InlineChecksum.CRC32C)
+                : null;
+            long read = downloadRange(source, offset, lengths[range], out,
+                checksum, limits);
+            if (checksum != null) {
+              crcs[range] = checksum.getCrc();
+            }
+            return read;
+          }));
+        }
+        for (Future<Long> range : ranges) {
+          StoreUtils.await(range);
+        }
+      } catch (IOException | RuntimeException e) {
+        cancel(ranges);
+        throw e;
+      } catch (InterruptedException e) {
+        cancel(ranges);
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted downloading " + source).initCause(e);
+      }
+    } catch (java.nio.file.FileAlreadyExistsException e) {
+      // created by someone else
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      CopyEngine.deleteQuietly(destFS, dest);
+      throw e;
+    }
+    return crc ? InlineChecksum.combineCrcs(crcs, lengths) : null;
+  }
+
+  /**
+   * Download a single range from its own input stream.
+   * @return the number of bytes read.
+   */
+  private long downloadRange(Path source,
+      long offset,
+      long length,
+      FileChannel out,
+      InlineChecksum checksum,
+      TokenBucket[] limits) throws IOException {
+    LOG.debug("Downloading range of {}: offset {} length {}",
+        source, offset, length);
+    final ByteBuffer buffer = buffers.acquire();
+    try (FSDataInputStream in = sourceFS.open(source)) {
+      final byte[] bytes = buffer.array();
+      final long end = offset + length;
+      long position = offset;
+      while (position < end) {
+        final int len = (int) Math.min(bytes.length, end - position);
+        in.readFully(position, bytes, 0, len);
+        if (checksum != null) {
+          checksum.update(bytes, 0, len);
+        }
+        final ByteBuffer data = ByteBuffer.wrap(bytes, 0, len);
+        long written = position;
+        while (data.hasRemaining()) {
+          written += out.write(data, written);
+        }
+        position += len;
+        CopyEngine.throttle(len, limits);
+      }
+      return length;
+    } finally {
+      buffers.release(buffer);
+    }
+  }
+
+  private static void cancel(List<Future<Long>> ranges) {
+    for (Future<Long> range : ranges) {
+      range.cancel(true);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RangedDownload{range size=" + rangeSize + "; " + buffers + '}';
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Deletes the source files of a move once they have been uploaded.
+ *
+ * Files are only passed in once their upload has succeeded. With a
+ * {@link BulkDelete} for the source store, they are batched into pages
+ * which are deleted in one request each; otherwise every file is deleted
+ * by a call of {@code FileSystem.delete()}. Either way, the deletes run
+ * in parallel in a pool, while the uploads continue.
+ *
+ * A failure to delete is logged and counted; the file is left where
+ * it was, so nothing is lost.
+ *
+ * Thread safe.
+ */
+final class SourceDeleter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      SourceDeleter.class);
+
+  private final FileSystem sourceFS;
+
+  private final BulkDelete bulkDelete;
+
+  private final ExecutorService pool;
+
+  private final AtomicInteger deleted = new AtomicInteger();
+
+  private final AtomicInteger failures = new AtomicInteger();
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  /** Files awaiting a full page; only used with a bulk delete. */
+  private List<Path> page = new ArrayList<>();
+
+  /** Deletes submitted and not yet finished. */
+  private int outstanding;
+
+  private Exception exception;
+
+  /**
+   * Constructor.
+   * @param sourceFS source filesystem
+   * @param bulkDelete bulk delete of the source store; null for none
+   * @param pool pool in which to delete.
+   */
+  SourceDeleter(FileSystem sourceFS, BulkDelete bulkDelete,
+      ExecutorService pool) {
+    this.sourceFS = sourceFS;
+    this.bulkDelete = bulkDelete;
+    this.pool = pool;
+  }
+
+  /**
+   * Delete a source file whose upload has succeeded.
+   * With a bulk delete, this only happens once its page is full
+   * or on {@link #finish()}.
+   * @param source source file
+   */
+  void delete(Path source) {
+    final List<Path> full;
+    synchronized (this) {
+      if (bulkDelete == null) {
+        full = Collections.singletonList(source);
+      } else {
+        page.add(source);
+        if (page.size() < bulkDelete.getPageSize()) {
+          return;
+        }
+        full = page;
+        page = new ArrayList<>();
+      }
+      outstanding++;
+    }
+    submit(full);
+  }
+
+  /**
+   * Delete any partial page, then wait for all deletes to finish.
+   * @throws InterruptedException interrupted while waiting
+   */
+  void finish() throws InterruptedException {
+    final List<Path> last;
+    synchronized (this) {
+      last = page;
+      page = new ArrayList<>();
+      if (!last.isEmpty()) {
+        outstanding++;
+      }
+    }
+    if (!last.isEmpty()) {
+      submit(last);
+    }
+    synchronized (this) {
+      while (outstanding > 0) {
+        wait();
+      }
+    }
+  }
+
+  private void submit(List<Path> paths) {
+    try {
+      pool.submit(() -> {
+        try {
+          deletePaths(paths);
+        } finally {
+          done();
+        }
+      });
+    } catch (RuntimeException e) {
+      // rejected: the pool has been shut down
+      failed(paths, paths.size(), e);
+      done();
+    }
+  }
+
+  private synchronized void done() {
+    outstanding--;
+    notifyAll();
+  }
+
+  private void deletePaths(List<Path> paths) {
+    requests.incrementAndGet();
+    try {
+      if (bulkDelete != null) {
+        List<Path> undeleted = bulkDelete.delete(paths);
+        deleted.addAndGet(paths.size() - undeleted.size());
+        if (!undeleted.isEmpty()) {
+          failed(undeleted, undeleted.size(), new IOException(
+              "Failed to delete " + undeleted.size() + " files such as "
+                  + undeleted.get(0)));
+        }
+      } else {
+        Path path = paths.get(0);
+        if (sourceFS.delete(path, false)) {
+          deleted.incrementAndGet();
+        } else {
+          failed(paths, 1, new IOException("Failed to delete " + path));
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      failed(paths, paths.size(), e);
+    }
+  }
+
+  private void failed(List<Path> paths, int count, Exception e) {
+    LOG.warn("Failed to delete {} source file(s) such as {}: {}",
+        count, paths.get(0), e.toString());
+    LOG.debug("Delete failure", e);
+    failures.addAndGet(count);
+    synchronized (this) {
+      if (exception == null) {
+        exception = e;
+      }
+    }
+  }
+
+  /**
+   * Get the number of source files deleted.
+   * @return a count
+   */
+  int getDeleted() {
+    return deleted.get();
+  }
+
+  /**
+   * Get the number of source files which could not be deleted.
+   * @return a count
+   */
+  int getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * Get the number of delete requests issued: pages with a bulk delete,
+   * otherwise files.
+   * @return a count
+   */
+  int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Get the first failure to delete.
+   * @return the exception or null.
+   */
+  synchronized Exception getException() {
+    return exception;
+  }
+
+  @Override
+  public String toString() {
+    return "SourceDeleter{deleted=" + deleted.get()
+        + "; failures=" + failures.get()
+        + "; requests=" + requests.get()
+        + "; bulk=" + (bulkDelete != null) + '}';
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which takes tokens from one or more buckets
+ * for every byte read.
+ * Mark/reset are those of the wrapped stream: data re-read after a
+ * reset takes tokens again, as it is sent again.
+ */
+final class ThrottledInputStream extends FilterInputStream {
+
+  private final TokenBucket[] buckets;
+
+  /**
+   * Constructor.
+   * @param in wrapped stream
+   * @param buckets buckets; null entries are ignored.
+   */
+  ThrottledInputStream(InputStream in, TokenBucket... buckets) {
+    super(in);
+    this.buckets = buckets;
+  }
+
+  /**
+   * Wrap a stream if any of the buckets are non-null.
+   * @param in stream
+   * @param buckets buckets; null entries are ignored.
+   * @return the stream to read.
+   */
+  static InputStream wrap(InputStream in, TokenBucket... buckets) {
+    for (TokenBucket bucket : buckets) {
+      if (bucket != null) {
+        return new ThrottledInputStream(in, buckets);
+      }
+    }
+    return in;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b >= 0) {
+      throttle(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int r = super.read(b, off, len);
+    if (r > 0) {
+      throttle(r);
+    }
+    return r;
+  }
+
+  private void throttle(int bytes) throws IOException {
+    for (TokenBucket bucket : buckets) {
+      if (bucket != null) {
+        bucket.acquire(bytes);
+      }
+    }
+  }
+}
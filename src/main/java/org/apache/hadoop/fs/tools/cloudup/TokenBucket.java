@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket for rate limiting, where the tokens are bytes.
+ *
+ * The bucket refills at the given rate up to a capacity of one
+ * second's worth of tokens.
+ * Callers take the tokens they need and if that puts the bucket into
+ * debt, sleep until it would have been refilled. As later callers see
+ * the debt of those before them, the aggregate rate across all threads
+ * sharing a bucket is held to the limit.
+ *
+ * Thread safe.
+ */
+public final class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long bytesPerSecond;
+
+  private final long capacity;
+
+  private double tokens;
+
+  private long lastRefill;
+
+  /** Source of the time in nanoseconds. */
+  private final LongSupplier clock;
+
+  /**
+   * Create a bucket. It starts full.
+   * @param bytesPerSecond rate in bytes per second; must be positive.
+   */
+  public TokenBucket(long bytesPerSecond) {
+    this(bytesPerSecond, System::nanoTime);
+  }
+
+  /**
+   * Create a bucket with its own clock. It starts full.
+   * @param bytesPerSecond rate in bytes per second; must be positive.
+   * @param clock source of the time in nanoseconds
+   */
+  TokenBucket(long bytesPerSecond, LongSupplier clock) {
+    if (bytesPerSecond <= 0) {
+      throw new IllegalArgumentException(
+          "Rate must be positive: " + bytesPerSecond);
+    }
+    this.bytesPerSecond = bytesPerSecond;
+    this.capacity = bytesPerSecond;
+    this.tokens = capacity;
+    this.clock = clock;
+    this.lastRefill = clock.getAsLong();
+  }
+
+  /**
+   * Create a bucket from a rate in MB/s.
+   * @param megabytesPerSecond rate in MB/s.
+   * @return a bucket
+   */
+  public static TokenBucket fromMegabytes(double megabytesPerSecond) {
+    return new TokenBucket((long) (megabytesPerSecond * 1024 * 1024));
+  }
+
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Take some tokens, sleeping if the bucket goes into debt.
+   * @param bytes number of bytes
+   * @throws InterruptedIOException if interrupted while sleeping.
+   */
+  public void acquire(long bytes) throws InterruptedIOException {
+    long delay = reserve(bytes);
+    if (delay > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while throttled").initCause(e);
+      }
+    }
+  }
+
+  /**
+   * Take the tokens and calculate how long the caller must wait
+   * before the bucket is out of debt.
+   * @param bytes number of bytes
+   * @return the delay in nanoseconds; 0 for none.
+   */
+  synchronized long reserve(long bytes) {
+    long now = clock.getAsLong();
+    tokens = Math.min(capacity,
+        tokens + (double) (now - lastRefill) * bytesPerSecond
+            / NANOS_PER_SECOND);
+    lastRefill = now;
+    tokens -= bytes;
+    return tokens >= 0
+        ? 0
+        : (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond);
+  }
+
+  @Override
+  public String toString() {
+    return "TokenBucket{" +
+        "bytesPerSecond=" + bytesPerSecond +
+        '}';
+  }
+}
@@ -43,12 +43,18 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
 
   private State state= State.ready;
 
+  /** Index in the upload plan; -1 if not in a plan. */
+  private final int index;
+
   /** Source. Must be absolute. */
   private final Path source;
 
   /** Size in bytes. */
   private long size;
 
+  /** Modification time of the source: millis. */
+  private long modificationTime;
+
   /**
    * Destination path. Need not be qualified for dest FS, but
    * must be absolute.
@@ -70,13 +76,37 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
    */
   private Exception exception;
 
+  /**
+   * Checksum of the data uploaded, as "algorithm:hex"; null if not
+   * calculated.
+   */
+  private String checksum;
+
+  /**
+   * Number of attempts to upload the file so far.
+   */
+  private int attempts;
+
   public UploadEntry(Path source) {
     this.source = source;
+    this.index = -1;
   }
 
   public UploadEntry(FileStatus status) {
-    source = status.getPath();
-    size = status.getLen();
+    this(-1, status.getPath(), status.getLen(),
+        status.getModificationTime());
+  }
+
+  public UploadEntry(int index, Path source, long size,
+      long modificationTime) {
+    this.index = index;
+    this.source = source;
+    this.size = size;
+    this.modificationTime = modificationTime;
+  }
+
+  public int getIndex() {
+    return index;
   }
 
   /**
@@ -123,6 +153,10 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
     return size;
   }
 
+  public long getModificationTime() {
+    return modificationTime;
+  }
+
   public long getStartTime() {
     return startTime;
   }
@@ -147,6 +181,26 @@ final class UploadEntry implements Serializable, Comparable<UploadEntry> {
     this.exception = exception;
   }
 
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * Note the start of an attempt to upload the file.
+   * @return the number of attempts, including this one.
+   */
+  public int attempt() {
+    return ++attempts;
+  }
+
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public void setChecksum(String checksum) {
+    this.checksum = checksum;
+  }
+
   /**
    * Equality checks (final) source field only.
    * {@inheritDoc}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Append-only journal of the state transitions of uploads, so that an
+ * interrupted run can be resumed.
+ *
+ * Every line is the name of a state, a tab, and the path of the source
+ * file relative to the source directory, in its encoded URI form.
+ * Successful uploads whose data was checksummed have a third column:
+ * the checksum as "algorithm:hex".
+ * The first line is a header naming the source and destination.
+ *
+ * Completions are flushed to the OS as they are recorded, which is a
+ * sequential append; there is no sync until the journal is closed.
+ * A run which is killed loses nothing; a host which crashes may lose the
+ * last few completions, which is harmless as those files are uploaded
+ * again.
+ *
+ * Thread safe.
+ */
+final class UploadJournal implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      UploadJournal.class);
+
+  static final String HEADER = "#cloudup-journal-1";
+
+  private final File file;
+
+  private final URI source;
+
+  private final Path dest;
+
+  private FileOutputStream stream;
+
+  private Writer writer;
+
+  /**
+   * Create a journal; nothing is read or written until
+   * {@link #open()} is called.
+   * @param file local file
+   * @param source source path; all entries are relative to this.
+   * @param dest destination path
+   */
+  UploadJournal(File file, Path source, Path dest) {
+    this.file = file;
+    this.source = source.toUri();
+    this.dest = dest;
+  }
+
+  /**
+   * Open the journal for appending, writing the header if it is new.
+   * @throws IOException failure
+   */
+  synchronized void open() throws IOException {
+    boolean isNew = !file.exists() || file.length() == 0;
+    stream = new FileOutputStream(file, true);
+    writer = new BufferedWriter(new OutputStreamWriter(stream,
+        StandardCharsets.UTF_8));
+    if (isNew) {
+      writer.write(header());
+      writer.write('\n');
+      writer.flush();
+    }
+  }
+
+  private String header() {
+    return HEADER + "\t" + source + "\t" + dest;
+  }
+
+  /**
+   * Replay the journal.
+   * @return the relative paths of all files whose last recorded state
+   * was {@code succeeded}.
+   * @throws IOException failure to read the file
+   * @throws IllegalArgumentException if the journal is of a different
+   * source or destination.
+   */
+  Set<String> replay() throws IOException {
+    Map<String, UploadEntry.State> states = new HashMap<>();
+    if (!file.exists()) {
+      LOG.info("No journal {} to resume from", file);
+      return new HashSet<>();
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      if (line != null && !line.equals(header())) {
+        throw new IllegalArgumentException("Journal " + file
+            + " is not of an upload from " + source + " to " + dest
+            + ": " + line);
+      }
+      int lines = 0;
+      while ((line = reader.readLine()) != null) {
+        lines++;
+        int split = line.indexOf('\t');
+        if (split <= 0) {
+          // an incomplete last line
+          LOG.debug("Ignoring line {}: {}", lines, line);
+          continue;
+        }
+        // the key ends at any checksum column
+        int end = line.indexOf('\t', split + 1);
+        try {
+          states.put(line.substring(split + 1, end < 0 ? line.length() : end),
+              UploadEntry.State.valueOf(line.substring(0, split)));
+        } catch (IllegalArgumentException e) {
+          LOG.debug("Ignoring line {}: {}", lines, line);
+        }
+      }
+      LOG.info("Replayed {} entries of journal {}", lines, file);
+    }
+    Set<String> succeeded = new HashSet<>();
+    for (Map.Entry<String, UploadEntry.State> entry : states.entrySet()) {
+      if (entry.getValue() == UploadEntry.State.succeeded) {
+        succeeded.add(entry.getKey());
+      }
+    }
+    return succeeded;
+  }
+
+  /**
+   * Get the key of an upload in the journal.
+   * @param upload upload
+   * @return the encoded path of the source relative to the source path.
+   */
+  String key(UploadEntry upload) {
+    return source.relativize(upload.getSource().toUri()).getRawPath();
+  }
+
+  /**
+   * Record that an upload was queued. This is not flushed.
+   * @param key key of the upload
+   * @throws IOException failure to write
+   */
+  void queued(String key) throws IOException {
+    record(key, UploadEntry.State.queued, null, false);
+  }
+
+  /**
+   * Record the completion of an upload: its final state and checksum.
+   * @param upload upload
+   * @throws IOException failure to write
+   */
+  void completed(UploadEntry upload) throws IOException {
+    completed(key(upload), upload.getState(), upload.getChecksum());
+  }
+
+  /**
+   * Record the completion of an upload by its key.
+   * @param key key of the upload
+   * @param state final state
+   * @param checksum checksum of the data; may be null
+   * @throws IOException failure to write
+   */
+  void completed(String key, UploadEntry.State state, String checksum)
+      throws IOException {
+    record(key, state, checksum, true);
+  }
+
+  private synchronized void record(String key,
+      UploadEntry.State state, String checksum, boolean flush)
+      throws IOException {
+    if (writer == null) {
+      throw new IOException("Journal not open: " + file);
+    }
+    writer.write(state.name());
+    writer.write('\t');
+    writer.write(key);
+    if (checksum != null) {
+      writer.write('\t');
+      writer.write(checksum);
+    }
+    writer.write('\n');
+    if (flush) {
+      writer.flush();
+    }
+  }
+
+  /**
+   * Flush and sync the journal, then close it.
+   * @throws IOException failure
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      try {
+        writer.flush();
+        stream.getFD().sync();
+      } finally {
+        writer.close();
+        writer = null;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "UploadJournal{" + file + '}';
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Compact store of all the files listed for upload, so that millions
+ * of them can be planned without millions of {@code Path} and
+ * {@code URI} objects.
+ *
+ * Every file is identified by its index. The path of the file relative
+ * to the source directory, in its encoded URI form, is stored as UTF-8
+ * in an arena of byte chunks; sizes, modification times and states
+ * are held in primitive arrays.
+ * {@link UploadEntry} instances with their paths are only created when
+ * a file is actually uploaded.
+ *
+ * Thread safe.
+ */
+final class UploadPlan {
+
+  /** Initial number of entries. */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** Size of a chunk of the path arena: {@value}. */
+  static final int CHUNK_SIZE = 1 << 20;
+
+  private static final UploadEntry.State[] STATES =
+      UploadEntry.State.values();
+
+  private final Path sourceRoot;
+
+  /** Chunks of the path arena; no path spans chunks. */
+  private final List<byte[]> chunks = new ArrayList<>();
+
+  /** Position of the free space in the last chunk. */
+  private int chunkPosition;
+
+  /** Chunk index in the upper 32 bits, offset in the lower. */
+  private long[] locations = new long[INITIAL_CAPACITY];
+
+  private int[] lengths = new int[INITIAL_CAPACITY];
+
+  private long[] sizes = new long[INITIAL_CAPACITY];
+
+  private long[] modificationTimes = new long[INITIAL_CAPACITY];
+
+  private byte[] states = new byte[INITIAL_CAPACITY];
+
+  private int count;
+
+  /**
+   * Constructor.
+   * @param sourceRoot source path; all paths are relative to this.
+   */
+  UploadPlan(Path sourceRoot) {
+    this.sourceRoot = sourceRoot;
+  }
+
+  /**
+   * Add a file in the state {@code ready}.
+   * @param relativePath encoded path relative to the source root;
+   * empty if the file is the source root.
+   * @param size file size
+   * @param modificationTime modification time
+   * @return the index of the file
+   */
+  synchronized int add(String relativePath, long size,
+      long modificationTime) {
+    if (count == sizes.length) {
+      int capacity = count * 2;
+      locations = Arrays.copyOf(locations, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      modificationTimes = Arrays.copyOf(modificationTimes, capacity);
+      states = Arrays.copyOf(states, capacity);
+    }
+    byte[] bytes = relativePath.getBytes(StandardCharsets.UTF_8);
+    byte[] chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+    if (chunk == null || chunkPosition + bytes.length > chunk.length) {
+      chunk = new byte[Math.max(CHUNK_SIZE, bytes.length)];
+      chunks.add(chunk);
+      chunkPosition = 0;
+    }
+    System.arraycopy(bytes, 0, chunk, chunkPosition, bytes.length);
+    int index = count++;
+    locations[index] = ((long) (chunks.size() - 1) << 32) | chunkPosition;
+    lengths[index] = bytes.length;
+    sizes[index] = size;
+    modificationTimes[index] = modificationTime;
+    states[index] = (byte) UploadEntry.State.ready.ordinal();
+    chunkPosition += bytes.length;
+    return index;
+  }
+
+  /**
+   * Get the number of files.
+   * @return the number of files added.
+   */
+  synchronized int size() {
+    return count;
+  }
+
+  synchronized long getSize(int index) {
+    return sizes[check(index)];
+  }
+
+  synchronized long getModificationTime(int index) {
+    return modificationTimes[check(index)];
+  }
+
+  synchronized UploadEntry.State getState(int index) {
+    return STATES[states[check(index)]];
+  }
+
+  synchronized void setState(int index, UploadEntry.State state) {
+    states[check(index)] = (byte) state.ordinal();
+  }
+
+  synchronized boolean inState(int index, UploadEntry.State state) {
+    return states[check(index)] == state.ordinal();
+  }
+
+  /**
+   * Get the relative path of a file.
+   * @param index index
+   * @return the encoded path relative to the source root.
+   */
+  synchronized String getRelativePath(int index) {
+    long location = locations[check(index)];
+    return new String(chunks.get((int) (location >>> 32)),
+        (int) location, lengths[index], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Build the path of a source file.
+   * @param index index
+   * @return the absolute path of the file.
+   */
+  Path getSource(int index) {
+    return child(sourceRoot, decode(getRelativePath(index)));
+  }
+
+  /**
+   * Create an upload entry for a file, in its current state.
+   * @param index index
+   * @param dest destination of the upload
+   * @return a new entry
+   */
+  UploadEntry createEntry(int index, Path dest) {
+    UploadEntry entry = new UploadEntry(index, getSource(index),
+        getSize(index), getModificationTime(index));
+    entry.setDest(dest);
+    entry.setState(getState(index));
+    return entry;
+  }
+
+  /**
+   * Estimate the memory used by the plan.
+   * @return the bytes allocated to the arrays and the arena.
+   */
+  synchronized long getMemoryUsage() {
+    long capacity = sizes.length;
+    return (long) chunks.size() * CHUNK_SIZE
+        + capacity * (Long.BYTES * 3 + Integer.BYTES + 1);
+  }
+
+  private int check(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("Index " + index
+          + " not in plan of size " + count);
+    }
+    return index;
+  }
+
+  /**
+   * Decode an encoded relative path.
+   * @param relativePath encoded path
+   * @return the decoded path.
+   */
+  static String decode(String relativePath) {
+    // a leading "/" stops a colon in the first element being read
+    // as the end of a scheme
+    return URI.create("/" + relativePath).getPath().substring(1);
+  }
+
+  /**
+   * Build the path of a child of a directory.
+   * @param parent parent directory
+   * @param relativePath decoded path relative to the parent;
+   * if empty, the parent itself is returned.
+   * @return the path.
+   */
+  static Path child(Path parent, String relativePath) {
+    return relativePath.isEmpty()
+        ? parent
+        : new Path(parent, new Path(null, null, relativePath));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "UploadPlan{" + sourceRoot
+        + "; files=" + count
+        + "; memory=" + getMemoryUsage()
+        + '}';
+  }
+}
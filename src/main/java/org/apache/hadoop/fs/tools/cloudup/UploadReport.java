@@ -0,0 +1,439 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+
+/**
+ * Report of the duration of every upload, with latency percentiles
+ * by size bucket and the slowest uploads.
+ *
+ * Uploads are recorded by their index in the plan, in primitive arrays,
+ * so the report of millions of uploads costs tens of bytes per upload.
+ * Only successful uploads are included in the percentiles; all are
+ * written to the CSV report.
+ *
+ * Thread safe.
+ */
+final class UploadReport {
+
+  /** Name of the CSV report of every upload: {@value}. */
+  static final String CSV = "uploads.csv";
+
+  /** Name of the JSON summary: {@value}. */
+  static final String JSON = "summary.json";
+
+  private static final long MB = 1024 * 1024;
+
+  /** Exclusive upper bounds of the size buckets; the last is unbounded. */
+  static final long[] BUCKETS = {MB, 16 * MB, 128 * MB, 1024 * MB};
+
+  private static final String[] BUCKET_NAMES =
+      {"<1M", "1M-16M", "16M-128M", "128M-1G", ">=1G"};
+
+  private final UploadPlan plan;
+
+  private int count;
+
+  private int[] indices = new int[1024];
+
+  private long[] durations = new long[1024];
+
+  private boolean[] succeeded = new boolean[1024];
+
+  private int[] attempts = new int[1024];
+
+  /** Only allocated once a checksum is recorded. */
+  private String[] checksums;
+
+  /**
+   * Constructor.
+   * @param plan plan of the uploads
+   */
+  UploadReport(UploadPlan plan) {
+    this.plan = plan;
+  }
+
+  /**
+   * Record a completed upload.
+   * @param upload upload, which must be from the plan.
+   */
+  void record(UploadEntry upload) {
+    record(upload.getIndex(), upload.getDuration(),
+        upload.inState(UploadEntry.State.succeeded), upload.getAttempts(),
+        upload.getChecksum());
+  }
+
+  /**
+   * Record a completed upload.
+   * @param index index in the plan
+   * @param duration duration in millis
+   * @param success did it succeed?
+   * @param attemptCount number of attempts
+   * @param checksum checksum; may be null
+   */
+  synchronized void record(int index, long duration, boolean success,
+      int attemptCount, String checksum) {
+    if (count == indices.length) {
+      int capacity = count * 2;
+      indices = Arrays.copyOf(indices, capacity);
+      durations = Arrays.copyOf(durations, capacity);
+      succeeded = Arrays.copyOf(succeeded, capacity);
+      attempts = Arrays.copyOf(attempts, capacity);
+      if (checksums != null) {
+        checksums = Arrays.copyOf(checksums, capacity);
+      }
+    }
+    if (checksum != null && checksums == null) {
+      checksums = new String[indices.length];
+    }
+    indices[count] = index;
+    durations[count] = duration;
+    succeeded[count] = success;
+    attempts[count] = attemptCount;
+    if (checksums != null) {
+      checksums[count] = checksum;
+    }
+    count++;
+  }
+
+  synchronized int size() {
+    return count;
+  }
+
+  /**
+   * Get the bucket of a size.
+   * @param size file size
+   * @return the index of its bucket
+   */
+  static int bucket(long size) {
+    int b = 0;
+    while (b < BUCKETS.length && size >= BUCKETS[b]) {
+      b++;
+    }
+    return b;
+  }
+
+  /**
+   * Get the value at a percentile of sorted values, by nearest rank.
+   * @param sorted sorted values; not empty
+   * @param percentile percentile
+   * @return the value
+   */
+  static long percentile(long[] sorted, double percentile) {
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+
+  /**
+   * Calculate the statistics of the successful uploads in each
+   * size bucket.
+   * @return the statistics of all non-empty buckets, smallest first.
+   */
+  synchronized List<Bucket> buckets() {
+    int[] counts = new int[BUCKET_NAMES.length];
+    for (int i = 0; i < count; i++) {
+      if (succeeded[i]) {
+        counts[bucket(plan.getSize(indices[i]))]++;
+      }
+    }
+    long[][] values = new long[BUCKET_NAMES.length][];
+    long[] bytes = new long[BUCKET_NAMES.length];
+    for (int b = 0; b < values.length; b++) {
+      values[b] = new long[counts[b]];
+      counts[b] = 0;
+    }
+    for (int i = 0; i < count; i++) {
+      if (succeeded[i]) {
+        long size = plan.getSize(indices[i]);
+        int b = bucket(size);
+        values[b][counts[b]++] = durations[i];
+        bytes[b] += size;
+      }
+    }
+    List<Bucket> buckets = new ArrayList<>();
+    for (int b = 0; b < values.length; b++) {
+      if (values[b].length > 0) {
+        buckets.add(new Bucket(BUCKET_NAMES[b], values[b], bytes[b]));
+      }
+    }
+    return buckets;
+  }
+
+  /**
+   * Find the slowest uploads.
+   * @param n maximum number to return
+   * @return the positions in the report of the slowest uploads,
+   * slowest first.
+   */
+  synchronized int[] slowest(int n) {
+    final int size = Math.min(n, count);
+    // min-heap of the slowest n uploads
+    final PriorityQueue<Integer> slowest = new PriorityQueue<>(
+        Math.max(1, size),
+        Comparator.comparingLong((Integer i) -> durations[i]));
+    for (int i = 0; i < count && size > 0; i++) {
+      if (slowest.size() < size) {
+        slowest.add(i);
+      } else if (durations[i] > durations[slowest.peek()]) {
+        slowest.poll();
+        slowest.add(i);
+      }
+    }
+    final int[] result = new int[slowest.size()];
+    for (int i = result.length - 1; i >= 0; i--) {
+      result[i] = slowest.poll();
+    }
+    return result;
+  }
+
+  /**
+   * Log the percentiles and the slowest uploads.
+   * @param log log to write to
+   * @param n number of slowest uploads to list
+   */
+  void log(Logger log, int n) {
+    for (Bucket bucket : buckets()) {
+      log.info("{}", bucket);
+    }
+    int[] slowest = slowest(n);
+    if (slowest.length > 0) {
+      log.info("Slowest {} uploads:", slowest.length);
+    }
+    synchronized (this) {
+      for (int i : slowest) {
+        log.info("  {} ms: {} (size {})", durations[i],
+            plan.getRelativePath(indices[i]), plan.getSize(indices[i]));
+      }
+    }
+  }
+
+  /**
+   * Write the CSV report and JSON summary into a local directory,
+   * creating it if needed.
+   * @param dir directory
+   * @param n number of slowest uploads to list in the summary
+   * @throws IOException failure to write
+   */
+  void write(File dir, int n) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create directory " + dir);
+    }
+    try (Writer writer = open(new File(dir, CSV))) {
+      writeCsv(writer);
+    }
+    try (Writer writer = open(new File(dir, JSON))) {
+      writeJson(writer, n);
+    }
+  }
+
+  private static Writer open(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Write every upload as a CSV line: the relative path, size,
+   * duration in millis of the last attempt, throughput in MB/s, state,
+   * number of attempts and checksum.
+   * The path may contain commas and quotes, so it is always quoted,
+   * as in RFC 4180.
+   * @param writer destination
+   * @throws IOException failure to write
+   */
+  synchronized void writeCsv(Writer writer) throws IOException {
+    writer.write(
+        "path,size,duration_ms,mb_per_s,state,attempts,checksum\n");
+    for (int i = 0; i < count; i++) {
+      long size = plan.getSize(indices[i]);
+      writer.write(quote(plan.getRelativePath(indices[i])));
+      writer.write(',');
+      writer.write(Long.toString(size));
+      writer.write(',');
+      writer.write(Long.toString(durations[i]));
+      writer.write(',');
+      writer.write(format(throughput(size, durations[i])));
+      writer.write(',');
+      writer.write(succeeded[i] ? "succeeded" : "failed");
+      writer.write(',');
+      writer.write(Integer.toString(attempts[i]));
+      writer.write(',');
+      if (checksums != null && checksums[i] != null) {
+        writer.write(checksums[i]);
+      }
+      writer.write('\n');
+    }
+  }
+
+  /**
+   * Write the bucket statistics and the slowest uploads as JSON.
+   * @param writer destination
+   * @param n number of slowest uploads to list
+   * @throws IOException failure to write
+   */
+  void writeJson(Writer writer, int n) throws IOException {
+    List<Bucket> buckets = buckets();
+    int[] slowest = slowest(n);
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\n  \"uploads\": ").append(size()).append(",\n");
+    sb.append("  \"buckets\": [");
+    for (int b = 0; b < buckets.size(); b++) {
+      Bucket bucket = buckets.get(b);
+      sb.append(b > 0 ? "," : "").append("\n    {")
+          .append("\"size\": \"").append(bucket.name).append("\", ")
+          .append("\"count\": ").append(bucket.count).append(", ")
+          .append("\"bytes\": ").append(bucket.bytes).append(", ")
+          .append("\"p50_ms\": ").append(bucket.p50).append(", ")
+          .append("\"p90_ms\": ").append(bucket.p90).append(", ")
+          .append("\"p99_ms\": ").append(bucket.p99).append(", ")
+          .append("\"max_ms\": ").append(bucket.max).append(", ")
+          .append("\"mb_per_s\": ").append(format(bucket.throughput()))
+          .append("}");
+    }
+    sb.append("\n  ],\n  \"slowest\": [");
+    synchronized (this) {
+      for (int s = 0; s < slowest.length; s++) {
+        int i = slowest[s];
+        sb.append(s > 0 ? "," : "").append("\n    {")
+            .append("\"path\": \"")
+            .append(escape(plan.getRelativePath(indices[i]))).append("\", ")
+            .append("\"size\": ").append(plan.getSize(indices[i]))
+            .append(", ")
+            .append("\"duration_ms\": ").append(durations[i]).append("}");
+      }
+    }
+    sb.append("\n  ]\n}\n");
+    writer.write(sb.toString());
+  }
+
+  /**
+   * Escape a string for JSON. Paths are in their encoded URI form,
+   * so only quotes and backslashes need escaping.
+   */
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  /**
+   * Quote a CSV field: wrap it in quotes, doubling any quotes in it.
+   */
+  private static String quote(String s) {
+    return '"' + s.replace("\"", "\"\"") + '"';
+  }
+
+  private static double throughput(long bytes, long millis) {
+    return millis > 0 ? (bytes * 1000.0 / MB) / millis : 0;
+  }
+
+  private static String format(double d) {
+    return String.format(Locale.ENGLISH, "%.3f", d);
+  }
+
+  /**
+   * Statistics of the successful uploads in a size bucket.
+   */
+  static final class Bucket {
+
+    private final String name;
+
+    private final int count;
+
+    private final long bytes;
+
+    private final long totalDuration;
+
+    private final long p50;
+
+    private final long p90;
+
+    private final long p99;
+
+    private final long max;
+
+    private Bucket(String name, long[] durations, long bytes) {
+      Arrays.sort(durations);
+      this.name = name;
+      this.count = durations.length;
+      this.bytes = bytes;
+      long total = 0;
+      for (long d : durations) {
+        total += d;
+      }
+      this.totalDuration = total;
+      this.p50 = percentile(durations, 50);
+      this.p90 = percentile(durations, 90);
+      this.p99 = percentile(durations, 99);
+      this.max = durations[durations.length - 1];
+    }
+
+    String getName() {
+      return name;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    long getP50() {
+      return p50;
+    }
+
+    long getP90() {
+      return p90;
+    }
+
+    long getP99() {
+      return p99;
+    }
+
+    long getMax() {
+      return max;
+    }
+
+    /**
+     * Mean throughput of a single upload in the bucket.
+     * @return bytes over the total duration of the uploads, in MB/s.
+     */
+    double throughput() {
+      return UploadReport.throughput(bytes, totalDuration);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH,
+          "Size %s: %d uploads; latency p50=%d ms p90=%d ms p99=%d ms"
+              + " max=%d ms; %.3f MB/s per upload",
+          name, count, p50, p90, p99, max, throughput());
+    }
+  }
+}
@@ -26,6 +26,19 @@ package org.apache.hadoop.fs.tools.cloudup;
  *
  * <pre>
  *   cloudup -s source -d dest [-o] [-i] [-l <largest>] [-t threads]
+ *       [-lt <large-threads>] [-ls <large-size>]
+ *       [-ms <multipart-size>] [-ps <part-size>]
+ *       [-bandwidth <MB/s>] [-filebandwidth <MB/s>] [-a]
+ *       [-j <journal> [-r]] [-u]
+ *       [-pack <size> [-packsize <container-size>]]
+ *       [-checksum <crc32c|md5> [-verify]] [-report <dir>]
+ *       [-shard <depth>|hash:<groups> [-shardlimit <n>]]
+ *       [-attempts <n> [-backoff <millis>]] [-window <n>] [-virtual]
+ *       [-plan] [-move]
+ *       [-include <pattern>]* [-exclude <pattern>]*
+ *       [-minsize <size>] [-maxsize <size>]
+ *       [-after <time>] [-before <time>]
+ *       [-compress <codec>]
  * </pre>
  * Algorithm.
  *
@@ -35,36 +48,128 @@ package org.apache.hadoop.fs.tools.cloudup;
  * If the filesystem implements a high-performance version of this,
  * as S3A does, then it is used to directly perform the upload.
  * Otherwise the source is opened as an input stream and written
- * to a filesystem-created output stream.
+ * to a filesystem-created output stream, or, if the destination is
+ * local, to a file channel; see {@link CopyEngine}.
  * <ol>
  *   <li>
- *     A thread pool of T workers is created.
+ *     A thread pool of T workers is created for small files, and a
+ *     narrow pool of LT workers for files of size LS and above.
+ *     With -virtual on Java 21+, every task runs in its own virtual
+ *     thread instead, with T and LT limiting the tasks running;
+ *     see {@link BoundedExecutor}.
  *   </li>
  *   <li>
  *      One worker performs {@code FileSystem.listFiles()} to recursively
- *      list all source files
+ *      list all source files, putting them on a bounded queue.
+ *      Files are filtered by path, size and modification time as they
+ *      are listed; if excludes match whole directories, the source is
+ *      walked a directory at a time, skipping them; see
+ *      {@link ListingFilter}.
  *   </li>
  *   <li>
  *     Another prepares the destination.
  *   </li>
  *   <li>
- *     Once these tasks are completed, the upload begins.
+ *     With -u, a third lists all files under the destination, again
+ *     with a single recursive {@code listFiles()}. The two listings are
+ *     joined on the path relative to the source and destination, and
+ *     files which have the same size and are no older at the
+ *     destination are not uploaded. If the destination is older,
+ *     the file checksums are compared, if both filesystems have them.
  *   </li>
  *   <li>
- *     The largest L files are selected for upload first, to avoid them
- *     creating a long-tail of uploads.
+ *     Once the destination is prepared (and listed), files are submitted
+ *     for upload as they are taken off the queue, while the listing
+ *     continues. Each submission adds the file to the pending uploads
+ *     of its pool; the worker which executes it uploads whichever
+ *     pending file is to go next.
+ *   </li>
+ *   <li>
+ *     Unless the destination is S3A, the parent directory of each file
+ *     submitted is created once, after its own parent, in a pool of its
+ *     own; uploads wait for their parent and then create their file
+ *     without checking or creating parents; see {@link DirectoryCreator}.
+ *   </li>
+ *   <li>
+ *     At most W uploads are submitted and not yet completed; while the
+ *     window is full, outcomes are taken before more are submitted, and
+ *     the listing blocks on its queue. Outcomes are folded into running
+ *     totals as they are taken, retaining only failures.
+ *   </li>
+ *   <li>
+ *     Large files are uploaded in the large file pool, largest first.
+ *   </li>
+ *   <li>
+ *     The first L small files uploaded are the largest pending,
+ *     to avoid them creating a long-tail of uploads.
  *   </li>
  *   <li>
  *     Each upload is performed in its own worker thread.
  *   </li>
  *   <li>
- *     The remaining files are selected at random from the list,
- *     to reduce throttling on uploads to individual shards in the
- *     remote store.
+ *     If the destination supports multipart uploads (S3A), files of
+ *     size MS and above are split into parts which are uploaded in
+ *     parallel in a separate pool of T part workers, then committed.
+ *     If any part fails, the upload is aborted.
+ *   </li>
+ *   <li>
+ *     If the source is remote and the destination local, files of
+ *     size MS and above are downloaded as ranges which are read in
+ *     parallel in the same pool and written at their offsets in the
+ *     local file; see {@link RangedDownload}.
+ *   </li>
+ *   <li>
+ *     The remaining files are selected round-robin from groups of the
+ *     pending uploads sharing a destination prefix, and at random within
+ *     a group, to reduce throttling on uploads to individual shards in
+ *     the remote store. With -shardlimit, the uploads in flight in each
+ *     group are limited; see {@link PendingUploads}.
+ *   </li>
+ *   <li>
+ *     With -pack, files below the given size are not uploaded individually;
+ *     they are packed into SequenceFile containers with indices by a
+ *     separate pool of packers; see {@link Packer}.
+ *   </li>
+ *   <li>
+ *     With -compress, every file is compressed by a Hadoop codec in a
+ *     pool of a thread per CPU, and the output piped to the worker
+ *     uploading it; see {@link CompressionStage}.
+ *   </li>
+ *   <li>
+ *     With -checksum, the data is checksummed as it is copied, and the
+ *     checksum journaled; with -verify it is compared with that of the
+ *     destination where they are comparable; see {@link InlineChecksum}.
+ *   </li>
+ *   <li>
+ *     With -attempts, uploads which fail with a transient error are
+ *     resubmitted to their pool after a jittered exponential backoff;
+ *     no worker is held while an upload waits for its retry.
+ *   </li>
+ *   <li>
+ *     With -plan, the files listed are not uploaded; instead sample
+ *     uploads are timed and the run simulated to predict its duration
+ *     and the best thread count; see {@link MakespanPlanner}.
+ *   </li>
+ *   <li>
+ *     With -move, the source of every successful upload, or of every
+ *     file in a committed container, is deleted; in pages of bulk
+ *     deletes where the source store supports them, otherwise one
+ *     file at a time in parallel; see {@link SourceDeleter}.
  *   </li>
  *   <li>
  *     The program waits for the uplaods to complete.
  *   </li>
+ *   <li>
+ *     The latency percentiles of the uploads by size bucket and the
+ *     slowest uploads are logged; with -report, the duration of every
+ *     upload is written as CSV and a summary as JSON;
+ *     see {@link UploadReport}.
+ *   </li>
+ *   <li>
+ *     If a journal is named, the state changes of all uploads are appended
+ *     to it. With -r, the journal is replayed before the uploads, and
+ *     files which were successfully uploaded are not uploaded again.
+ *   </li>
  * </ol>
  *
  * Performance:
@@ -95,30 +200,30 @@ package org.apache.hadoop.fs.tools.cloudup;
  * Randomly selecting uploads to queue after that first L uploads is
  * intended to reduce the risk of shard-level throttling.
  *
- * Weaknesses
+ * Large uploads compete for bandwidth; initiating all large
+ * uploads in parallel may be counter-productive. Hence the separate
+ * large file pool: it uploads very few at a time, largest first,
+ * while the small file pool is wide, because small uploads are
+ * more expensive to initiate than to transfer.
  *
- * large uploads will compete for bandwidth; initiating all large
- * uploads in parallel may be counter-productive.
+ * Weaknesses
  *
  * By selecting remaining files to upload at random, there is still
  * the risk of the L+1'th largest file being queued last.
  *
  * All uploads are competing for local disk IO.
  *
- * There is no explicit bandwidth throttling.
  * Heavy bandwidth use may interfere with the network performance
  * of other applications sharing the same uplink to the object store.
+ * The -bandwidth option sets a limit on the total bandwidth,
+ * enforced by a token bucket shared by all the uploads; -filebandwidth
+ * limits each upload. When set, local sources are read as streams,
+ * so lose the store's optimised {@code copyFromLocalFile()}.
  *
  * There is no explicit throtting of HTTP requests to the remote store.
- *
- *
- * It may be more efficient to have two worker pools: big files and small files.
- * The small file worker pool would be large and would take files of
- * up to a few 10s of KiBs. on the assumption that
- * because small uplaods are more expensive to initiate,
- *
- * The large file queue would take the larger files, and upload very
- * few at a time 1? 2?, sorting the order to do large uploads first.
+ * With the -a option, an AIMD controller in each pool limits the uploads
+ * in flight, backing off when the store reports throttling or saturation;
+ * see {@link org.apache.hadoop.fs.tools.cloudup.AdaptiveConcurrency}.
  */
 
 import org.apache.hadoop.classification.InterfaceAudience;
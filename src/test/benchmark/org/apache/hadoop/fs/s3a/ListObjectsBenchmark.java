@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.s3a;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * The per-object work of {@code listobjects} over a listing of
+ * millions of object summaries, one in a hundred a directory marker.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ListObjectsBenchmark {
+
+  @Param({"1000000"})
+  private int objects;
+
+  private S3ObjectSummary[] summaries;
+
+  private ListObjects listObjects;
+
+  @Setup(Level.Trial)
+  public void createSummaries() {
+    summaries = new S3ObjectSummary[objects];
+    for (int i = 0; i < objects; i++) {
+      S3ObjectSummary summary = new S3ObjectSummary();
+      summary.setBucketName("bucket");
+      if (i % 100 == 0) {
+        summary.setKey(String.format("data/year=%d/month=%02d/",
+            2000 + i % 20, i % 12 + 1));
+        summary.setSize(0);
+      } else {
+        summary.setKey(String.format(
+            "data/year=%d/month=%02d/part-%05d-0f3c1e2a.snappy.parquet",
+            2000 + i % 20, i % 12 + 1, i));
+        summary.setSize(i * 1024L);
+      }
+      summary.setETag(Integer.toHexString(summary.getKey().hashCode()));
+      summaries[i] = summary;
+    }
+    listObjects = new ListObjects();
+    listObjects.setOut(new PrintStream(new IOUtils.NullOutputStream()));
+  }
+
+  @Benchmark
+  public void stringify(Blackhole blackhole) {
+    for (S3ObjectSummary summary : summaries) {
+      blackhole.consume(ListObjects.stringify(summary));
+    }
+  }
+
+  @Benchmark
+  public int objectRepresentsDirectory() {
+    int directories = 0;
+    for (S3ObjectSummary summary : summaries) {
+      if (listObjects.objectRepresentsDirectory(summary)) {
+        directories++;
+      }
+    }
+    return directories;
+  }
+}
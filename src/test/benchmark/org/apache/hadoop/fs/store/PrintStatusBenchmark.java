@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.store;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.IOUtils;
+
+import static org.apache.hadoop.fs.store.CommonParameters.VERBOSE;
+
+/**
+ * The formatting of file statuses by {@code StoreEntryPoint.printStatus()},
+ * as in every line of a listing, printed to a stream which discards
+ * its output.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrintStatusBenchmark {
+
+  /** Statuses printed per invocation. */
+  private static final int STATUSES = 1000;
+
+  @Param({"false", "true"})
+  private boolean verbose;
+
+  private FileStatus[] statuses;
+
+  private StoreEntryPoint entryPoint;
+
+  @Setup(Level.Trial)
+  public void createStatuses() {
+    statuses = new FileStatus[STATUSES];
+    for (int i = 0; i < STATUSES; i++) {
+      statuses[i] = new FileStatus(i * 4096L, false, 1, 32 * 1024 * 1024,
+          1_500_000_000_000L + i, 0, FsPermission.getFileDefault(),
+          "user", "group",
+          new Path("s3a://bucket/data/dir-" + (i % 10) + "/file-" + i));
+    }
+    entryPoint = new StoreEntryPoint();
+    entryPoint.createCommandFormat(0, 0, VERBOSE);
+    entryPoint.parseArgs(verbose ? new String[]{"-" + VERBOSE} : new String[0]);
+    entryPoint.setOut(new PrintStream(new IOUtils.NullOutputStream()));
+  }
+
+  @Benchmark
+  public void printStatus() {
+    for (int i = 0; i < STATUSES; i++) {
+      entryPoint.printStatus(i, statuses[i]);
+    }
+  }
+}
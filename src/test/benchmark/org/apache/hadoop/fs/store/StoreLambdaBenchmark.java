@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.store;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+/**
+ * Iteration of listings through {@link StoreLambda}, against the same
+ * iteration without it, over an in-memory listing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class StoreLambdaBenchmark {
+
+  @Param({"1000", "100000"})
+  private int files;
+
+  private LocatedFileStatus[] statuses;
+
+  @Setup(Level.Trial)
+  public void createListing() {
+    statuses = new LocatedFileStatus[files];
+    for (int i = 0; i < files; i++) {
+      statuses[i] = new LocatedFileStatus(
+          new FileStatus(i, false, 1, 1024, 0,
+              new Path("hdfs://namenode/data/file-" + i)),
+          new BlockLocation[0]);
+    }
+  }
+
+  private RemoteIterator<LocatedFileStatus> listing() {
+    return new RemoteIterator<LocatedFileStatus>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < statuses.length;
+      }
+
+      @Override
+      public LocatedFileStatus next() {
+        if (next >= statuses.length) {
+          throw new NoSuchElementException();
+        }
+        return statuses[next++];
+      }
+    };
+  }
+
+  @Benchmark
+  public long iterate() throws IOException {
+    long size = 0;
+    RemoteIterator<LocatedFileStatus> iterator = listing();
+    while (iterator.hasNext()) {
+      size += iterator.next().getLen();
+    }
+    return size;
+  }
+
+  @Benchmark
+  public long applyLocatedFiles() throws IOException {
+    long[] size = new long[1];
+    StoreLambda.applyLocatedFiles(listing(), s -> size[0] += s.getLen());
+    return size[0];
+  }
+
+  @Benchmark
+  public List<Path> mapLocatedFiles() throws IOException {
+    return StoreLambda.mapLocatedFiles(listing(), FileStatus::getPath);
+  }
+}
@@ -0,0 +1,462 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.store.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.GlobalStorageStatistics;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StorageStatistics;
+import org.apache.hadoop.fs.s3a.ListObjects;
+import org.apache.hadoop.fs.store.DurationInfo;
+import org.apache.hadoop.fs.store.StoreEntryPoint;
+import org.apache.hadoop.fs.store.StoreExitException;
+import org.apache.hadoop.fs.store.commands.ListFiles;
+import org.apache.hadoop.fs.store.commands.LocateFiles;
+import org.apache.hadoop.fs.tools.cloudup.Cloudup;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.ExitUtil;
+import org.apache.hadoop.util.ToolRunner;
+
+import static org.apache.hadoop.fs.store.CommonParameters.VERBOSE;
+import static org.apache.hadoop.fs.store.StoreExitCodes.E_ERROR;
+import static org.apache.hadoop.fs.store.StoreExitCodes.E_USAGE;
+
+/**
+ * End-to-end benchmark of the commands: create a synthetic tree,
+ * then run {@code cloudup}, {@code list}, {@code locatefiles} and,
+ * on S3A, {@code listobjects} against it repeatedly, in this JVM.
+ * For every run, the wall time, the change in the read and write
+ * operations of the global storage statistics and the peak heap
+ * are saved to a tab-separated results file.
+ * <p>
+ * The tree is on the given filesystem, which may be the simulated
+ * store, or on a MiniDFSCluster started for the benchmark.
+ * The filesystem is created with the configuration of this command,
+ * so options set with {@code -D} apply to it in every command.
+ */
+public class CommandBenchmark extends StoreEntryPoint {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(CommandBenchmark.class);
+
+  public static final String DEPTH = "depth";
+
+  public static final String WIDTH = "width";
+
+  public static final String FILES = "files";
+
+  public static final String SIZE = "size";
+
+  public static final String RUNS = "runs";
+
+  public static final String COMMANDS = "commands";
+
+  public static final String THREADS = "threads";
+
+  public static final String RESULTS = "results";
+
+  public static final String MINICLUSTER = "minicluster";
+
+  public static final String USAGE
+      = "Usage: commandbenchmark [<path>]\n"
+      + optusage(DEPTH, "depth", "depth of the tree")
+      + optusage(WIDTH, "width", "subdirectories of every directory")
+      + optusage(FILES, "files", "files in every directory")
+      + optusage(SIZE, "distribution", "distribution of the file sizes")
+      + optusage(RUNS, "runs", "runs of every command")
+      + optusage(COMMANDS, "commands", "comma separated commands to run")
+      + optusage(THREADS, "threads", "threads of cloudup and locatefiles")
+      + optusage(RESULTS, "file", "results file")
+      + optusage(MINICLUSTER, "create the tree on a MiniDFSCluster")
+      + optusage(VERBOSE, "print the output of the commands");
+
+  private static final int DEFAULT_DEPTH = 2;
+
+  private static final int DEFAULT_WIDTH = 4;
+
+  private static final int DEFAULT_FILES = 8;
+
+  private static final String DEFAULT_SIZE = "lognormal:16384,2";
+
+  private static final int DEFAULT_RUNS = 3;
+
+  /** All the commands, in the order they are run by default. */
+  private static final List<String> ALL_COMMANDS = Arrays.asList(
+      "cloudup", "list", "locatefiles", "listobjects");
+
+  private static final int DEFAULT_THREADS = 16;
+
+  private static final String DEFAULT_RESULTS =
+      "target/command-benchmark.tsv";
+
+  private static final String WORK_DIR = "target/command-benchmark";
+
+  private static final long SEED = 0;
+
+  /** Suffixes of the statistics counted as requests. */
+  private static final String[] REQUESTS = {
+      ".readOps", ".largeReadOps", ".writeOps"};
+
+  public CommandBenchmark() {
+    createCommandFormat(0, 1, MINICLUSTER, VERBOSE);
+    addValueOptions(DEPTH, WIDTH, FILES, SIZE, RUNS, COMMANDS, THREADS,
+        RESULTS);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    List<String> paths = parseArgs(args);
+    if (paths.size() > 1) {
+      errorln(USAGE);
+      return E_USAGE;
+    }
+    final Configuration conf = getConf();
+    int depth = getOptional(DEPTH).map(Integer::valueOf)
+        .orElse(DEFAULT_DEPTH);
+    int width = getOptional(WIDTH).map(Integer::valueOf)
+        .orElse(DEFAULT_WIDTH);
+    int files = getOptional(FILES).map(Integer::valueOf)
+        .orElse(DEFAULT_FILES);
+    LatencyDistribution sizes = LatencyDistribution.parse(
+        getOptional(SIZE).orElse(DEFAULT_SIZE));
+    int runs = getOptional(RUNS).map(Integer::valueOf).orElse(DEFAULT_RUNS);
+    List<String> commands = new ArrayList<>(Arrays.asList(
+        getOptional(COMMANDS).orElse(String.join(",", ALL_COMMANDS))
+            .split(",")));
+    int threads = getOptional(THREADS).map(Integer::valueOf)
+        .orElse(DEFAULT_THREADS);
+    File resultsFile = new File(getOptional(RESULTS).orElse(DEFAULT_RESULTS))
+        .getAbsoluteFile();
+    for (String command : commands) {
+      if (!ALL_COMMANDS.contains(command)) {
+        throw new StoreExitException(E_USAGE,
+            "Unknown command " + command + "\n" + USAGE);
+      }
+    }
+
+    MiniDFSCluster cluster = null;
+    try {
+      Path root;
+      if (hasOption(MINICLUSTER)) {
+        heading("Starting a MiniDFSCluster");
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR,
+            new File(WORK_DIR, "dfs").getAbsolutePath());
+        cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+        cluster.waitActive();
+        root = cluster.getFileSystem().makeQualified(
+            new Path(paths.isEmpty() ? "/benchmark" : paths.get(0)));
+      } else {
+        root = paths.isEmpty()
+            ? new Path("file", null,
+                new File(WORK_DIR, "tree").getAbsolutePath())
+            : new Path(paths.get(0));
+      }
+      FileSystem fs = root.getFileSystem(conf);
+      root = fs.makeQualified(root);
+      // a sibling of the tree whose path does not start with its path
+      Path dest = new Path(root.getParent(), "upload-" + root.getName());
+
+      if (commands.remove("listobjects")) {
+        if ("s3a".equals(root.toUri().getScheme())) {
+          commands.add("listobjects");
+        } else {
+          println("Skipping listobjects: %s is not an S3A store", root);
+        }
+      }
+      heading("Creating the tree under %s", root);
+      fs.delete(root, true);
+      SyntheticTree tree = new SyntheticTree(depth, width, files, sizes,
+          SEED);
+      try (DurationInfo ignored = new DurationInfo(LOG, "Tree creation")) {
+        tree.create(fs, root);
+      }
+      println("%s", tree);
+
+      List<Result> results = new ArrayList<>();
+      try (PrintWriter out = new PrintWriter(new FileWriter(resultsFile))) {
+        out.println(Result.HEADER);
+        for (int run = 1; run <= runs; run++) {
+          for (String command : commands) {
+            if ("cloudup".equals(command)) {
+              fs.delete(dest, true);
+            }
+            Result result = measure(command, run, root, dest, threads);
+            println("%s", result);
+            out.println(result.toRow());
+            results.add(result);
+          }
+        }
+      }
+      fs.delete(dest, true);
+      fs.delete(root, true);
+
+      heading("Results of %d runs of a tree of %,d files, %,d bytes",
+          runs, tree.getFileCount(), tree.getBytes());
+      println("%-12s %10s %10s %10s %10s %14s",
+          "command", "min ms", "mean ms", "max ms", "requests", "peak heap");
+      for (String command : commands) {
+        summarize(command, results);
+      }
+      println("");
+      println("Results saved to %s", resultsFile);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Run a command once.
+   * @return the result
+   * @throws Exception failure of the command
+   */
+  private Result measure(String command, int run, Path root, Path dest,
+      int threads) throws Exception {
+    StoreEntryPoint tool;
+    String[] args;
+    switch (command) {
+    case "cloudup":
+      tool = new Cloudup();
+      args = new String[]{"-s", root.toString(), "-d", dest.toString(),
+          "-t", Integer.toString(threads)};
+      break;
+    case "list":
+      tool = new ListFiles();
+      args = new String[]{root.toString()};
+      break;
+    case "locatefiles":
+      tool = new LocateFiles();
+      args = new String[]{"-" + LocateFiles.THREADS,
+          Integer.toString(threads), root.toString()};
+      break;
+    default:
+      tool = new ListObjects();
+      args = new String[]{root.toString()};
+      break;
+    }
+    if (!hasOption(VERBOSE)) {
+      tool.setOut(new PrintStream(new IOUtils.NullOutputStream()));
+    }
+    System.gc();
+    resetPeakHeap();
+    Map<String, Long> before = snapshot();
+    long start = System.nanoTime();
+    int exitCode = ToolRunner.run(new Configuration(getConf()), tool, args);
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    long peak = peakHeap();
+    return new Result(command, run, exitCode, millis, peak,
+        difference(before, snapshot()));
+  }
+
+  private void summarize(String command, List<Result> results) {
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    long total = 0;
+    long requests = 0;
+    long peak = 0;
+    int count = 0;
+    for (Result result : results) {
+      if (result.command.equals(command)) {
+        min = Math.min(min, result.millis);
+        max = Math.max(max, result.millis);
+        total += result.millis;
+        requests += result.requests();
+        peak = Math.max(peak, result.peakHeap);
+        count++;
+      }
+    }
+    if (count > 0) {
+      println("%-12s %,10d %,10d %,10d %,10d %,14d",
+          command, min, total / count, max, requests / count, peak);
+    }
+  }
+
+  /**
+   * Get the values of all the global storage statistics.
+   * @return a map of storage statistics name "." statistic to value
+   */
+  private static Map<String, Long> snapshot() {
+    Map<String, Long> values = new TreeMap<>();
+    Iterator<StorageStatistics> statistics =
+        GlobalStorageStatistics.INSTANCE.iterator();
+    while (statistics.hasNext()) {
+      StorageStatistics st = statistics.next();
+      Iterator<StorageStatistics.LongStatistic> it = st.getLongStatistics();
+      while (it.hasNext()) {
+        StorageStatistics.LongStatistic s = it.next();
+        values.put(st.getName() + "." + s.getName(), s.getValue());
+      }
+    }
+    return values;
+  }
+
+  private static Map<String, Long> difference(Map<String, Long> before,
+      Map<String, Long> after) {
+    Map<String, Long> changes = new TreeMap<>();
+    for (Map.Entry<String, Long> entry : after.entrySet()) {
+      long change = entry.getValue()
+          - before.getOrDefault(entry.getKey(), 0L);
+      if (change != 0) {
+        changes.put(entry.getKey(), change);
+      }
+    }
+    return changes;
+  }
+
+  private static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * Get the sum of the peak usage of the heap pools since they were
+   * last reset.
+   * @return bytes
+   */
+  private static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  /**
+   * The result of one run of a command.
+   */
+  private static final class Result {
+
+    private static final String HEADER =
+        "command\trun\texit\tmillis\tpeak_heap\trequests\tstatistics";
+
+    private final String command;
+
+    private final int run;
+
+    private final int exitCode;
+
+    private final long millis;
+
+    private final long peakHeap;
+
+    private final Map<String, Long> statistics;
+
+    private Result(String command, int run, int exitCode, long millis,
+        long peakHeap, Map<String, Long> statistics) {
+      this.command = command;
+      this.run = run;
+      this.exitCode = exitCode;
+      this.millis = millis;
+      this.peakHeap = peakHeap;
+      this.statistics = statistics;
+    }
+
+    /**
+     * Get the number of requests: the read and write operations of
+     * all filesystems.
+     * @return a count
+     */
+    private long requests() {
+      long requests = 0;
+      for (Map.Entry<String, Long> entry : statistics.entrySet()) {
+        for (String suffix : REQUESTS) {
+          if (entry.getKey().endsWith(suffix)) {
+            requests += entry.getValue();
+          }
+        }
+      }
+      return requests;
+    }
+
+    private String toRow() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, Long> entry : statistics.entrySet()) {
+        if (sb.length() > 0) {
+          sb.append(',');
+        }
+        sb.append(entry.getKey()).append('=').append(entry.getValue());
+      }
+      return String.format("%s\t%d\t%d\t%d\t%d\t%d\t%s",
+          command, run, exitCode, millis, peakHeap, requests(), sb);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s run %d: exit code %d in %,d ms;"
+              + " %,d requests; peak heap %,d bytes",
+          command, run, exitCode, millis, requests(), peakHeap);
+    }
+  }
+
+  /**
+   * Execute the command, return the result or throw an exception,
+   * as appropriate.
+   * @param args argument varags.
+   * @return return code
+   * @throws Exception failure
+   */
+  public static int exec(String... args) throws Exception {
+    return ToolRunner.run(new CommandBenchmark(), args);
+  }
+
+  /**
+   * Main entry point. Calls {@code System.exit()} on all execution paths,
+   * directly, as a MiniDFSCluster disables the exit of {@code ExitUtil}.
+   * @param args argument list
+   */
+  public static void main(String[] args) {
+    int status;
+    try {
+      status = exec(args);
+    } catch (ExitUtil.ExitException e) {
+      errorln(e.getMessage());
+      status = e.getExitCode();
+    } catch (Throwable e) {
+      e.printStackTrace(System.err);
+      status = E_ERROR;
+    }
+    System.exit(status);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.store.test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A directory tree of a given shape: {@code width} subdirectories in
+ * every directory down to {@code depth}, and {@code files} files in
+ * every directory, including the root, of sizes drawn from a
+ * distribution. The same seed creates the same tree.
+ */
+final class SyntheticTree {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int depth;
+
+  private final int width;
+
+  private final int files;
+
+  private final LatencyDistribution sizes;
+
+  private final Random random;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private int fileCount;
+
+  private int directoryCount;
+
+  private long bytes;
+
+  /**
+   * Constructor.
+   * @param depth depth of the directories under the root
+   * @param width subdirectories of every directory above the depth
+   * @param files files in every directory
+   * @param sizes distribution of the file sizes, in bytes
+   * @param seed seed of the sizes and the data
+   */
+  SyntheticTree(int depth, int width, int files,
+      LatencyDistribution sizes, long seed) {
+    this.depth = depth;
+    this.width = width;
+    this.files = files;
+    this.sizes = sizes;
+    this.random = new Random(seed);
+    random.nextBytes(buffer);
+  }
+
+  /**
+   * Create the tree, overwriting any files already there.
+   * @param fs filesystem
+   * @param root root directory
+   * @throws IOException failure
+   */
+  void create(FileSystem fs, Path root) throws IOException {
+    fs.mkdirs(root);
+    directoryCount++;
+    createDirectory(fs, root, 0);
+  }
+
+  private void createDirectory(FileSystem fs, Path dir, int level)
+      throws IOException {
+    for (int i = 0; i < files; i++) {
+      createFile(fs, new Path(dir, String.format("file-%04d", i)),
+          sizes.sample(random));
+    }
+    if (level < depth) {
+      for (int i = 0; i < width; i++) {
+        Path child = new Path(dir, String.format("dir-%04d", i));
+        fs.mkdirs(child);
+        directoryCount++;
+        createDirectory(fs, child, level + 1);
+      }
+    }
+  }
+
+  private void createFile(FileSystem fs, Path path, long size)
+      throws IOException {
+    try (FSDataOutputStream out = fs.create(path, true)) {
+      long remaining = size;
+      while (remaining > 0) {
+        int len = (int) Math.min(remaining, BUFFER_SIZE);
+        out.write(buffer, 0, len);
+        remaining -= len;
+      }
+    }
+    fileCount++;
+    bytes += size;
+  }
+
+  int getFileCount() {
+    return fileCount;
+  }
+
+  int getDirectoryCount() {
+    return directoryCount;
+  }
+
+  long getBytes() {
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return "SyntheticTree{" +
+        "depth=" + depth +
+        ", width=" + width +
+        ", files=" + files +
+        ", sizes=" + sizes +
+        ", fileCount=" + fileCount +
+        ", directoryCount=" + directoryCount +
+        ", bytes=" + bytes +
+        '}';
+  }
+}
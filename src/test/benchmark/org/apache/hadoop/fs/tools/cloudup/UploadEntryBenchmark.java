@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Sorting and shuffling of upload entries, as the selection of the
+ * largest files and the random order of the rest did before the plan.
+ * Every invocation works on a fresh copy of the entries, made outside
+ * the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class UploadEntryBenchmark {
+
+  @Param({"100000", "1000000"})
+  private int entries;
+
+  private UploadEntry[] template;
+
+  private List<UploadEntry> list;
+
+  private Random random;
+
+  @Setup(Level.Trial)
+  public void createEntries() {
+    random = new Random(0);
+    template = new UploadEntry[entries];
+    for (int i = 0; i < entries; i++) {
+      // sizes spread over several orders of magnitude
+      long size = (long) Math.exp(random.nextGaussian() * 2 + 10);
+      template[i] = new UploadEntry(i,
+          new Path("file:///data/dir-" + (i % 1000) + "/file-" + i),
+          size, 0);
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void copyEntries() {
+    list = new ArrayList<>(Arrays.asList(template));
+  }
+
+  @Benchmark
+  public List<UploadEntry> sortNatural() {
+    Collections.sort(list);
+    return list;
+  }
+
+  @Benchmark
+  public List<UploadEntry> sortSizeComparator() {
+    list.sort(new UploadEntry.SizeComparator());
+    return list;
+  }
+
+  @Benchmark
+  public List<UploadEntry> sortLargestFirst() {
+    list.sort(Collections.reverseOrder());
+    return list;
+  }
+
+  @Benchmark
+  public List<UploadEntry> shuffle() {
+    Collections.shuffle(list, random);
+    return list;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Building the upload plan of a large listing, against a list of
+ * entries with their source and destination paths.
+ * Run with {@code -prof gc}: the normalized allocation rate is the
+ * bytes allocated per listing, of which the plan keeps its arena and
+ * arrays ({@link UploadPlan#getMemoryUsage()}), and the list every
+ * entry and path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class UploadPlanBenchmark {
+
+  private static final Path SOURCE = new Path("file:///tmp/source");
+
+  private static final Path DEST = new Path("s3a://bucket/dest");
+
+  @Param({"200000"})
+  private int entries;
+
+  private String[] names;
+
+  @Setup
+  public void createNames() {
+    names = new String[entries];
+    for (int i = 0; i < entries; i++) {
+      names[i] = String.format("year=%d/month=%02d/part-%08d.parquet",
+          2000 + i % 20, i % 12, i);
+    }
+  }
+
+  @Benchmark
+  public List<UploadEntry> entries() {
+    List<UploadEntry> list = new ArrayList<>();
+    for (int i = 0; i < entries; i++) {
+      UploadEntry entry = new UploadEntry(i, new Path(SOURCE, names[i]),
+          i, i);
+      entry.setDest(new Path(DEST, names[i]));
+      list.add(entry);
+    }
+    return list;
+  }
+
+  @Benchmark
+  public UploadPlan plan() {
+    UploadPlan plan = new UploadPlan(SOURCE);
+    for (int i = 0; i < entries; i++) {
+      plan.add(names[i], i, i);
+    }
+    return plan;
+  }
+}
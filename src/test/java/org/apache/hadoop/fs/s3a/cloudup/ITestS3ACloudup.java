@@ -27,7 +27,9 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.store.test.AbstractS3AStoreTest;
 import org.apache.hadoop.fs.tools.cloudup.Cloudup;
@@ -91,6 +93,26 @@ public class ITestS3ACloudup extends AbstractS3AStoreTest {
 
   }
 
+  @Test
+  public void testMultipartUpload() throws Throwable {
+    Path dest = methodPath();
+    int expected = createTestFiles(sourceDir, 4);
+    // three parts of the S3 minimum part size, the last one short
+    File large = new File(sourceDir, "multipart");
+    FileUtils.writeByteArrayToFile(large,
+        ContractTestUtils.dataset(12 * 1024 * 1024, 32, 64));
+    expectSuccess(
+        new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest.toUri().toString(),
+        "-o",
+        "-ms", "8m",
+        "-ps", "5m");
+    assertEquals("size of uploaded file",
+        large.length(),
+        getFileSystem().getFileStatus(new Path(dest, "multipart")).getLen());
+  }
+
   public Path methodPath() {
     return new Path(testPath, methodName.getMethodName());
   }
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.store.test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A distribution of latencies in milliseconds, parsed from a
+ * specification of the form {@code name:arguments}:
+ * <ul>
+ *   <li>{@code 20} or {@code fixed:20}: always 20.</li>
+ *   <li>{@code uniform:10,50}: uniform between 10 and 50.</li>
+ *   <li>{@code normal:30,5}: normal with mean 30 and standard
+ *   deviation 5.</li>
+ *   <li>{@code exponential:30}: exponential with mean 30.</li>
+ *   <li>{@code lognormal:30,0.5}: log-normal with median 30 and
+ *   sigma 0.5; a long tail, as the latencies of stores have.</li>
+ * </ul>
+ * Samples are never negative.
+ */
+final class LatencyDistribution {
+
+  /** No latency. */
+  static final LatencyDistribution NONE = new LatencyDistribution(
+      Kind.fixed, 0, 0);
+
+  private enum Kind { fixed, uniform, normal, exponential, lognormal }
+
+  private final Kind kind;
+
+  private final double a;
+
+  private final double b;
+
+  private LatencyDistribution(Kind kind, double a, double b) {
+    this.kind = kind;
+    this.a = a;
+    this.b = b;
+  }
+
+  /**
+   * Parse a specification.
+   * @param spec specification; null or empty for no latency.
+   * @return the distribution
+   * @throws IllegalArgumentException an invalid specification.
+   */
+  static LatencyDistribution parse(String spec) {
+    if (spec == null || spec.trim().isEmpty()) {
+      return NONE;
+    }
+    String s = spec.trim();
+    int colon = s.indexOf(':');
+    try {
+      Kind kind = colon < 0
+          ? Kind.fixed
+          : Kind.valueOf(s.substring(0, colon).toLowerCase(Locale.ENGLISH));
+      String[] args = s.substring(colon + 1).split(",");
+      double a = Double.parseDouble(args[0].trim());
+      double b = 0;
+      switch (kind) {
+      case fixed:
+      case exponential:
+        if (args.length != 1) {
+          throw new IllegalArgumentException("Expected one argument");
+        }
+        break;
+      default:
+        if (args.length != 2) {
+          throw new IllegalArgumentException("Expected two arguments");
+        }
+        b = Double.parseDouble(args[1].trim());
+      }
+      if (a < 0 || b < 0) {
+        throw new IllegalArgumentException("Negative argument");
+      }
+      return new LatencyDistribution(kind, a, b);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "Invalid latency \"" + spec + "\": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Is there never any latency?
+   * @return true if every sample is 0.
+   */
+  boolean isNone() {
+    return kind == Kind.fixed && a == 0;
+  }
+
+  /**
+   * Sample the distribution.
+   * @param random source of randomness
+   * @return a latency in milliseconds.
+   */
+  long sample(Random random) {
+    double millis;
+    switch (kind) {
+    case uniform:
+      millis = a + random.nextDouble() * (b - a);
+      break;
+    case normal:
+      millis = a + random.nextGaussian() * b;
+      break;
+    case exponential:
+      millis = -a * Math.log(1 - random.nextDouble());
+      break;
+    case lognormal:
+      millis = a * Math.exp(random.nextGaussian() * b);
+      break;
+    default:
+      millis = a;
+    }
+    return Math.max(0, Math.round(millis));
+  }
+
+  @Override
+  public String toString() {
+    return kind == Kind.fixed || kind == Kind.exponential
+        ? kind + ":" + a
+        : kind + ":" + a + "," + b;
+  }
+}
@@ -0,0 +1,622 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.store.test;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.tools.cloudup.TokenBucket;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * The local filesystem under the scheme {@value #SCHEME}, behaving like
+ * a remote store, so that the performance of the tools can be measured
+ * without one: {@code simulated:///tmp/data} is {@code /tmp/data}.
+ *
+ * Every request can be given a latency, drawn from a distribution
+ * per operation; see {@link LatencyDistribution}. The bytes read and
+ * written by all streams can be capped to a bandwidth. Requests under
+ * the same prefix, the parent directory of the path, can be limited to
+ * a rate per second, as object stores limit the request rate of each
+ * partition of their keys; requests over the limit fail with a 503
+ * error. Requests can also fail at random, with a 500 error.
+ *
+ * A write is a request when the file is created and another when
+ * it is closed, as a PUT of an object store is; if the close fails,
+ * the file is deleted. The latency of a request is incurred before it
+ * is checked against the limits.
+ *
+ * Configuration:
+ * <pre>
+ *   fs.simulated.latency.default      latency of all operations
+ *   fs.simulated.latency.(operation)  latency of an operation: open,
+ *                                     create, close, head, list,
+ *                                     mkdirs, delete or rename
+ *   fs.simulated.bandwidth            MB/s of all streams; 0 for no cap
+ *   fs.simulated.prefix.rate          requests per second per prefix;
+ *                                     0 for no limit
+ *   fs.simulated.failure.rate         probability of a request failing
+ *   fs.simulated.seed                 seed of the randomness
+ * </pre>
+ *
+ * The requests of every operation are counted, as is the highest
+ * number of files being written at the same time under a prefix.
+ *
+ * Permissions are neither set nor reported, as in an object store.
+ *
+ * This is test code, not in the JAR: the scheme is only registered
+ * on the test classpath. Elsewhere, set {@code fs.simulated.impl}
+ * to this class.
+ */
+public class SimulatedStoreFileSystem extends FilterFileSystem {
+
+  private static final Logger LOG = LoggerFactory.getLogger(
+      SimulatedStoreFileSystem.class);
+
+  public static final String SCHEME = "simulated";
+
+  public static final String PREFIX = "fs." + SCHEME + ".";
+
+  /** Prefix of the latencies of operations. */
+  public static final String LATENCY = PREFIX + "latency.";
+
+  /** Latency of operations without one of their own. */
+  public static final String LATENCY_DEFAULT = LATENCY + "default";
+
+  /** Bandwidth of all streams in MB/s; 0 for no cap. */
+  public static final String BANDWIDTH = PREFIX + "bandwidth";
+
+  /** Requests per second under each prefix; 0 for no limit. */
+  public static final String PREFIX_RATE = PREFIX + "prefix.rate";
+
+  /** Probability of a request failing. */
+  public static final String FAILURE_RATE = PREFIX + "failure.rate";
+
+  /** Seed of the latencies and failures; unset for a random one. */
+  public static final String SEED = PREFIX + "seed";
+
+  private static final URI NAME = URI.create(SCHEME + ":///");
+
+  /**
+   * Operations, each of which is a request.
+   */
+  public enum Operation {
+    open, create, close, head, list, mkdirs, delete, rename
+  }
+
+  /** Operations counted as write operations in the statistics. */
+  private static final EnumSet<Operation> WRITES = EnumSet.of(
+      Operation.create, Operation.close, Operation.mkdirs,
+      Operation.delete, Operation.rename);
+
+  private final Map<Operation, LatencyDistribution> latencies =
+      new EnumMap<>(Operation.class);
+
+  private final Map<Path, RequestWindow> windows = new ConcurrentHashMap<>();
+
+  private final AtomicLong requests = new AtomicLong();
+
+  private final Map<Operation, AtomicLong> operations =
+      new EnumMap<>(Operation.class);
+
+  /** Files being written under each prefix. */
+  private final Map<Path, AtomicInteger> writes = new ConcurrentHashMap<>();
+
+  private final AtomicInteger peakWrites = new AtomicInteger();
+
+  private final AtomicLong throttled = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  private final AtomicLong latencyMillis = new AtomicLong();
+
+  private Random random;
+
+  private TokenBucket bandwidth;
+
+  private int prefixRate;
+
+  private double failureRate;
+
+  public SimulatedStoreFileSystem() {
+    super(new LocalStore());
+    for (Operation operation : Operation.values()) {
+      operations.put(operation, new AtomicLong());
+    }
+  }
+
+  @Override
+  public void initialize(final URI name, final Configuration conf)
+      throws IOException {
+    super.initialize(name, conf);
+    LatencyDistribution defaultLatency = LatencyDistribution.parse(
+        conf.getTrimmed(LATENCY_DEFAULT, ""));
+    for (Operation operation : Operation.values()) {
+      String spec = conf.getTrimmed(LATENCY + operation, "");
+      latencies.put(operation, spec.isEmpty()
+          ? defaultLatency
+          : LatencyDistribution.parse(spec));
+    }
+    float megabytes = conf.getFloat(BANDWIDTH, 0);
+    bandwidth = megabytes > 0 ? TokenBucket.fromMegabytes(megabytes) : null;
+    prefixRate = conf.getInt(PREFIX_RATE, 0);
+    failureRate = conf.getDouble(FAILURE_RATE, 0);
+    long seed = conf.getLong(SEED, 0);
+    random = seed != 0 ? new Random(seed) : new Random();
+    LOG.debug("Initialized {}", this);
+  }
+
+  @Override
+  public URI getUri() {
+    return NAME;
+  }
+
+  @Override
+  public String getScheme() {
+    return SCHEME;
+  }
+
+  /**
+   * Get the number of requests made.
+   * @return a count
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Get the number of requests of an operation, including those
+   * which failed.
+   * @param operation operation
+   * @return a count
+   */
+  public long getRequests(Operation operation) {
+    return operations.get(operation).get();
+  }
+
+  /**
+   * Get the highest number of files written at the same time
+   * under any one prefix.
+   * @return a count
+   */
+  public int getPeakWritesPerPrefix() {
+    return peakWrites.get();
+  }
+
+  /**
+   * Get the number of requests rejected for exceeding the rate of
+   * their prefix.
+   * @return a count
+   */
+  public long getThrottled() {
+    return throttled.get();
+  }
+
+  /**
+   * Get the number of requests failed at random.
+   * @return a count
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Get the total latency injected.
+   * @return milliseconds
+   */
+  public long getLatencyMillis() {
+    return latencyMillis.get();
+  }
+
+  /**
+   * Make a request: incur its latency, then fail it if it exceeds
+   * the rate of its prefix, or at random.
+   * @param operation operation
+   * @param path path of the request
+   * @throws IOException a 503 or 500 failure, or an interruption.
+   */
+  private void request(Operation operation, Path path) throws IOException {
+    requests.incrementAndGet();
+    operations.get(operation).incrementAndGet();
+    if (WRITES.contains(operation)) {
+      statistics.incrementWriteOps(1);
+    } else {
+      statistics.incrementReadOps(1);
+    }
+    long millis = latencies.get(operation).sample(random);
+    if (millis > 0) {
+      latencyMillis.addAndGet(millis);
+      try {
+        TimeUnit.MILLISECONDS.sleep(millis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted " + operation + " " + path).initCause(e);
+      }
+    }
+    Path prefix = prefixOf(path);
+    if (prefixRate > 0
+        && !windows.computeIfAbsent(prefix, p -> new RequestWindow())
+            .tryAcquire(prefixRate)) {
+      throttled.incrementAndGet();
+      throw new IOException("503 SlowDown: " + operation + " " + path
+          + ": Please reduce your request rate under " + prefix);
+    }
+    if (failureRate > 0 && random.nextDouble() < failureRate) {
+      failed.incrementAndGet();
+      throw new IOException("500 InternalError: " + operation + " " + path
+          + ": injected failure");
+    }
+  }
+
+  /**
+   * Get the prefix of a path: its parent directory, or the root.
+   */
+  private Path prefixOf(Path path) {
+    Path qualified = makeQualified(path);
+    return qualified.isRoot() ? qualified : qualified.getParent();
+  }
+
+  @Override
+  public FSDataInputStream open(final Path f, final int bufferSize)
+      throws IOException {
+    request(Operation.open, f);
+    FSDataInputStream in = super.open(f, bufferSize);
+    return bandwidth != null
+        ? new FSDataInputStream(new CappedInputStream(in))
+        : in;
+  }
+
+  @Override
+  public FSDataOutputStream create(final Path f,
+      final FsPermission permission,
+      final boolean overwrite,
+      final int bufferSize,
+      final short replication,
+      final long blockSize,
+      final Progressable progress) throws IOException {
+    request(Operation.create, f);
+    return written(f, super.create(f, permission, overwrite, bufferSize,
+        replication, blockSize, progress));
+  }
+
+  @Override
+  public FSDataOutputStream createNonRecursive(final Path f,
+      final FsPermission permission,
+      final EnumSet<CreateFlag> flags,
+      final int bufferSize,
+      final short replication,
+      final long blockSize,
+      final Progressable progress) throws IOException {
+    request(Operation.create, f);
+    return written(f, super.createNonRecursive(f, permission, flags,
+        bufferSize, replication, blockSize, progress));
+  }
+
+  @Override
+  public FSDataOutputStream append(final Path f, final int bufferSize,
+      final Progressable progress) throws IOException {
+    request(Operation.create, f);
+    return written(f, super.append(f, bufferSize, progress));
+  }
+
+  private FSDataOutputStream written(Path f, FSDataOutputStream out) {
+    AtomicInteger prefix = writes.computeIfAbsent(prefixOf(f),
+        p -> new AtomicInteger());
+    peakWrites.accumulateAndGet(prefix.incrementAndGet(), Math::max);
+    // the inner filesystem counts the bytes written
+    return new FSDataOutputStream(
+        new SimulatedOutputStream(f, out, prefix), null);
+  }
+
+  @Override
+  public FileStatus getFileStatus(final Path f) throws IOException {
+    request(Operation.head, f);
+    return super.getFileStatus(f);
+  }
+
+  @Override
+  public FileStatus[] listStatus(final Path f) throws IOException {
+    request(Operation.list, f);
+    return super.listStatus(f);
+  }
+
+  @Override
+  public RemoteIterator<FileStatus> listStatusIterator(final Path f)
+      throws IOException {
+    request(Operation.list, f);
+    return super.listStatusIterator(f);
+  }
+
+  @Override
+  public RemoteIterator<LocatedFileStatus> listLocatedStatus(final Path f)
+      throws IOException {
+    request(Operation.list, f);
+    return super.listLocatedStatus(f);
+  }
+
+  @Override
+  public boolean mkdirs(final Path f, final FsPermission permission)
+      throws IOException {
+    request(Operation.mkdirs, f);
+    return super.mkdirs(f, permission);
+  }
+
+  @Override
+  public boolean delete(final Path f, final boolean recursive)
+      throws IOException {
+    request(Operation.delete, f);
+    return super.delete(f, recursive);
+  }
+
+  @Override
+  public boolean rename(final Path src, final Path dst) throws IOException {
+    request(Operation.rename, src);
+    return super.rename(src, dst);
+  }
+
+  @Override
+  public void setPermission(final Path p, final FsPermission permission) {
+    // not supported by stores
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("SimulatedStoreFileSystem{");
+    sb.append("latencies=").append(latencies);
+    sb.append("; bandwidth=").append(bandwidth);
+    sb.append("; prefix rate=").append(prefixRate);
+    sb.append(String.format(Locale.ENGLISH, "; failure rate=%.3f",
+        failureRate));
+    sb.append("; requests=").append(requests.get());
+    sb.append("; throttled=").append(throttled.get());
+    sb.append("; peak writes per prefix=").append(peakWrites.get());
+    sb.append("; failed=").append(failed.get());
+    sb.append("; latency=").append(latencyMillis.get()).append(" ms");
+    sb.append('}');
+    return sb.toString();
+  }
+
+  /**
+   * The requests under a prefix in the current second.
+   */
+  private static final class RequestWindow {
+
+    private long start = System.nanoTime();
+
+    private int count;
+
+    /**
+     * Count a request, unless the limit has been reached this second.
+     * @param limit requests per second
+     * @return true if the request is within the limit.
+     */
+    synchronized boolean tryAcquire(int limit) {
+      long now = System.nanoTime();
+      if (now - start >= TimeUnit.SECONDS.toNanos(1)) {
+        start = now;
+        count = 0;
+      }
+      if (count >= limit) {
+        return false;
+      }
+      count++;
+      return true;
+    }
+  }
+
+  /**
+   * Stream of a file being written: capped to the bandwidth, and a
+   * request when closed.
+   */
+  private final class SimulatedOutputStream extends FilterOutputStream {
+
+    private final Path path;
+
+    /** Files being written under the prefix of this one. */
+    private final AtomicInteger prefix;
+
+    private boolean closed;
+
+    private SimulatedOutputStream(Path path, OutputStream out,
+        AtomicInteger prefix) {
+      super(out);
+      this.path = path;
+      this.prefix = prefix;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      if (bandwidth != null) {
+        bandwidth.acquire(1);
+      }
+      out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+        throws IOException {
+      if (bandwidth != null) {
+        bandwidth.acquire(len);
+      }
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        request(Operation.close, path);
+      } catch (IOException e) {
+        // as with a failed PUT, there is no file
+        super.close();
+        getRawFileSystem().delete(path, false);
+        throw e;
+      } finally {
+        prefix.decrementAndGet();
+      }
+      super.close();
+    }
+  }
+
+  /**
+   * Stream of a file being read, capped to the bandwidth.
+   */
+  private final class CappedInputStream extends FSInputStream {
+
+    private final FSDataInputStream in;
+
+    private CappedInputStream(FSDataInputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) {
+        bandwidth.acquire(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+        throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) {
+        bandwidth.acquire(read);
+      }
+      return read;
+    }
+
+    @Override
+    public int read(final long position, final byte[] buffer,
+        final int offset, final int length) throws IOException {
+      int read = in.read(position, buffer, offset, length);
+      if (read > 0) {
+        bandwidth.acquire(read);
+      }
+      return read;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+      in.seek(pos);
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return in.getPos();
+    }
+
+    @Override
+    public boolean seekToNewSource(final long targetPos) throws IOException {
+      return in.seekToNewSource(targetPos);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * The local filesystem under the scheme of the store. File statuses
+   * have no permissions, as RawLocalFileSystem can only load them for
+   * paths with the scheme "file".
+   */
+  private static final class LocalStore extends RawLocalFileSystem {
+
+    @Override
+    public URI getUri() {
+      return NAME;
+    }
+
+    @Override
+    public String getScheme() {
+      return SCHEME;
+    }
+
+    @Override
+    public FileStatus getFileStatus(final Path f) throws IOException {
+      return withoutPermissions(super.getFileStatus(f));
+    }
+
+    @Override
+    public FileStatus[] listStatus(final Path f) throws IOException {
+      FileStatus[] statuses = super.listStatus(f);
+      for (int i = 0; i < statuses.length; i++) {
+        statuses[i] = withoutPermissions(statuses[i]);
+      }
+      return statuses;
+    }
+
+    private static FileStatus withoutPermissions(FileStatus status) {
+      return new FileStatus(status.getLen(), status.isDirectory(),
+          status.getReplication(), status.getBlockSize(),
+          status.getModificationTime(), status.getPath());
+    }
+
+    @Override
+    public boolean mkdirs(final Path f, final FsPermission permission)
+        throws IOException {
+      return super.mkdirs(f);
+    }
+
+    @Override
+    public void setPermission(final Path p, final FsPermission permission) {
+      // not supported by stores
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.store.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StorageStatistics;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
+
+import static org.apache.hadoop.fs.store.test.SimulatedStoreFileSystem.*;
+
+/**
+ * Test the simulated store over the local filesystem.
+ */
+public class TestSimulatedStoreFileSystem extends Assert {
+
+  private File testDir;
+
+  private Path root;
+
+  private SimulatedStoreFileSystem fs;
+
+  @Before
+  public void setup() throws Exception {
+    testDir = new File(System.getProperty("test.build.data",
+        "target/test-data"), "TestSimulatedStore-" + System.nanoTime())
+        .getAbsoluteFile();
+    root = new Path(SCHEME + "://" + testDir.toURI().getPath());
+  }
+
+  @After
+  public void teardown() throws Exception {
+    if (fs != null) {
+      fs.close();
+    }
+    FileUtil.fullyDelete(testDir);
+  }
+
+  private SimulatedStoreFileSystem create(String... options)
+      throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean("fs." + SCHEME + ".impl.disable.cache", true);
+    for (int i = 0; i < options.length; i += 2) {
+      conf.set(options[i], options[i + 1]);
+    }
+    fs = (SimulatedStoreFileSystem) root.getFileSystem(conf);
+    return fs;
+  }
+
+  @Test
+  public void testRoundTrip() throws Throwable {
+    create();
+    Path file = new Path(root, "dir/file");
+    byte[] data = ContractTestUtils.dataset(1024, 'a', 26);
+    ContractTestUtils.createFile(fs, file, false, data);
+    ContractTestUtils.verifyFileContents(fs, file, data);
+    assertTrue(new File(testDir, "dir/file").isFile());
+    FileStatus[] statuses = fs.listStatus(file.getParent());
+    assertEquals(1, statuses.length);
+    assertEquals(SCHEME, statuses[0].getPath().toUri().getScheme());
+    assertEquals(file, statuses[0].getPath());
+    assertEquals(1, ContractTestUtils.toList(fs.listFiles(root, true)).size());
+    assertTrue(fs.delete(file.getParent(), true));
+    assertFalse(fs.exists(file));
+    assertTrue("No requests counted: " + fs, fs.getRequests() > 0);
+  }
+
+  @Test
+  public void testLatency() throws Throwable {
+    create(LATENCY + "mkdirs", "200");
+    long start = System.nanoTime();
+    fs.mkdirs(root);
+    fs.getFileStatus(root);
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    assertTrue("Too fast: " + millis, millis >= 200);
+    assertEquals(200, fs.getLatencyMillis());
+  }
+
+  @Test
+  public void testStorageStatistics() throws Throwable {
+    create();
+    StorageStatistics statistics =
+        FileSystem.getGlobalStorageStatistics().get(SCHEME);
+    long reads = statistics.getLong("readOps");
+    long writes = statistics.getLong("writeOps");
+    fs.mkdirs(root);
+    fs.getFileStatus(root);
+    fs.listStatus(root);
+    assertEquals(2, statistics.getLong("readOps") - reads);
+    assertEquals(1, statistics.getLong("writeOps") - writes);
+  }
+
+  @Test
+  public void testOperationsAndWritesCounted() throws Throwable {
+    create();
+    Path dir = new Path(root, "dir");
+    fs.mkdirs(dir);
+    try (FSDataOutputStream first = fs.create(new Path(dir, "first"));
+         FSDataOutputStream second = fs.create(new Path(dir, "second"));
+         FSDataOutputStream other = fs.create(new Path(root, "other"))) {
+      first.write(1);
+      second.write(2);
+      other.write(3);
+    }
+    fs.open(new Path(dir, "first")).close();
+    fs.listStatus(dir);
+    assertEquals(1, fs.getRequests(Operation.mkdirs));
+    assertEquals(3, fs.getRequests(Operation.create));
+    assertEquals(3, fs.getRequests(Operation.close));
+    assertEquals(1, fs.getRequests(Operation.open));
+    assertEquals(1, fs.getRequests(Operation.list));
+    assertEquals("Peak writes: " + fs, 2, fs.getPeakWritesPerPrefix());
+  }
+
+  @Test
+  public void testPrefixThrottling() throws Throwable {
+    create(PREFIX_RATE, "3");
+    Path dir = new Path(root, "dir");
+    for (int i = 0; i < 3; i++) {
+      assertFalse(fs.exists(new Path(dir, "file-" + i)));
+    }
+    try {
+      fs.getFileStatus(new Path(dir, "file-3"));
+      fail("Not throttled: " + fs);
+    } catch (IOException e) {
+      assertTrue(e.toString(), e.getMessage().startsWith("503"));
+    }
+    assertEquals(1, fs.getThrottled());
+    // other prefixes have their own limits
+    assertFalse(fs.exists(new Path(root, "other/file")));
+  }
+
+  @Test
+  public void testFailures() throws Throwable {
+    create(FAILURE_RATE, "1");
+    try {
+      fs.mkdirs(root);
+      fail("No failure: " + fs);
+    } catch (IOException e) {
+      assertTrue(e.toString(), e.getMessage().startsWith("500"));
+    }
+    assertEquals(1, fs.getFailed());
+  }
+
+  @Test
+  public void testBandwidth() throws Throwable {
+    create(BANDWIDTH, "1");
+    // the first second's worth of data is not delayed
+    byte[] data = new byte[1024 * 1024 + 512 * 1024];
+    long start = System.nanoTime();
+    try (FSDataOutputStream out = fs.create(new Path(root, "file"))) {
+      out.write(data);
+    }
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    assertTrue("Too fast: " + millis, millis >= 400);
+  }
+
+  @Test
+  public void testLatencyDistributions() throws Throwable {
+    Random random = new Random(1);
+    assertTrue(LatencyDistribution.parse("").isNone());
+    assertEquals(20, LatencyDistribution.parse("20").sample(random));
+    assertEquals(20, LatencyDistribution.parse("fixed:20").sample(random));
+    for (int i = 0; i < 100; i++) {
+      long uniform = LatencyDistribution.parse("uniform:10,50")
+          .sample(random);
+      assertTrue("Out of range: " + uniform, uniform >= 10 && uniform <= 50);
+      assertTrue(LatencyDistribution.parse("normal:1,10").sample(random)
+          >= 0);
+      assertTrue(LatencyDistribution.parse("exponential:30").sample(random)
+          >= 0);
+      assertTrue(LatencyDistribution.parse("lognormal:30,0.5")
+          .sample(random) > 0);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLatency() throws Throwable {
+    LatencyDistribution.parse("uniform:10");
+  }
+}
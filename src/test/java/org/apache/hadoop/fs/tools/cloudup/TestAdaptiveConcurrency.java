@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import com.amazonaws.AmazonServiceException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.fs.s3a.AWSServiceThrottledException;
+
+/**
+ * Test the AIMD controller with synthetic outcomes.
+ */
+public class TestAdaptiveConcurrency extends Assert {
+
+  private static final IOException THROTTLED =
+      new IOException("Status Code: 503; Error Code: SlowDown");
+
+  @Test
+  public void testThrottlingHalvesLimit() throws Throwable {
+    AdaptiveConcurrency ac = new AdaptiveConcurrency("test", 1, 16, 8);
+    ac.acquire();
+    ac.acquire();
+    ac.release(0, 1000, THROTTLED);
+    assertEquals("limit after throttling", 4, ac.getLimit());
+    // a second throttle event in the same round is ignored
+    ac.release(0, 1000, THROTTLED);
+    assertEquals("limit after second throttle", 4, ac.getLimit());
+    assertEquals("throttle events", 2, ac.getThrottleEvents());
+    assertEquals("in flight", 0, ac.getInFlight());
+  }
+
+  @Test
+  public void testSustainedThrottlingKeepsHalving() throws Throwable {
+    AdaptiveConcurrency ac = new AdaptiveConcurrency("test", 1, 16, 16);
+    for (int expected : new int[]{8, 4, 2, 1, 1}) {
+      // every upload of the round is throttled; no successes end it
+      int uploads = ac.getLimit();
+      for (int i = 0; i < uploads; i++) {
+        ac.acquire();
+      }
+      for (int i = 0; i < uploads; i++) {
+        ac.release(0, 1000, THROTTLED);
+      }
+      assertEquals("limit", expected, ac.getLimit());
+    }
+  }
+
+  @Test
+  public void testCancelledUploadsEndTheRound() throws Throwable {
+    AdaptiveConcurrency ac = new AdaptiveConcurrency("test", 1, 16, 8);
+    ac.acquire();
+    ac.acquire();
+    ac.release(0, 1000, THROTTLED);
+    ac.cancel();
+    ac.acquire();
+    ac.release(0, 1000, THROTTLED);
+    assertEquals("limit", 2, ac.getLimit());
+  }
+
+  @Test
+  public void testSuccessIncreasesLimitToMaximum() throws Throwable {
+    AdaptiveConcurrency ac = new AdaptiveConcurrency("test", 1, 8, 1);
+    for (int i = 0; i < 200; i++) {
+      ac.acquire();
+      ac.release(1024, 1_000_000, null);
+    }
+    assertEquals("limit", 8, ac.getLimit());
+  }
+
+  @Test
+  public void testLimitNeverBelowMinimum() throws Throwable {
+    AdaptiveConcurrency ac = new AdaptiveConcurrency("test", 2, 8, 2);
+    for (int i = 0; i < 10; i++) {
+      ac.acquire();
+      ac.release(0, 1000, THROTTLED);
+    }
+    assertEquals("limit", 2, ac.getLimit());
+  }
+
+  @Test
+  public void testOtherFailuresDoNotChangeLimit() throws Throwable {
+    AdaptiveConcurrency ac = new AdaptiveConcurrency("test", 1, 8, 4);
+    ac.acquire();
+    ac.release(0, 1000, new FileNotFoundException("missing"));
+    assertEquals("limit", 4, ac.getLimit());
+    assertEquals("throttle events", 0, ac.getThrottleEvents());
+  }
+
+  @Test
+  public void testThrottlingDetection() throws Throwable {
+    assertTrue(AdaptiveConcurrency.isThrottled(
+        new IOException("upload failed", THROTTLED)));
+    assertTrue(AdaptiveConcurrency.isThrottled(
+        new IOException("Please reduce your request rate: slow down")));
+    assertFalse(AdaptiveConcurrency.isThrottled(
+        new FileNotFoundException("s3a://bucket/file")));
+  }
+
+  @Test
+  public void testNumbersInMessagesAreNotThrottling() throws Throwable {
+    assertFalse(AdaptiveConcurrency.isThrottled(
+        new FileNotFoundException("s3a://bucket/year=2019/part-503")));
+    assertFalse(AdaptiveConcurrency.isThrottled(
+        new EOFException("Read 503 of 1024 bytes")));
+    assertFalse(AdaptiveConcurrency.isThrottled(
+        new IOException("Request ID 5031A2B; throttle period ended")));
+  }
+
+  @Test
+  public void testAwsExceptionsClassifiedOnStatus() throws Throwable {
+    assertTrue(AdaptiveConcurrency.isThrottled(
+        new AWSServiceThrottledException("PUT s3a://bucket/file",
+            serviceException(503))));
+    assertTrue(AdaptiveConcurrency.isThrottled(
+        new IOException("upload failed", serviceException(429))));
+    assertFalse(AdaptiveConcurrency.isThrottled(
+        new IOException("upload failed", serviceException(403))));
+  }
+
+  private static AmazonServiceException serviceException(int status) {
+    AmazonServiceException e = new AmazonServiceException("failure");
+    e.setStatusCode(status);
+    return e;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the executor of a thread per task, limited by a semaphore.
+ * Platform threads stand in for virtual threads, which only
+ * Java 21+ has.
+ */
+public class TestBoundedExecutor extends Assert {
+
+  @Test
+  public void testLimit() throws Throwable {
+    BoundedExecutor executor = new BoundedExecutor(
+        Executors.newCachedThreadPool(), 3);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger peak = new AtomicInteger();
+    List<Future<Integer>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < 20; i++) {
+        final int task = i;
+        results.add(executor.submit(() -> {
+          peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+          Thread.sleep(10);
+          running.decrementAndGet();
+          return task;
+        }));
+      }
+      for (int i = 0; i < 20; i++) {
+        assertEquals(i, (int) results.get(i).get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals("Peak tasks running", 3, peak.get());
+  }
+
+  @Test
+  public void testInterruptedWaitCancels() throws Throwable {
+    BoundedExecutor executor = new BoundedExecutor(
+        Executors.newCachedThreadPool(), 1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> running = executor.submit(() -> {
+      release.await();
+      return null;
+    });
+    Future<?> waiting = executor.submit(() -> null);
+    Thread.sleep(100);
+    assertFalse("Task ran without a permit", waiting.isDone());
+    executor.shutdownNow();
+    // the interrupted wait completes the future of the waiting task
+    assertTrue("Waiting task not cancelled",
+        awaitDone(waiting) && waiting.isCancelled());
+    release.countDown();
+    assertTrue("Running task not interrupted", awaitDone(running));
+  }
+
+  @Test
+  public void testFallback() throws Throwable {
+    ExecutorService pool = BoundedExecutor.create(2, false);
+    try {
+      assertTrue("Not a pool: " + pool, pool instanceof ThreadPoolExecutor);
+      assertEquals(2, ((ThreadPoolExecutor) pool).getMaximumPoolSize());
+    } finally {
+      pool.shutdown();
+    }
+    ExecutorService virtual = BoundedExecutor.create(2, true);
+    try {
+      assertEquals("Executor " + virtual,
+          BoundedExecutor.isVirtualAvailable(),
+          virtual instanceof BoundedExecutor);
+    } finally {
+      virtual.shutdown();
+    }
+  }
+
+  private static boolean awaitDone(Future<?> future)
+      throws InterruptedException {
+    for (int i = 0; i < 100 && !future.isDone(); i++) {
+      Thread.sleep(10);
+    }
+    return future.isDone();
+  }
+}
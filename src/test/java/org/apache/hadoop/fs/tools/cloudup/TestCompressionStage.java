@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Test the compression of uploads through pipes from a pool.
+ */
+public class TestCompressionStage extends Assert {
+
+  private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+  private final CompressionStage stage = new CompressionStage(
+      CompressionStage.codec("gzip", new Configuration()), pool);
+
+  @After
+  public void teardown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testRoundTrip() throws Throwable {
+    // many chunks of compressed data, so the pipe fills
+    byte[] data = ContractTestUtils.dataset(8 * 1024 * 1024, 'a', 26);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (InputStream in = stage.compress(new ByteArrayInputStream(data))) {
+      IOUtils.copyBytes(in, compressed, 4096);
+    }
+    ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    IOUtils.copyBytes(new GZIPInputStream(
+        new ByteArrayInputStream(compressed.toByteArray())),
+        decompressed, 4096, true);
+    assertArrayEquals(data, decompressed.toByteArray());
+    assertEquals(".gz", stage.getExtension());
+    assertEquals(data.length, stage.getBytesIn());
+    assertEquals(compressed.size(), stage.getBytesOut());
+    assertTrue("Not compressed: " + stage,
+        stage.getBytesOut() < stage.getBytesIn());
+  }
+
+  @Test
+  public void testSourceFailure() throws Throwable {
+    InputStream failing = new InputStream() {
+      private int count;
+
+      @Override
+      public int read() throws IOException {
+        if (count++ >= 100_000) {
+          throw new IOException("source failure");
+        }
+        return 'x';
+      }
+    };
+    try (InputStream in = stage.compress(failing)) {
+      IOUtils.copyBytes(in, new ByteArrayOutputStream(), 4096);
+      fail("No failure");
+    } catch (IOException e) {
+      assertTrue(e.toString(), e.getMessage().contains("source failure"));
+    }
+  }
+
+  @Test
+  public void testUploadClosesEarly() throws Throwable {
+    CountDownLatch closed = new CountDownLatch(1);
+    InputStream endless = new InputStream() {
+      @Override
+      public int read() {
+        return 'x';
+      }
+
+      @Override
+      public void close() {
+        closed.countDown();
+      }
+    };
+    InputStream in = stage.compress(endless);
+    assertTrue(in.read() >= 0);
+    in.close();
+    // the compression stops and closes its source
+    assertTrue("Compression did not stop",
+        closed.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownCodec() throws Throwable {
+    CompressionStage.codec("no-such-codec", new Configuration());
+  }
+}
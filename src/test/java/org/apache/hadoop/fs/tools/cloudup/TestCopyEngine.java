@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
+
+/**
+ * Test each of the copy paths of the copy engine.
+ */
+public class TestCopyEngine extends Assert {
+
+  /** Not a multiple of the buffer size. */
+  private static final int LENGTH = 100_000;
+
+  private static final byte[] DATA = ContractTestUtils.dataset(LENGTH,
+      'a', 26);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final CopyEngine engine = new CopyEngine(4096, 2);
+
+  @Test
+  public void testLocalTransfer() throws Throwable {
+    LocalFileSystem local = FileSystem.getLocal(new Configuration());
+    File source = folder.newFile("source");
+    FileUtils.writeByteArrayToFile(source, DATA);
+    File dest = new File(folder.getRoot(), "dir/dest");
+    Path destPath = new Path(dest.toURI());
+    assertEquals(LENGTH, engine.copy(local, new Path(source.toURI()),
+        local, destPath, false, null));
+    assertArrayEquals(DATA, FileUtils.readFileToByteArray(dest));
+
+    // throttled, so as a series of transfers
+    assertEquals(LENGTH, engine.copy(local, new Path(source.toURI()),
+        local, destPath, true, null, new TokenBucket(100_000_000)));
+    assertArrayEquals(DATA, FileUtils.readFileToByteArray(dest));
+
+    try {
+      engine.copy(local, new Path(source.toURI()), local, destPath, false, null);
+      fail("Expected the copy to fail as the destination exists");
+    } catch (FileAlreadyExistsException expected) {
+      // expected
+    }
+  }
+
+  /**
+   * A failed copy through a filesystem deletes a destination which
+   * it created, but not one which it was overwriting.
+   */
+  @Test
+  public void testFailedCopyDeletesOnlyCreatedFile() throws Throwable {
+    DeleteCountingFileSystem fs = new DeleteCountingFileSystem(
+        FileSystem.getLocal(new Configuration()));
+    Path dest = new Path(folder.getRoot().toURI().toString(), "dest");
+    try {
+      engine.copy(new FailingInputStream(), fs, dest, true);
+      fail("Expected the copy to fail");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertEquals("Deletions after a failed overwrite", 0, fs.deletes);
+
+    try {
+      engine.copy(new FailingInputStream(), fs, dest, false);
+      fail("Expected the copy to fail");
+    } catch (FileAlreadyExistsException expected) {
+      // expected: the partial file of the overwrite was left
+    }
+    assertEquals("Deletions of an existing file", 0, fs.deletes);
+
+    Path created = new Path(dest.getParent(), "created");
+    try {
+      engine.copy(new FailingInputStream(), fs, created, false);
+      fail("Expected the copy to fail");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertEquals("Deletions after a failed creation", 1, fs.deletes);
+    assertFalse("Not deleted: " + created, fs.exists(created));
+  }
+
+  @Test
+  public void testDirectBufferCopy() throws Throwable {
+    File dest = folder.newFile("dest");
+    try (FSDataInputStream in = new FSDataInputStream(
+             new BufferReadableStream(DATA));
+         FileChannel out = FileChannel.open(dest.toPath(),
+             StandardOpenOption.WRITE)) {
+      assertEquals(LENGTH, engine.copy(in, out));
+    }
+    assertArrayEquals(DATA, FileUtils.readFileToByteArray(dest));
+    // a second copy reuses the buffer
+    File dest2 = folder.newFile("dest2");
+    try (FSDataInputStream in = new FSDataInputStream(
+             new BufferReadableStream(DATA));
+         FileChannel out = FileChannel.open(dest2.toPath(),
+             StandardOpenOption.WRITE)) {
+      engine.copy(in, out);
+    }
+    assertArrayEquals(DATA, FileUtils.readFileToByteArray(dest2));
+    assertTrue("Buffers not pooled: " + engine,
+        engine.toString().contains("direct buffers of size 4096:"
+            + " allocated=1"));
+  }
+
+  @Test
+  public void testTransferFromStream() throws Throwable {
+    File dest = folder.newFile("dest");
+    try (FileChannel out = FileChannel.open(dest.toPath(),
+        StandardOpenOption.WRITE)) {
+      assertEquals(LENGTH,
+          engine.transferFrom(new ByteArrayInputStream(DATA), out));
+    }
+    assertArrayEquals(DATA, FileUtils.readFileToByteArray(dest));
+  }
+
+  @Test
+  public void testStreamCopy() throws Throwable {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(LENGTH,
+        engine.copy(new ByteArrayInputStream(DATA), out));
+    assertArrayEquals(DATA, out.toByteArray());
+  }
+
+  /**
+   * A stream over an array which can read into byte buffers,
+   * as HDFS streams can.
+   */
+  private static final class BufferReadableStream extends ByteArrayInputStream
+      implements Seekable, PositionedReadable, ByteBufferReadable {
+
+    private BufferReadableStream(byte[] data) {
+      super(data);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer buf) {
+      int len = Math.min(buf.remaining(), available());
+      if (len == 0) {
+        return buf.hasRemaining() ? -1 : 0;
+      }
+      buf.put(this.buf, pos, len);
+      pos += len;
+      return len;
+    }
+
+    @Override
+    public synchronized void seek(long p) {
+      pos = (int) p;
+    }
+
+    @Override
+    public synchronized long getPos() {
+      return pos;
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) {
+      return false;
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length)
+        throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset,
+        int length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * A stream which fails after some data.
+   */
+  private static final class FailingInputStream extends InputStream {
+
+    private int remaining = 1024;
+
+    @Override
+    public int read() throws IOException {
+      if (remaining == 0) {
+        throw new IOException("Simulated failure");
+      }
+      remaining--;
+      return 'a';
+    }
+  }
+
+  /**
+   * A filesystem which is not local to the copy engine, counting
+   * its deletions.
+   */
+  private static final class DeleteCountingFileSystem
+      extends FilterFileSystem {
+
+    private int deletes;
+
+    private DeleteCountingFileSystem(FileSystem fs) {
+      super(fs);
+    }
+
+    @Override
+    public boolean delete(Path f, boolean recursive) throws IOException {
+      deletes++;
+      return super.delete(f, recursive);
+    }
+  }
+}
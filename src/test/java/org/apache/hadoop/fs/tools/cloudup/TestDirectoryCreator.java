@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+/**
+ * Test the creation of destination directories once each, top-down.
+ */
+public class TestDirectoryCreator extends Assert {
+
+  private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+  private final RecordingFileSystem fs = new RecordingFileSystem();
+
+  private File testDir;
+
+  private Path root;
+
+  @Before
+  public void setup() throws Exception {
+    fs.initialize(new File("/").toURI(), new Configuration());
+    testDir = new File(System.getProperty("test.build.data",
+        "target/test-data"), "TestDirectoryCreator-" + System.nanoTime())
+        .getAbsoluteFile();
+    // so that the creation of the root does not recurse
+    testDir.getParentFile().mkdirs();
+    root = fs.makeQualified(new Path(testDir.toURI()));
+  }
+
+  @After
+  public void teardown() throws Exception {
+    pool.shutdownNow();
+    FileUtil.fullyDelete(testDir);
+    fs.close();
+  }
+
+  @Test
+  public void testTopDownOncePerDirectory() throws Throwable {
+    DirectoryCreator creator = new DirectoryCreator(fs, root, pool);
+    String[] leaves = {"a/b/c", "a/b/d", "a/e", "a/b/c", "f"};
+    for (String leaf : leaves) {
+      creator.create(new Path(root, leaf));
+    }
+    for (String leaf : leaves) {
+      creator.await(new Path(root, leaf));
+      assertTrue(leaf, new File(testDir, leaf).isDirectory());
+    }
+    // root, a, a/b, a/b/c, a/b/d, a/e, f
+    assertEquals(fs.created.toString(), 7, fs.created.size());
+    assertEquals(7, creator.getCreated());
+    assertEquals("Created more than once",
+        7, fs.created.stream().distinct().count());
+    for (Path dir : fs.created) {
+      if (!dir.equals(root)) {
+        assertTrue(dir + " before its parent in " + fs.created,
+            fs.created.indexOf(dir.getParent()) < fs.created.indexOf(dir));
+      }
+    }
+  }
+
+  @Test
+  public void testOutsideRoot() throws Throwable {
+    DirectoryCreator creator = new DirectoryCreator(fs,
+        new Path(root, "dest"), pool);
+    Path other = new Path(root, "other/deep");
+    creator.await(other);
+    assertTrue(new File(testDir, "other/deep").isDirectory());
+    assertEquals("Not a single mkdirs: " + fs.created,
+        other, fs.created.get(0));
+    assertEquals(1, creator.getCreated());
+    assertFalse("Root created", new File(testDir, "dest").exists());
+  }
+
+  @Test
+  public void testFailureIsRetried() throws Throwable {
+    DirectoryCreator creator = new DirectoryCreator(fs, root, pool);
+    Path child = new Path(root, "fail/child");
+    fs.failures = 1;
+    try {
+      creator.await(child);
+      fail("Created " + child);
+    } catch (IOException e) {
+      assertTrue(e.toString(), e.getMessage().contains("injected"));
+    }
+    // the failure is not remembered
+    creator.await(child);
+    assertTrue(new File(testDir, "fail/child").isDirectory());
+  }
+
+  /**
+   * Local filesystem recording every mkdirs, which can fail on demand.
+   */
+  private static final class RecordingFileSystem extends RawLocalFileSystem {
+
+    private final List<Path> created =
+        Collections.synchronizedList(new ArrayList<>());
+
+    private volatile int failures;
+
+    @Override
+    public boolean mkdirs(Path f) throws IOException {
+      synchronized (this) {
+        if (failures > 0) {
+          failures--;
+          throw new IOException("injected failure creating " + f);
+        }
+      }
+      created.add(makeQualified(f));
+      return super.mkdirs(f);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.fs.CompositeCrcFileChecksum;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
+import org.apache.hadoop.fs.store.EtagChecksum;
+import org.apache.hadoop.util.DataChecksum;
+
+/**
+ * Test the inline checksums against known values, and their
+ * comparison with those of destinations.
+ */
+public class TestInlineChecksum extends Assert {
+
+  private static final byte[] CHECK = "123456789".getBytes(
+      StandardCharsets.US_ASCII);
+
+  /** CRC32C of {@link #CHECK}. */
+  private static final String CHECK_CRC32C = "e3069283";
+
+  /** MD5 of {@link #CHECK}. */
+  private static final String CHECK_MD5 = "25f9e794323b453885f5181f1b624d0b";
+
+  @Test
+  public void testCrc32c() throws Throwable {
+    InlineChecksum checksum = InlineChecksum.create("CRC32C");
+    assertEquals(InlineChecksum.CRC32C, checksum.getAlgorithm());
+    checksum.update(CHECK, 0, CHECK.length);
+    assertEquals(CHECK_CRC32C, checksum.getHex());
+  }
+
+  @Test
+  public void testMd5() throws Throwable {
+    InlineChecksum checksum = InlineChecksum.create(InlineChecksum.MD5);
+    checksum.update(CHECK, 0, 4);
+    checksum.update(CHECK, 4, CHECK.length - 4);
+    assertEquals(CHECK_MD5, checksum.getHex());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownAlgorithm() throws Throwable {
+    InlineChecksum.create("sha1");
+  }
+
+  @Test
+  public void testCombineCrcs() throws Throwable {
+    byte[] data = ContractTestUtils.dataset(100_000, 'a', 26);
+    InlineChecksum whole = InlineChecksum.create(InlineChecksum.CRC32C);
+    whole.update(data, 0, data.length);
+
+    // as three parts of unequal size
+    long[] lengths = {40_000, 40_000, 20_000};
+    int[] crcs = new int[lengths.length];
+    int offset = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      InlineChecksum part = InlineChecksum.create(InlineChecksum.CRC32C);
+      part.update(data, offset, (int) lengths[i]);
+      crcs[i] = part.getCrc();
+      offset += lengths[i];
+    }
+    assertEquals(whole.getHex(), InlineChecksum.combineCrcs(crcs, lengths));
+  }
+
+  @Test
+  public void testWrappedStream() throws Throwable {
+    InlineChecksum checksum = InlineChecksum.create(InlineChecksum.CRC32C);
+    InputStream in = InlineChecksum.wrap(new ByteArrayInputStream(CHECK),
+        checksum);
+    assertEquals('1', in.read());
+    assertArrayEquals("23456789".getBytes(StandardCharsets.US_ASCII),
+        IOUtils.toByteArray(in));
+    assertEquals(CHECK_CRC32C, checksum.getHex());
+  }
+
+  @Test
+  public void testMatchesCompositeCrc() throws Throwable {
+    CompositeCrcFileChecksum dest = new CompositeCrcFileChecksum(
+        0xe3069283, DataChecksum.Type.CRC32C, 512);
+    assertEquals(Boolean.TRUE,
+        InlineChecksum.matches(InlineChecksum.CRC32C, CHECK_CRC32C, dest));
+    assertEquals(Boolean.FALSE,
+        InlineChecksum.matches(InlineChecksum.CRC32C, "00000000", dest));
+    assertNull(InlineChecksum.matches(InlineChecksum.MD5, CHECK_MD5, dest));
+    assertNull(InlineChecksum.matches(InlineChecksum.CRC32C, CHECK_CRC32C,
+        null));
+  }
+
+  @Test
+  public void testMatchesEtag() throws Throwable {
+    assertEquals(Boolean.TRUE,
+        InlineChecksum.matches(InlineChecksum.MD5, CHECK_MD5,
+            new EtagChecksum("\"" + CHECK_MD5 + "\"")));
+    assertEquals(Boolean.FALSE,
+        InlineChecksum.matches(InlineChecksum.MD5, CHECK_MD5,
+            new EtagChecksum("0123456789abcdef0123456789abcdef")));
+    // multipart etags are not MD5s of the data
+    assertNull(InlineChecksum.matches(InlineChecksum.MD5, CHECK_MD5,
+        new EtagChecksum(CHECK_MD5 + "-2")));
+  }
+}
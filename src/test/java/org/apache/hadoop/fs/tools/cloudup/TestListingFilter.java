@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the selection of listed files by pattern, size and time.
+ */
+public class TestListingFilter extends Assert {
+
+  private static ListingFilter filter(String[] includes,
+      String... excludes) {
+    return new ListingFilter(includes, excludes,
+        0, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  private static boolean accept(ListingFilter filter, String path) {
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    return filter.accept(path, name, 1, 1);
+  }
+
+  @Test
+  public void testGlobs() throws Throwable {
+    ListingFilter filter = filter(new String[0],
+        "*.tmp", "logs/*/debug-?.log", "**/_temporary/**",
+        "data/{a,b}[0-9].csv");
+    assertFalse(accept(filter, "x.tmp"));
+    assertFalse(accept(filter, "deep/down/x.tmp"));
+    assertTrue(accept(filter, "x.tmp.gz"));
+    assertFalse(accept(filter, "logs/2020/debug-1.log"));
+    assertTrue("* crossed a /", accept(filter, "logs/2020/01/debug-1.log"));
+    assertTrue(accept(filter, "logs/2020/debug-10.log"));
+    assertFalse(accept(filter, "_temporary/0/part-0000"));
+    assertFalse(accept(filter, "out/_temporary/0/part-0000"));
+    assertTrue(accept(filter, "out/part-0000"));
+    assertFalse(accept(filter, "data/b7.csv"));
+    assertTrue(accept(filter, "data/c7.csv"));
+    // globs are literal other than their wildcards
+    assertTrue(accept(filter, "data/a7xcsv"));
+  }
+
+  @Test
+  public void testIncludes() throws Throwable {
+    ListingFilter filter = filter(
+        new String[]{"*.csv", "regex:^keep/.*"}, "*-old.csv");
+    assertTrue(accept(filter, "a/b.csv"));
+    assertTrue(accept(filter, "keep/anything"));
+    assertFalse(accept(filter, "a/b.json"));
+    assertFalse("exclude did not override include",
+        accept(filter, "a/b-old.csv"));
+    assertEquals(2, filter.getExcludedFiles());
+  }
+
+  @Test
+  public void testPruning() throws Throwable {
+    ListingFilter filter = filter(new String[0],
+        "tmp/**", "**/_temporary/**", "logs/*.log", "regex:cache/.*",
+        "regex:dots\\.*", "*.tmp");
+    assertTrue(filter.canPrune());
+    assertTrue(filter.prune("tmp"));
+    assertTrue(filter.prune("tmp/nested"));
+    assertTrue(filter.prune("out/_temporary"));
+    assertTrue(filter.prune("cache"));
+    assertFalse(filter.prune("logs"));
+    assertFalse(filter.prune("out"));
+    assertFalse("escaped dot pruned", filter.prune("dots"));
+    assertEquals(4, filter.getPrunedDirectories());
+    assertFalse("Pruning without excludes",
+        filter(new String[0], "*.tmp").canPrune());
+    assertFalse(ListingFilter.acceptAll().canPrune());
+  }
+
+  @Test
+  public void testSizeAndTime() throws Throwable {
+    long day = 24 * 60 * 60 * 1000L;
+    ListingFilter filter = new ListingFilter(new String[0], new String[0],
+        10, 100, ListingFilter.parseTime("1970-01-02"),
+        ListingFilter.parseTime("1970-01-03T00:00:00Z"));
+    assertTrue(filter.accept("f", "f", 10, day));
+    assertTrue(filter.accept("f", "f", 100, 2 * day - 1));
+    assertFalse(filter.accept("f", "f", 9, day));
+    assertFalse(filter.accept("f", "f", 101, day));
+    assertFalse(filter.accept("f", "f", 50, day - 1));
+    assertFalse(filter.accept("f", "f", 50, 2 * day));
+    assertEquals(day, ListingFilter.parseTime(Long.toString(day)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnbalancedBraces() throws Throwable {
+    ListingFilter.globToRegex("{a,b");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTime() throws Throwable {
+    ListingFilter.parseTime("yesterday");
+  }
+}
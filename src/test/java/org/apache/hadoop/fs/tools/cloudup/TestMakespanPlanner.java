@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the fitting of the upload model and the simulation of runs.
+ */
+public class TestMakespanPlanner extends Assert {
+
+  /** 1 ms per upload. */
+  private static final double LATENCY = 1_000_000;
+
+  /** 1 ns per byte: 1 GB/s. */
+  private static final double PER_BYTE = 1;
+
+  private static final long LARGE = Long.MAX_VALUE;
+
+  @Test
+  public void testFit() throws Throwable {
+    long[] sizes = {0, 1000, 1_000_000, 10_000_000};
+    long[] nanos = new long[sizes.length];
+    for (int i = 0; i < sizes.length; i++) {
+      nanos[i] = 5_000_000 + 2 * sizes[i];
+    }
+    double[] model = MakespanPlanner.fit(sizes, nanos);
+    assertEquals(5_000_000, model[0], 1);
+    assertEquals(2, model[1], 1e-6);
+
+    // samples of one size cannot separate latency from bandwidth
+    model = MakespanPlanner.fit(new long[]{1000, 1000},
+        new long[]{4000, 6000});
+    assertEquals(4000, model[0], 1e-6);
+    assertEquals(1, model[1], 1e-6);
+  }
+
+  @Test
+  public void testSimulation() throws Throwable {
+    long[] sizes = new long[8];
+    Arrays.fill(sizes, 1_000_000);
+    MakespanPlanner planner = new MakespanPlanner(sizes, LATENCY, PER_BYTE,
+        LARGE, 1, 0);
+    assertEquals(2_000_000, planner.duration(1_000_000));
+    // two rounds of four uploads
+    assertEquals(4_000_000, planner.simulate(4, 0).getMakespan());
+    assertEquals(2_000_000, planner.simulate(8, 0).getMakespan());
+    assertEquals(2_000_000, planner.lowerBound(8));
+  }
+
+  @Test
+  public void testLargestFirst() throws Throwable {
+    // one file as long as all the others together on one thread
+    long[] sizes = new long[33];
+    Arrays.fill(sizes, 1_000_000);
+    sizes[7] = 64_000_000;
+    MakespanPlanner planner = new MakespanPlanner(sizes, LATENCY, PER_BYTE,
+        LARGE, 1, 0);
+    MakespanPlanner.Simulation first = planner.simulate(2, 1);
+    assertEquals(planner.duration(64_000_000), first.getMakespan());
+    assertTrue("Random order was no slower: " + planner.simulate(2, 0),
+        planner.simulate(2, 0).getMakespan() >= first.getMakespan());
+    // a random order ends with the large file in the long tail
+    MakespanPlanner.Simulation random = planner.simulate(4, 0);
+    if (random.getMakespan() > first.getMakespan()) {
+      assertEquals(7, random.last(1)[0]);
+    }
+  }
+
+  @Test
+  public void testLargeFilePool() throws Throwable {
+    long[] sizes = {10_000_000, 10_000_000, 1_000_000, 1_000_000};
+    MakespanPlanner planner = new MakespanPlanner(sizes, LATENCY, PER_BYTE,
+        10_000_000, 1, 0);
+    // the large files are uploaded one after the other
+    assertEquals(2 * planner.duration(10_000_000),
+        planner.simulate(8, 0).getMakespan());
+  }
+
+  @Test
+  public void testBest() throws Throwable {
+    long[] sizes = new long[64];
+    Arrays.fill(sizes, 1_000_000);
+    MakespanPlanner planner = new MakespanPlanner(sizes, LATENCY, PER_BYTE,
+        LARGE, 1, 0);
+    // 64 threads upload everything in one round; more add nothing
+    MakespanPlanner.Simulation best = planner.best();
+    assertEquals(64, best.getThreads());
+    assertEquals(planner.duration(1_000_000), best.getMakespan());
+  }
+
+  /**
+   * The best configuration, found from the makespans alone, is
+   * simulated again with the finish of every file.
+   */
+  @Test
+  public void testBestIsBestOfItsThreads() throws Throwable {
+    Random random = new Random(1);
+    long[] sizes = new long[500];
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = (long) Math.exp(random.nextGaussian() * 2 + 12);
+    }
+    MakespanPlanner planner = new MakespanPlanner(sizes, LATENCY, PER_BYTE,
+        LARGE, 1, 0);
+    MakespanPlanner.Simulation best = planner.best();
+    for (int largest : MakespanPlanner.LARGEST_CANDIDATES) {
+      assertTrue("Shorter with largest " + largest,
+          planner.simulate(best.getThreads(), largest).getMakespan()
+              >= best.getMakespan());
+    }
+    long latest = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      assertTrue("No finish of " + i, best.getFinish(i) > 0);
+      latest = Math.max(latest, best.getFinish(i));
+    }
+    assertEquals(best.getMakespan(), latest);
+  }
+
+  @Test
+  public void testLast() throws Throwable {
+    long[] sizes = {1, 3_000_000, 2_000_000, 4};
+    MakespanPlanner planner = new MakespanPlanner(sizes, LATENCY, PER_BYTE,
+        LARGE, 1, 0);
+    MakespanPlanner.Simulation run = planner.simulate(4, 0);
+    assertArrayEquals(new int[]{1, 2}, run.last(2));
+    assertEquals(4, run.last(10).length);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
+
+/**
+ * Test multipart uploads against a store which, like the S3 client
+ * retrying a part, reads some of every part, resets, and reads it again.
+ */
+public class TestMultipartUpload extends Assert {
+
+  private static final int PART_SIZE = 1000;
+
+  /** Three parts, the last one short. */
+  private static final int LENGTH = 2500;
+
+  private static final byte[] DATA = ContractTestUtils.dataset(LENGTH,
+      'a', 26);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ExecutorService partWorkers =
+      Executors.newFixedThreadPool(2);
+
+  @After
+  public void teardown() {
+    partWorkers.shutdownNow();
+  }
+
+  @Test
+  public void testRetriedParts() throws Throwable {
+    File source = folder.newFile("source");
+    FileUtils.writeByteArrayToFile(source, DATA);
+    RetryingStore store = new RetryingStore();
+    MultipartUpload upload = new MultipartUpload(store,
+        FileSystem.getLocal(new Configuration()), partWorkers, PART_SIZE);
+    String crc = upload.upload(new Path(source.toURI()), LENGTH,
+        new Path("/dest"), true, new TokenBucket[]{null});
+    assertArrayEquals(DATA, store.uploaded);
+
+    // the re-read bytes did not update the CRC a second time
+    InlineChecksum checksum = InlineChecksum.create(InlineChecksum.CRC32C);
+    checksum.update(DATA, 0, LENGTH);
+    assertEquals(checksum.getHex(), crc);
+  }
+
+  @Test
+  public void testRetriedThrottledParts() throws Throwable {
+    File source = folder.newFile("source");
+    FileUtils.writeByteArrayToFile(source, DATA);
+    RetryingStore store = new RetryingStore();
+    MultipartUpload upload = new MultipartUpload(store,
+        FileSystem.getLocal(new Configuration()), partWorkers, PART_SIZE);
+    upload.upload(new Path(source.toURI()), LENGTH, new Path("/dest"),
+        false, new TokenBucket(100_000_000));
+    assertArrayEquals(DATA, store.uploaded);
+  }
+
+  /**
+   * Store which keeps the parts in memory, reading half of every part
+   * before resetting its stream.
+   */
+  private static final class RetryingStore implements MultipartStore {
+
+    private final Map<String, byte[]> parts = new ConcurrentHashMap<>();
+
+    private byte[] uploaded;
+
+    @Override
+    public long getMinimumPartSize() {
+      return PART_SIZE;
+    }
+
+    @Override
+    public int getMaximumPartCount() {
+      return 10;
+    }
+
+    @Override
+    public String initiate(Path dest) {
+      return "upload";
+    }
+
+    @Override
+    public String uploadPart(String uploadId, Path dest, int partNumber,
+        InputStream in, long length) throws IOException {
+      assertTrue("mark/reset not supported", in.markSupported());
+      in.mark(1);
+      byte[] half = new byte[(int) length / 2];
+      IOUtils.readFully(in, half);
+      in.reset();
+      byte[] part = IOUtils.toByteArray(in);
+      assertEquals("Part length", length, part.length);
+      String handle = Integer.toString(partNumber);
+      parts.put(handle, part);
+      return handle;
+    }
+
+    @Override
+    public void complete(String uploadId, Path dest, List<String> handles,
+        long length) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (String handle : handles) {
+        out.write(parts.get(handle));
+      }
+      uploaded = out.toByteArray();
+      assertEquals("Uploaded length", length, uploaded.length);
+    }
+
+    @Override
+    public void abort(String uploadId, Path dest) {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
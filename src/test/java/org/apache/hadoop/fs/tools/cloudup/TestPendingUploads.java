@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Test the scheduling of pending uploads across destination prefixes.
+ */
+public class TestPendingUploads extends Assert {
+
+  private final UploadPlan plan = new UploadPlan(
+      new Path("file:///tmp/source"));
+
+  @Test
+  public void testPrefix() throws Throwable {
+    PendingUploads.Sharding none = PendingUploads.Sharding.NONE;
+    assertEquals("", none.prefix("a/b/c"));
+    PendingUploads.Sharding one = PendingUploads.Sharding.parse("1", 0);
+    assertEquals("a", one.prefix("a/b/c"));
+    assertEquals("", one.prefix("top"));
+    PendingUploads.Sharding two = PendingUploads.Sharding.parse("2", 0);
+    assertEquals("a/b", two.prefix("a/b/c"));
+    assertEquals("a/b", two.prefix("a/b/c/d"));
+    assertEquals("a", two.prefix("a/b"));
+    PendingUploads.Sharding hash = PendingUploads.Sharding.parse("hash:4", 0);
+    assertEquals(hash.prefix("a/b/c"), hash.prefix("a/b/d"));
+    assertTrue(hash.prefix("a/b/c").startsWith("#"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSharding() throws Throwable {
+    PendingUploads.Sharding.parse("hash:x", 0);
+  }
+
+  @Test
+  public void testRoundRobin() throws Throwable {
+    PendingUploads pending = new PendingUploads(plan, 0, new Random(0),
+        PendingUploads.Sharding.parse("1", 0));
+    addFiles(pending, 3, 4);
+    assertEquals(3, pending.groups());
+    // every round takes one upload from each prefix
+    for (int round = 0; round < 4; round++) {
+      Set<String> prefixes = new HashSet<>();
+      for (int i = 0; i < 3; i++) {
+        prefixes.add(prefixOf(pending.take()));
+      }
+      assertEquals("Prefixes of round " + round, 3, prefixes.size());
+    }
+    assertEquals(-1, pending.take());
+  }
+
+  @Test
+  public void testShardLimit() throws Throwable {
+    PendingUploads pending = new PendingUploads(plan, 1, new Random(0),
+        PendingUploads.Sharding.parse("1", 1));
+    addFiles(pending, 2, 2);
+    int first = pending.take();
+    int second = pending.take();
+    assertNotEquals(prefixOf(first), prefixOf(second));
+
+    // both prefixes are at their limit, so the next take blocks
+    CompletableFuture<Integer> third = CompletableFuture.supplyAsync(
+        pending::take);
+    Thread.sleep(200);
+    assertFalse("Take did not block", third.isDone());
+    pending.done(first);
+    int index = third.get(10, TimeUnit.SECONDS);
+    assertEquals(prefixOf(first), prefixOf(index));
+    pending.done(second);
+    assertEquals(prefixOf(second), prefixOf(pending.take()));
+    assertEquals(-1, pending.take());
+  }
+
+  /**
+   * Add files under a number of directories, one directory after
+   * another, as a listing would.
+   */
+  private void addFiles(PendingUploads pending, int dirs, int files) {
+    for (int d = 0; d < dirs; d++) {
+      for (int f = 0; f < files; f++) {
+        int index = plan.add("dir-" + d + "/file-" + f, 100 + f, 0);
+        plan.setState(index, UploadEntry.State.queued);
+        pending.add(index);
+      }
+    }
+  }
+
+  private String prefixOf(int index) {
+    assertTrue("No upload taken", index >= 0);
+    String path = plan.getRelativePath(index);
+    return path.substring(0, path.indexOf('/'));
+  }
+}
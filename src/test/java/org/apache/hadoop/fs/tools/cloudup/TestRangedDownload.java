@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.EOFException;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
+
+/**
+ * Test the download of a file as parallel ranges.
+ */
+public class TestRangedDownload extends Assert {
+
+  /** Not a multiple of the range or buffer size. */
+  private static final int LENGTH = 100_000;
+
+  private static final byte[] DATA = ContractTestUtils.dataset(LENGTH,
+      'a', 26);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+  @After
+  public void teardown() {
+    workers.shutdownNow();
+  }
+
+  @Test
+  public void testDownload() throws Throwable {
+    LocalFileSystem local = FileSystem.getLocal(new Configuration());
+    Path source = source();
+    Path dest = new Path(new File(folder.getRoot(), "dir/dest").toURI());
+    RangedDownload download = new RangedDownload(local, workers, 30_000,
+        4096, 4);
+    String crc = download.download(source, LENGTH, local, dest, false,
+        true);
+    assertArrayEquals(DATA, FileUtils.readFileToByteArray(
+        local.pathToFile(dest)));
+    // the combined CRC of the ranges is that of the whole file
+    InlineChecksum whole = InlineChecksum.create(InlineChecksum.CRC32C);
+    whole.update(DATA, 0, LENGTH);
+    assertEquals(whole.getHex(), crc);
+
+    try {
+      download.download(source, LENGTH, local, dest, false, false);
+      fail("Expected the download to fail as the destination exists");
+    } catch (FileAlreadyExistsException expected) {
+      // expected
+    }
+    assertNull(download.download(source, LENGTH, local, dest, true, false));
+    assertArrayEquals(DATA, FileUtils.readFileToByteArray(
+        local.pathToFile(dest)));
+  }
+
+  @Test
+  public void testFailedRangeDeletesFile() throws Throwable {
+    LocalFileSystem local = FileSystem.getLocal(new Configuration());
+    Path dest = new Path(new File(folder.getRoot(), "dest").toURI());
+    RangedDownload download = new RangedDownload(local, workers, 30_000,
+        4096, 4);
+    try {
+      // the last range is beyond the end of the source
+      download.download(source(), LENGTH + 1000, local, dest, false, false);
+      fail("Expected the download to fail");
+    } catch (EOFException expected) {
+      // expected
+    }
+    assertFalse("Partial file not deleted", local.exists(dest));
+  }
+
+  private Path source() throws Exception {
+    File source = folder.newFile("source");
+    FileUtils.writeByteArrayToFile(source, DATA);
+    return new Path(source.toURI());
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.PathPermissionException;
+import org.apache.hadoop.security.AccessControlException;
+
+/**
+ * Test which upload failures are retried.
+ */
+public class TestRetriable extends Assert {
+
+  @Test
+  public void testTransientFailures() throws Throwable {
+    assertTrue(Cloudup.isRetriable(new IOException("503 SlowDown")));
+    assertTrue(Cloudup.isRetriable(new SocketTimeoutException()));
+  }
+
+  @Test
+  public void testPermanentFailures() throws Throwable {
+    assertFalse(Cloudup.isRetriable(new FileNotFoundException()));
+    assertFalse(Cloudup.isRetriable(new FileAlreadyExistsException()));
+    assertFalse(Cloudup.isRetriable(new AccessControlException()));
+    assertFalse(Cloudup.isRetriable(new PathPermissionException("/")));
+    assertFalse(Cloudup.isRetriable(new InterruptedIOException()));
+    assertFalse(Cloudup.isRetriable(new IllegalStateException()));
+  }
+}
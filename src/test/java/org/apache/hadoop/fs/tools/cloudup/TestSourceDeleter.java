@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+import static org.apache.hadoop.tools.store.StoreTestUtils.createTestDir;
+
+/**
+ * Test the batching and parallel deletion of the sources of a move.
+ */
+public class TestSourceDeleter extends Assert {
+
+  @Test
+  public void testBulkDeletePages() throws Throwable {
+    RecordingBulkDelete bulk = new RecordingBulkDelete(3);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      SourceDeleter deleter = new SourceDeleter(null, bulk, pool);
+      for (int i = 0; i < 7; i++) {
+        deleter.delete(new Path("s3a://bucket/file-" + i));
+      }
+      deleter.finish();
+      // two full pages, then the rest on finish
+      assertEquals(3, deleter.getRequests());
+      assertEquals(7, deleter.getDeleted());
+      assertEquals(0, deleter.getFailures());
+      List<Integer> sizes = new ArrayList<>();
+      for (List<Path> page : bulk.pages) {
+        sizes.add(page.size());
+      }
+      Collections.sort(sizes);
+      assertEquals("Page sizes", Arrays.asList(1, 3, 3), sizes);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testBulkDeleteFailures() throws Throwable {
+    RecordingBulkDelete bulk = new RecordingBulkDelete(2);
+    bulk.undeletable = new Path("s3a://bucket/locked");
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      SourceDeleter deleter = new SourceDeleter(null, bulk, pool);
+      deleter.delete(new Path("s3a://bucket/file"));
+      deleter.delete(bulk.undeletable);
+      deleter.finish();
+      assertEquals(1, deleter.getDeleted());
+      assertEquals(1, deleter.getFailures());
+      assertNotNull(deleter.getException());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testParallelDelete() throws Throwable {
+    File dir = createTestDir();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      FileSystem local = FileSystem.getLocal(new Configuration());
+      SourceDeleter deleter = new SourceDeleter(local, null, pool);
+      for (int i = 0; i < 10; i++) {
+        File file = new File(dir, "file-" + i);
+        FileUtils.write(file, "data");
+        deleter.delete(new Path(file.toURI()));
+      }
+      // a file which is not there is not deleted
+      deleter.delete(new Path(new File(dir, "missing").toURI()));
+      deleter.finish();
+      assertEquals(11, deleter.getRequests());
+      assertEquals(10, deleter.getDeleted());
+      assertEquals(1, deleter.getFailures());
+      assertEquals("Files left", 0, dir.list().length);
+    } finally {
+      pool.shutdown();
+      FileUtil.fullyDelete(dir);
+    }
+  }
+
+  /**
+   * Bulk delete which records its pages.
+   */
+  private static final class RecordingBulkDelete implements BulkDelete {
+
+    private final int pageSize;
+
+    private final List<List<Path>> pages =
+        Collections.synchronizedList(new ArrayList<>());
+
+    private Path undeletable;
+
+    private RecordingBulkDelete(int pageSize) {
+      this.pageSize = pageSize;
+    }
+
+    @Override
+    public int getPageSize() {
+      return pageSize;
+    }
+
+    @Override
+    public List<Path> delete(List<Path> paths) throws IOException {
+      assertTrue("Page of " + paths.size(), paths.size() <= pageSize);
+      pages.add(paths);
+      return paths.contains(undeletable)
+          ? Collections.singletonList(undeletable)
+          : Collections.emptyList();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
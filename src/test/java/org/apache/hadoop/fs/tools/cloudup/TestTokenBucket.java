@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the token bucket against a clock which only moves when told to.
+ */
+public class TestTokenBucket extends Assert {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static final long RATE = 1000;
+
+  private final AtomicLong now = new AtomicLong(1_000_000);
+
+  private final TokenBucket bucket = new TokenBucket(RATE, now::get);
+
+  @Test
+  public void testStartsFull() throws Throwable {
+    assertEquals(0, bucket.reserve(RATE));
+    assertEquals("one byte over", SECOND / RATE, bucket.reserve(1));
+  }
+
+  @Test
+  public void testDebtIsSeenByLaterCallers() throws Throwable {
+    bucket.reserve(RATE);
+    assertEquals(SECOND / 2, bucket.reserve(RATE / 2));
+    // waits for its own tokens and the debt of the caller before it
+    assertEquals(SECOND, bucket.reserve(RATE / 2));
+  }
+
+  @Test
+  public void testRefill() throws Throwable {
+    bucket.reserve(2 * RATE);
+    now.addAndGet(SECOND / 2);
+    assertEquals("half the debt left", SECOND / 2, bucket.reserve(0));
+    now.addAndGet(SECOND / 2);
+    assertEquals("debt repaid", 0, bucket.reserve(0));
+    now.addAndGet(SECOND / 2);
+    assertEquals(0, bucket.reserve(RATE / 2));
+    assertEquals(SECOND / RATE, bucket.reserve(1));
+  }
+
+  @Test
+  public void testCapacityIsOneSecond() throws Throwable {
+    // idle for a minute: the bucket holds no more than a second
+    now.addAndGet(60 * SECOND);
+    assertEquals(0, bucket.reserve(RATE));
+    assertEquals(SECOND / RATE, bucket.reserve(1));
+  }
+
+  @Test
+  public void testFromMegabytes() throws Throwable {
+    assertEquals(1024 * 1024, TokenBucket.fromMegabytes(1)
+        .getBytesPerSecond());
+    assertEquals(2_621_440, TokenBucket.fromMegabytes(2.5)
+        .getBytesPerSecond());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRateMustBePositive() throws Throwable {
+    new TokenBucket(0);
+  }
+
+  @Test
+  public void testInterruptedWhileThrottled() throws Throwable {
+    bucket.reserve(RATE);
+    Thread.currentThread().interrupt();
+    try {
+      bucket.acquire(1000 * RATE);
+      fail("Expected the acquire to be interrupted");
+    } catch (InterruptedIOException expected) {
+      assertTrue("Interrupt flag cleared", Thread.interrupted());
+    }
+  }
+}
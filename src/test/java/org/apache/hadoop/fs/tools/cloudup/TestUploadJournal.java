@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.hadoop.fs.Path;
+
+import static org.apache.hadoop.fs.tools.cloudup.UploadEntry.State.failed;
+import static org.apache.hadoop.fs.tools.cloudup.UploadEntry.State.succeeded;
+
+/**
+ * Test the writing and replay of the upload journal.
+ */
+public class TestUploadJournal extends Assert {
+
+  private static final Path SOURCE = new Path("file:///src");
+
+  private static final Path DEST = new Path("file:///dest");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReplayTwoAndThreeColumns() throws Throwable {
+    File file = new File(folder.getRoot(), "journal");
+    try (UploadJournal journal = new UploadJournal(file, SOURCE, DEST)) {
+      journal.open();
+      journal.queued("a");
+      journal.queued("dir/b");
+      journal.queued("c");
+      journal.queued("d");
+      journal.completed("a", succeeded, "CRC32C:e3069283");
+      journal.completed("dir/b", succeeded, null);
+      journal.completed("c", failed, null);
+    }
+    List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
+    assertEquals(UploadJournal.HEADER + "\t" + SOURCE.toUri() + "\t" + DEST,
+        lines.get(0));
+    assertTrue("No three column line in " + lines,
+        lines.contains("succeeded\ta\tCRC32C:e3069283"));
+    assertTrue("No two column line in " + lines,
+        lines.contains("succeeded\tdir/b"));
+
+    // only the files whose last state was succeeded, with the
+    // checksum not part of the key
+    assertEquals(set("a", "dir/b"),
+        new UploadJournal(file, SOURCE, DEST).replay());
+  }
+
+  @Test
+  public void testLastStateWins() throws Throwable {
+    File file = new File(folder.getRoot(), "journal");
+    try (UploadJournal journal = new UploadJournal(file, SOURCE, DEST)) {
+      journal.open();
+      journal.completed("a", succeeded, null);
+      journal.completed("b", failed, null);
+      journal.completed("a", failed, null);
+      journal.completed("b", succeeded, "CRC32C:00000000");
+    }
+    assertEquals(set("b"), new UploadJournal(file, SOURCE, DEST).replay());
+  }
+
+  @Test
+  public void testPartialLastLine() throws Throwable {
+    File file = new File(folder.getRoot(), "journal");
+    try (UploadJournal journal = new UploadJournal(file, SOURCE, DEST)) {
+      journal.open();
+      journal.completed("a", succeeded, null);
+    }
+    // a run killed in the middle of writing a line
+    FileUtils.write(file, "succeed", StandardCharsets.UTF_8, true);
+    assertEquals(set("a"), new UploadJournal(file, SOURCE, DEST).replay());
+
+    // a line cut off in its checksum still has the whole key
+    FileUtils.write(file, "ed\tb\tCRC32C:e30", StandardCharsets.UTF_8, true);
+    assertEquals(set("a", "b"),
+        new UploadJournal(file, SOURCE, DEST).replay());
+  }
+
+  @Test
+  public void testResumeAppends() throws Throwable {
+    File file = new File(folder.getRoot(), "journal");
+    try (UploadJournal journal = new UploadJournal(file, SOURCE, DEST)) {
+      journal.open();
+      journal.completed("a", succeeded, null);
+    }
+    try (UploadJournal journal = new UploadJournal(file, SOURCE, DEST)) {
+      assertEquals(set("a"), journal.replay());
+      journal.open();
+      journal.completed("b", succeeded, null);
+    }
+    List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
+    assertEquals("Lines " + lines, 3, lines.size());
+    assertEquals(set("a", "b"),
+        new UploadJournal(file, SOURCE, DEST).replay());
+  }
+
+  @Test
+  public void testNoJournal() throws Throwable {
+    assertEquals(set(), new UploadJournal(
+        new File(folder.getRoot(), "missing"), SOURCE, DEST).replay());
+  }
+
+  @Test
+  public void testOtherDestination() throws Throwable {
+    File file = new File(folder.getRoot(), "journal");
+    try (UploadJournal journal = new UploadJournal(file, SOURCE, DEST)) {
+      journal.open();
+    }
+    try {
+      new UploadJournal(file, SOURCE, new Path("file:///other")).replay();
+      fail("Replayed a journal of another destination");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  private static Set<String> set(String... keys) {
+    return new HashSet<>(Arrays.asList(keys));
+  }
+}
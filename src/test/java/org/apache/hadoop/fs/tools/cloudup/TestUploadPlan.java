@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Test the compact upload plan.
+ * Its memory use is compared with that of a list of upload entries
+ * by {@code UploadPlanBenchmark}, in the benchmark profile.
+ */
+public class TestUploadPlan extends Assert {
+
+  private static final Path SOURCE = new Path("file:///tmp/source");
+
+  private static final Path DEST = new Path("s3a://bucket/dest");
+
+  @Test
+  public void testRoundTrip() throws Throwable {
+    UploadPlan plan = new UploadPlan(SOURCE);
+    String[] names = {"a", "dir/b", "dir/with space", "c:d", "\u00e9t\u00e9",
+        "100%"};
+    for (int i = 0; i < names.length; i++) {
+      Path path = new Path(SOURCE, new Path(null, null, names[i]));
+      String relative = SOURCE.toUri().relativize(path.toUri()).getRawPath();
+      assertEquals("index", i, plan.add(relative, i * 10, i * 100));
+    }
+    assertEquals("size", names.length, plan.size());
+    for (int i = 0; i < names.length; i++) {
+      Path expected = new Path(SOURCE, new Path(null, null, names[i]));
+      assertEquals("source of " + names[i], expected, plan.getSource(i));
+      assertEquals("size of " + names[i], i * 10, plan.getSize(i));
+      assertEquals("time of " + names[i], i * 100,
+          plan.getModificationTime(i));
+      assertEquals("state", UploadEntry.State.ready, plan.getState(i));
+    }
+    plan.setState(2, UploadEntry.State.active);
+    UploadEntry entry = plan.createEntry(2, DEST);
+    assertEquals("index", 2, entry.getIndex());
+    assertEquals("state", UploadEntry.State.active, entry.getState());
+    assertEquals("dest", DEST, entry.getDest());
+  }
+
+  @Test
+  public void testEmptyRelativePath() throws Throwable {
+    UploadPlan plan = new UploadPlan(SOURCE);
+    plan.add("", 1, 1);
+    assertEquals("source", SOURCE, plan.getSource(0));
+  }
+
+  @Test
+  public void testGrowth() throws Throwable {
+    UploadPlan plan = new UploadPlan(SOURCE);
+    // paths which fill more than one chunk of the arena
+    int count = UploadPlan.CHUNK_SIZE / 100 * 3;
+    for (int i = 0; i < count; i++) {
+      plan.add(String.format("dir-%090d", i), i, i);
+    }
+    assertEquals("size", count, plan.size());
+    for (int i = 0; i < count; i += 997) {
+      assertEquals(String.format("dir-%090d", i), plan.getRelativePath(i));
+      assertEquals("size", i, plan.getSize(i));
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testIndexOutOfBounds() throws Throwable {
+    new UploadPlan(SOURCE).getSize(0);
+  }
+
+  @Test
+  public void testPendingUploadsLargestFirst() throws Throwable {
+    UploadPlan plan = new UploadPlan(SOURCE);
+    PendingUploads pending = PendingUploads.largestFirst(plan);
+    long[] sizes = {3, 9, 1, 7};
+    for (long size : sizes) {
+      int index = plan.add("f" + size, size, 0);
+      plan.setState(index, UploadEntry.State.queued);
+      pending.add(index);
+    }
+    assertEquals(9, plan.getSize(pending.take()));
+    assertEquals(7, plan.getSize(pending.take()));
+    assertEquals(3, plan.getSize(pending.take()));
+    assertEquals(1, plan.getSize(pending.take()));
+    assertEquals(-1, pending.take());
+    assertEquals(0, pending.size());
+  }
+}
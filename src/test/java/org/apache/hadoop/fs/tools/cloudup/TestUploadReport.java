@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.tools.cloudup;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Test the percentiles, buckets and output of the upload report.
+ */
+public class TestUploadReport extends Assert {
+
+  private static final long MB = 1024 * 1024;
+
+  @Test
+  public void testPercentile() throws Throwable {
+    long[] sorted = new long[100];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = i + 1;
+    }
+    assertEquals(50, UploadReport.percentile(sorted, 50));
+    assertEquals(90, UploadReport.percentile(sorted, 90));
+    assertEquals(99, UploadReport.percentile(sorted, 99));
+    assertEquals(100, UploadReport.percentile(sorted, 100));
+    assertEquals(7, UploadReport.percentile(new long[]{7}, 50));
+  }
+
+  @Test
+  public void testBucket() throws Throwable {
+    assertEquals(0, UploadReport.bucket(0));
+    assertEquals(0, UploadReport.bucket(MB - 1));
+    assertEquals(1, UploadReport.bucket(MB));
+    assertEquals(3, UploadReport.bucket(1023 * MB));
+    assertEquals(4, UploadReport.bucket(1024 * MB));
+  }
+
+  @Test
+  public void testReport() throws Throwable {
+    UploadPlan plan = new UploadPlan(new Path("file:///src"));
+    UploadReport report = new UploadReport(plan);
+    // 100 small files taking 1..100ms, one large file
+    for (int i = 1; i <= 100; i++) {
+      report.record(plan.add("small-" + i, 1024, 0), i, true, 1, null);
+    }
+    report.record(plan.add("large", 200 * MB, 0), 2000, true, 2,
+        "crc32c:0");
+    report.record(plan.add("failed", 1024, 0), 5000, false, 3, null);
+    assertEquals(102, report.size());
+
+    List<UploadReport.Bucket> buckets = report.buckets();
+    assertEquals("Buckets " + buckets, 2, buckets.size());
+    UploadReport.Bucket small = buckets.get(0);
+    assertEquals("<1M", small.getName());
+    assertEquals("failures are not in the percentiles",
+        100, small.getCount());
+    assertEquals(50, small.getP50());
+    assertEquals(90, small.getP90());
+    assertEquals(99, small.getP99());
+    assertEquals(100, small.getMax());
+    assertEquals("128M-1G", buckets.get(1).getName());
+    assertEquals(100, buckets.get(1).throughput(), 0.001);
+
+    int[] slowest = report.slowest(2);
+    assertEquals(2, slowest.length);
+    assertEquals("slowest", 101, slowest[0]);
+    assertEquals("second slowest", 100, slowest[1]);
+    assertEquals(102, report.slowest(1000).length);
+    assertEquals(0, report.slowest(0).length);
+
+    StringWriter csv = new StringWriter();
+    report.writeCsv(csv);
+    String[] lines = csv.toString().split("\n");
+    assertEquals(103, lines.length);
+    assertEquals(
+        "\"large\"," + (200 * MB) + ",2000,100.000,succeeded,2,crc32c:0",
+        lines[101]);
+    assertEquals("\"failed\",1024,5000,0.000,failed,3,", lines[102]);
+
+    StringWriter json = new StringWriter();
+    report.writeJson(json, 2);
+    String summary = json.toString();
+    assertTrue(summary, summary.contains("\"uploads\": 102"));
+    assertTrue(summary, summary.contains("\"p99_ms\": 99"));
+    assertTrue("slowest first: " + summary,
+        summary.indexOf("\"path\": \"failed\"")
+            < summary.indexOf("\"path\": \"large\""));
+  }
+
+  @Test
+  public void testCsvQuoting() throws Throwable {
+    UploadPlan plan = new UploadPlan(new Path("file:///src"));
+    UploadReport report = new UploadReport(plan);
+    report.record(plan.add("dir/a,b", 1024, 0), 10, true, 1, null);
+    report.record(plan.add("say \"hi\"", 1024, 0), 10, true, 1, null);
+    StringWriter csv = new StringWriter();
+    report.writeCsv(csv);
+    String[] lines = csv.toString().split("\n");
+    assertEquals(3, lines.length);
+    assertEquals("\"dir/a,b\",1024,10,0.098,succeeded,1,", lines[1]);
+    assertEquals("\"say \"\"hi\"\"\",1024,10,0.098,succeeded,1,",
+        lines[2]);
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.tools.cloudup;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.store.StoreUtils;
+import org.apache.hadoop.fs.store.test.SimulatedStoreFileSystem;
+import org.apache.hadoop.fs.tools.cloudup.Cloudup;
+
+import static org.apache.hadoop.tools.store.StoreTestUtils.*;
+
+/**
+ * Benchmark of uploads in thread pools against uploads in virtual
+ * threads, at different limits of the uploads in flight, to the
+ * simulated store, with a fixed latency on the create and the close
+ * of every write, as a remote store has. On JVMs without virtual threads, only the pools are
+ * benchmarked, and the test of virtual threads is skipped.
+ */
+public class ITestExecutorBenchmark extends Assert {
+
+  protected static final Logger LOG =
+      LoggerFactory.getLogger(ITestExecutorBenchmark.class);
+
+  private static final int FILES = 64;
+
+  private static final int LATENCY = 25;
+
+  private static final int[] CONCURRENCY = {4, 16, 64};
+
+  @Rule
+  public Timeout testTimeout = new Timeout(2, TimeUnit.MINUTES);
+
+  private File testDir;
+
+  private File sourceDir;
+
+  private File destDir;
+
+  @Before
+  public void setup() throws Exception {
+    testDir = createTestDir();
+    sourceDir = new File(testDir, "src");
+    destDir = new File(testDir, "dest");
+  }
+
+  @After
+  public void teardown() throws Exception {
+    if (testDir != null) {
+      FileUtil.fullyDelete(testDir);
+    }
+  }
+
+  @Test
+  public void testPoolThroughput() throws Throwable {
+    int expected = createTestFiles(sourceDir, FILES);
+    benchmark(expected, false);
+  }
+
+  /**
+   * Pools against virtual threads; skipped on JVMs without them.
+   * To run it, run the test on Java 21+, for example by setting
+   * {@code JAVA_HOME} to a Java 21 JDK before running maven.
+   */
+  @Test
+  public void testVirtualThroughput() throws Throwable {
+    Assume.assumeTrue("No virtual threads in Java "
+            + System.getProperty("java.specification.version"),
+        isVirtualAvailable());
+    int expected = createTestFiles(sourceDir, FILES);
+    benchmark(expected, true);
+  }
+
+  /**
+   * Upload the files at every concurrency level, in pools and,
+   * if requested, in virtual threads; log the table of throughputs
+   * and verify that they rise with the concurrency.
+   */
+  private void benchmark(int expected, boolean virtual) throws Throwable {
+    StringBuilder table = new StringBuilder(
+        String.format("%n%12s %16s %16s%n", "concurrency", "pool files/s",
+            "virtual files/s"));
+    double[] lowest = new double[2];
+    double[] highest = new double[2];
+    for (int concurrency : CONCURRENCY) {
+      double pool = upload(concurrency, false, expected);
+      double threads = virtual ? upload(concurrency, true, expected) : 0;
+      table.append(String.format("%12d %16.1f %16s%n", concurrency, pool,
+          virtual ? String.format("%.1f", threads) : "-"));
+      if (lowest[0] == 0) {
+        lowest[0] = pool;
+        lowest[1] = threads;
+      }
+      highest[0] = pool;
+      highest[1] = threads;
+    }
+    LOG.info("Uploads of {} files with a latency of {} ms on create and"
+            + " close on Java {}:{}",
+        expected, LATENCY, System.getProperty("java.version"), table);
+    assertTrue("Throughput of pools did not rise with concurrency: "
+        + table, highest[0] > lowest[0]);
+    if (virtual) {
+      assertTrue("Throughput of virtual threads did not rise with"
+          + " concurrency: " + table, highest[1] > lowest[1]);
+    }
+  }
+
+  /**
+   * Upload all files.
+   * @return the throughput in files per second.
+   */
+  private double upload(int concurrency, boolean virtual, int expected)
+      throws Throwable {
+    FileUtil.fullyDelete(destDir);
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+    String[] args = {
+        "-D", "fs." + SimulatedStoreFileSystem.SCHEME
+            + ".impl.disable.cache=true",
+        "-D", SimulatedStoreFileSystem.LATENCY + "create=" + LATENCY,
+        "-D", SimulatedStoreFileSystem.LATENCY + "close=" + LATENCY,
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", Integer.toString(concurrency),
+        "-lt", Integer.toString(concurrency)};
+    if (virtual) {
+      args = StoreUtils.cat(args, new String[]{"-virtual"});
+    }
+    long start = System.nanoTime();
+    expectSuccess(new Cloudup(), args);
+    long duration = System.nanoTime() - start;
+    assertEquals("Files uploaded", expected,
+        FileUtils.listFiles(destDir, null, true).size());
+    return expected * 1.0e9 / duration;
+  }
+
+  private static boolean isVirtualAvailable() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+}
@@ -19,11 +19,17 @@
 package org.apache.hadoop.tools.cloudup;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -37,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
@@ -44,6 +51,13 @@ import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.contract.ContractTestUtils;
+import org.apache.hadoop.fs.store.test.SimulatedStoreFileSystem;
+import org.apache.hadoop.fs.store.test.SimulatedStoreFileSystem.Operation;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.PureJavaCrc32C;
+import org.apache.hadoop.fs.store.StoreUtils;
 import org.apache.hadoop.fs.tools.cloudup.Cloudup;
 
 import static org.apache.hadoop.fs.store.StoreExitCodes.E_USAGE;
@@ -88,6 +102,8 @@ public class ITestLocalCloudup extends Assert {
     if (methodDir != null) {
       FileUtil.fullyDelete(methodDir);
     }
+    // so no test is given the simulated store of another
+    FileSystem.closeAll();
   }
 
 
@@ -182,4 +198,720 @@ public class ITestLocalCloudup extends Assert {
 
   }
 
+  @Test
+  public void testCopyRecursiveSingleThread() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+
+    // uploads in one thread, with the destination listed for the update
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-t", "1",
+        "-u");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+  }
+
+  @Test
+  public void testCopyRecursiveLargeFilePool() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+
+    // everything over 1K goes through the large file pool
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-t", "4",
+        "-lt", "1",
+        "-ls", "1k");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+  }
+
+  @Test
+  public void testBandwidthLimit() throws Throwable {
+    mkdirs(sourceDir);
+    FileUtils.writeByteArrayToFile(new File(sourceDir, "data"),
+        ContractTestUtils.dataset(256 * 1024, 32, 64));
+    // 0.1 MB/s, with one second's worth of data allowed as a burst,
+    // takes over a second for the rest.
+    long start = System.currentTimeMillis();
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-bandwidth", "0.1");
+    long duration = System.currentTimeMillis() - start;
+    assertEquals("Mismatch in files found", 1, countDestFiles());
+    assertTrue("Upload was not throttled; duration " + duration,
+        duration >= 1000);
+  }
+
+  @Test
+  public void testAdaptiveConcurrencyAgainstThrottlingStore()
+      throws Throwable {
+    createTestFiles(sourceDir, 64);
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+
+    // a fixed pool of 16 threads against a store allowing a write
+    // or so at a time in a directory
+    expectSuccess(new Cloudup(), throttledUpload(dest));
+    long fixed = simulatedStore(dest).getThrottled();
+    LOG.info("Throttle events with fixed concurrency: {}", fixed);
+
+    FileUtil.fullyDelete(destDir);
+    expectSuccess(new Cloudup(), StoreUtils.cat(throttledUpload(dest),
+        new String[]{"-a"}));
+    long adaptive = simulatedStore(dest).getThrottled();
+    LOG.info("Throttle events with adaptive concurrency: {}", adaptive);
+    assertTrue("Adaptive concurrency was throttled " + adaptive
+            + " times; fixed concurrency " + fixed + " times",
+        adaptive < fixed);
+  }
+
+  /**
+   * Benchmark of the shard-aware scheduling against a random order,
+   * uploading to a store which limits the request rate of every
+   * directory, with most files in one directory. In a random order,
+   * most uploads in flight are in that directory, exceeding its rate;
+   * shard-aware, at most two are, each a write of 100 ms.
+   */
+  @Test
+  public void testShardAwareSchedulingAgainstPrefixThrottling()
+      throws Throwable {
+    int dirs = 8;
+    int total = 0;
+    for (int d = 0; d < dirs; d++) {
+      File dir = new File(sourceDir, "dir-" + d);
+      mkdirs(dir);
+      int files = d == 0 ? 64 : 4;
+      for (int f = 0; f < files; f++) {
+        FileUtils.write(new File(dir, "file-" + f), "data " + f);
+      }
+      total += files;
+    }
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+    String[] args = {
+        "-D", SimulatedStoreFileSystem.LATENCY + "create=50",
+        "-D", SimulatedStoreFileSystem.LATENCY + "close=50",
+        "-D", SimulatedStoreFileSystem.PREFIX_RATE + "=100",
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", "16",
+        "-l", "0",
+        "-i"};
+
+    // a random order: a single group
+    long start = System.currentTimeMillis();
+    expectSuccess(new Cloudup(), StoreUtils.cat(args,
+        new String[]{"-shard", "0"}));
+    long shuffledTime = System.currentTimeMillis() - start;
+    long shuffled = simulatedStore(dest).getThrottled();
+    int shuffledFiles = countDestFiles();
+
+    // round-robin across directories, two in flight in each
+    FileUtil.fullyDelete(destDir);
+    start = System.currentTimeMillis();
+    expectSuccess(new Cloudup(), StoreUtils.cat(args,
+        new String[]{"-shard", "1", "-shardlimit", "2"}));
+    long shardedTime = System.currentTimeMillis() - start;
+    SimulatedStoreFileSystem store = simulatedStore(dest);
+    long sharded = store.getThrottled();
+
+    LOG.info("Random order: {} throttle events, {} uploads in {} ms;"
+            + " shard-aware: {} throttle events, {} uploads in {} ms",
+        shuffled, shuffledFiles, shuffledTime,
+        sharded, countDestFiles(), shardedTime);
+    assertEquals("Shard-aware uploads were throttled: " + store,
+        0, sharded);
+    assertEquals("Files uploaded", total, countDestFiles());
+    assertTrue("Random order was never throttled", shuffled > 0);
+  }
+
+  /**
+   * Retries of throttled uploads are taken from the pending uploads
+   * again, so they are within the limit of their shard: one write at
+   * a time per directory.
+   */
+  @Test
+  public void testRetriesWithinShardLimit() throws Throwable {
+    int dirs = 4;
+    int files = 16;
+    for (int d = 0; d < dirs; d++) {
+      File dir = new File(sourceDir, "dir-" + d);
+      mkdirs(dir);
+      for (int f = 0; f < files; f++) {
+        FileUtils.write(new File(dir, "file-" + f), "data " + f);
+      }
+    }
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+    expectSuccess(new Cloudup(),
+        "-D", SimulatedStoreFileSystem.PREFIX_RATE + "=20",
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", "8",
+        "-l", "0",
+        "-shard", "1",
+        "-shardlimit", "1",
+        "-attempts", "20",
+        "-backoff", "5");
+    SimulatedStoreFileSystem store = simulatedStore(dest);
+    assertTrue("Uploads were never throttled: " + store,
+        store.getThrottled() > 0);
+    assertEquals("Writes at the same time in a directory", 1,
+        store.getPeakWritesPerPrefix());
+    assertEquals("Files uploaded", dirs * files, countDestFiles());
+  }
+
+  @Test
+  public void testRetriesAgainstThrottlingStore() throws Throwable {
+    int expected = createTestFiles(sourceDir, 32);
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+    File reportDir = new File(methodDir, "report");
+    // without -i, so any failure after all its attempts fails the run
+    expectSuccess(new Cloudup(),
+        "-D", SimulatedStoreFileSystem.PREFIX_RATE + "=20",
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", "8",
+        "-attempts", "10",
+        "-backoff", "100",
+        "-report", reportDir.getAbsolutePath());
+    long throttled = simulatedStore(dest).getThrottled();
+    LOG.info("Throttle events: {}", throttled);
+    assertTrue("Uploads were never throttled", throttled > 0);
+    assertEquals("Files uploaded", expected, countDestFiles());
+
+    // the report records the attempts of every file
+    int retried = 0;
+    for (String row : FileUtils.readLines(
+        new File(reportDir, "uploads.csv"))) {
+      String[] fields = row.split(",");
+      if (!fields[0].equals("path")) {
+        assertEquals("State of " + row, "succeeded", fields[4]);
+        if (Integer.parseInt(fields[5]) > 1) {
+          retried++;
+        }
+      }
+    }
+    assertTrue("No file was retried", retried > 0);
+  }
+
+  /**
+   * Upload to the simulated store, whose request rate limit under
+   * the destination directory is exceeded, so uploads are retried.
+   */
+  @Test
+  public void testUploadToSimulatedStore() throws Throwable {
+    int expected = createTestFiles(sourceDir, 32);
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+    expectSuccess(new Cloudup(),
+        "-D", SimulatedStoreFileSystem.LATENCY_DEFAULT + "=uniform:1,5",
+        "-D", SimulatedStoreFileSystem.PREFIX_RATE + "=20",
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", "8",
+        "-attempts", "10",
+        "-backoff", "100");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+    SimulatedStoreFileSystem store = simulatedStore(dest);
+    LOG.info("{}", store);
+    assertTrue("Never throttled: " + store, store.getThrottled() > 0);
+  }
+
+  /**
+   * Upload with a window smaller than the pool, and with retries,
+   * which are also in the window while they wait.
+   */
+  @Test
+  public void testUploadWindow() throws Throwable {
+    int expected = createTestFiles(sourceDir, 32);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-t", "4",
+        "-window", "1");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+    FileUtil.fullyDelete(destDir);
+    expectSuccess(new Cloudup(),
+        "-D", SimulatedStoreFileSystem.PREFIX_RATE + "=20",
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", "8",
+        "-window", "3",
+        "-attempts", "20",
+        "-backoff", "5");
+    assertTrue("Uploads were never throttled",
+        simulatedStore(dest).getThrottled() > 0);
+    assertEquals("Files uploaded", expected, countDestFiles());
+  }
+
+  /**
+   * A dry run predicts the run, leaving nothing at the destination.
+   */
+  @Test
+  public void testPlan() throws Throwable {
+    createTestFiles(sourceDir, 32);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-plan");
+    assertEquals("Files found after a plan", 0, countDestFiles());
+  }
+
+  /**
+   * Upload in virtual threads; on JVMs without them, in the pools.
+   */
+  @Test
+  public void testVirtualThreads() throws Throwable {
+    int expected = createTestFiles(sourceDir, 32);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-t", "4",
+        "-virtual");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+  }
+
+  /**
+   * Download from a non-local filesystem to a local one: large files
+   * are downloaded as ranges, each through its own stream.
+   */
+  @Test
+  public void testRangedDownload() throws Throwable {
+    mkdirs(sourceDir);
+    byte[] data = ContractTestUtils.dataset(100_000, 'a', 26);
+    File large = new File(sourceDir, "large");
+    FileUtils.writeByteArrayToFile(large, data);
+    FileUtils.write(new File(sourceDir, "small"), "small");
+    String source = SimulatedStoreFileSystem.SCHEME + "://"
+        + sourceDir.toURI().getPath();
+    File journal = new File(methodDir, "journal");
+    expectSuccess(new Cloudup(),
+        "-s", source,
+        "-d", destDir.toURI().toString(),
+        "-ms", "64K",
+        "-ps", "16K",
+        "-checksum", "crc32c",
+        "-j", journal.getAbsolutePath());
+    assertArrayEquals(data,
+        FileUtils.readFileToByteArray(new File(destDir, "large")));
+    assertEquals("small",
+        FileUtils.readFileToString(new File(destDir, "small")));
+    // seven ranges of the large file, one stream of the small one
+    assertEquals("Files opened", 8,
+        simulatedStore(source).getRequests(Operation.open));
+
+    // the CRC of the ranges is combined into that of the file
+    PureJavaCrc32C crc = new PureJavaCrc32C();
+    crc.update(data, 0, data.length);
+    String expected = String.format("succeeded\tlarge\tcrc32c:%08x",
+        crc.getValue());
+    assertTrue("No checksum " + expected + " in journal",
+        FileUtils.readLines(journal).contains(expected));
+  }
+
+  /**
+   * A move deletes the sources of the uploaded and packed files,
+   * but not of those whose upload failed.
+   */
+  @Test
+  public void testMove() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+    File existing = new File(destDir, "subdir/file-00");
+    FileUtils.write(existing, "existing");
+    // only "top" is small enough to pack
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-pack", "10",
+        "-i",
+        "-move");
+    assertEquals("existing", FileUtils.readFileToString(existing));
+    assertTrue("Source of failed upload deleted",
+        new File(sourceDir, "subdir/file-00").isFile());
+    assertEquals("Source files left", 1, countFiles(sourceDir));
+    assertTrue("Not uploaded: largest",
+        new File(destDir, "subdir/largest").isFile());
+    // every file other than top, plus a container and its index
+    assertEquals("Files at destination", expected - 1 + 2,
+        countFiles(destDir));
+  }
+
+  /**
+   * Filters select the files listed, and an excluded directory
+   * is not listed at all.
+   */
+  @Test
+  public void testFilters() throws Throwable {
+    createTestFiles(sourceDir, 16);
+    File tmp = new File(sourceDir, "tmp/nested");
+    mkdirs(tmp);
+    FileUtils.write(new File(tmp, "file-00"), "temporary");
+    String source = SimulatedStoreFileSystem.SCHEME + "://"
+        + sourceDir.toURI().getPath();
+    expectSuccess(new Cloudup(),
+        "-s", source,
+        "-d", destDir.toURI().toString(),
+        "-include", "file-0?",
+        "-include", "regex:.*/largest",
+        "-exclude", "**/file-0{1,2}",
+        "-exclude", "tmp/**",
+        "-maxsize", "8k");
+    // the source, subdir; not tmp or tmp/nested
+    assertEquals("Directories listed", 2,
+        simulatedStore(source).getRequests(Operation.list));
+    assertFalse("Uploaded: top", new File(destDir, "top").exists());
+    assertFalse("Uploaded: tmp", new File(destDir, "tmp").exists());
+    assertFalse("Uploaded: file-01",
+        new File(destDir, "subdir/file-01").exists());
+    assertFalse("Uploaded: file-10",
+        new File(destDir, "subdir/file-10").exists());
+    assertTrue("Not uploaded: largest",
+        new File(destDir, "subdir/largest").isFile());
+    // file-00, file-03..09, largest
+    assertEquals("Files uploaded", 9, countDestFiles());
+
+    // the size predicate rejects the largest file
+    FileUtil.fullyDelete(destDir);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-minsize", "8k");
+    assertEquals("Files uploaded", 1, countDestFiles());
+  }
+
+  /**
+   * Compressed uploads have the codec's suffix and decompress to
+   * the source; their checksums are of the compressed data.
+   */
+  @Test
+  public void testCompress() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-compress", "gzip",
+        "-checksum", "crc32c",
+        "-verify");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+    File largest = new File(destDir, "subdir/largest.gz");
+    assertTrue("Not uploaded: " + largest, largest.isFile());
+    assertArrayEquals(
+        FileUtils.readFileToByteArray(new File(sourceDir, "subdir/largest")),
+        gunzip(largest));
+    assertEquals("toplevel",
+        new String(gunzip(new File(destDir, "top.gz")), "UTF-8"));
+  }
+
+  private static byte[] gunzip(File file) throws IOException {
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      return IOUtils.toByteArray(in);
+    }
+  }
+
+  /**
+   * Every destination directory is created once, however many files
+   * are uploaded into it.
+   */
+  @Test
+  public void testDirectoriesCreatedOnce() throws Throwable {
+    int expected = 0;
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int k = 0; k < 3; k++) {
+          FileUtils.write(
+              new File(sourceDir, "a" + i + "/b" + j + "/file-" + k),
+              "file-" + k);
+          expected++;
+        }
+      }
+    }
+    String dest = SimulatedStoreFileSystem.SCHEME + "://"
+        + destDir.toURI().getPath();
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", "8");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+    assertEquals("a3/b3/file-2", "file-2",
+        FileUtils.readFileToString(new File(destDir, "a3/b3/file-2")));
+    SimulatedStoreFileSystem store = simulatedStore(dest);
+    // the destination, four aN and sixteen aN/bN
+    assertEquals("Directories created", 21,
+        store.getRequests(Operation.mkdirs));
+    assertEquals("Files created", expected,
+        store.getRequests(Operation.create));
+  }
+
+  @Test
+  public void testResumeFromJournal() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+    File journal = new File(methodDir, "journal");
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-j", journal.getAbsolutePath());
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+
+    // everything is in the journal, so resuming uploads nothing
+    FileUtil.fullyDelete(destDir);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-j", journal.getAbsolutePath(),
+        "-r");
+    assertFalse("Files were uploaded", destDir.exists());
+
+    // strip the completion of one file from the journal; only that
+    // file is uploaded on the next resume
+    List<String> lines = FileUtils.readLines(journal);
+    assertTrue("No completion of largest file in " + lines,
+        lines.remove("succeeded\tsubdir/largest"));
+    FileUtils.writeLines(journal, lines);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-j", journal.getAbsolutePath(),
+        "-r");
+    assertEquals("Mismatch in files found", 1, countDestFiles());
+    assertTrue("Not uploaded: largest",
+        new File(destDir, "subdir/largest").isFile());
+  }
+
+  @Test
+  public void testUpdate() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString());
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+
+    // stamp the destination files so that any upload can be detected
+    final long stamp = (System.currentTimeMillis() / 1000 + 3600) * 1000;
+    for (File f : FileUtils.listFiles(destDir, null, true)) {
+      assertTrue("Failed to set time of " + f, f.setLastModified(stamp));
+    }
+
+    // change one file, delete the destination of another
+    FileUtils.write(new File(sourceDir, "top"), "changed top level");
+    File missing = new File(destDir, "subdir/file-01");
+    assertTrue("Failed to delete " + missing, missing.delete());
+
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-u");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+    assertEquals("changed top level",
+        FileUtils.readFileToString(new File(destDir, "top")));
+    assertTrue("Not uploaded: " + missing, missing.isFile());
+    for (File f : FileUtils.listFiles(new File(destDir, "subdir"), null,
+        true)) {
+      if (!f.equals(missing)) {
+        assertEquals("Uploaded unchanged file " + f,
+            stamp, f.lastModified());
+      }
+    }
+  }
+
+  @Test
+  public void testPackSmallFiles() throws Throwable {
+    createTestFiles(sourceDir, 16);
+    // pack everything under 1K, with containers of about 512 bytes
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-pack", "1k",
+        "-packsize", "512");
+    assertTrue("Not uploaded: largest",
+        new File(destDir, "subdir/largest").isFile());
+    assertFalse("Uploaded: top", new File(destDir, "top").exists());
+
+    // read every file back through the indices
+    Configuration conf = new Configuration();
+    LocalFileSystem local = FileSystem.getLocal(conf);
+    File packDir = new File(destDir, "_packed");
+    Set<String> packed = new TreeSet<>();
+    int containers = 0;
+    for (File index : FileUtils.listFiles(packDir, new String[]{"index"},
+        false)) {
+      containers++;
+      File container = new File(packDir,
+          index.getName().replace(".index", ".seq"));
+      assertTrue("No container " + container, container.isFile());
+      byte[] data = FileUtils.readFileToByteArray(container);
+      for (String line : FileUtils.readLines(index)) {
+        String[] fields = line.split("\t");
+        int offset = Integer.parseInt(fields[1]);
+        int length = Integer.parseInt(fields[2]);
+        byte[] expected = FileUtils.readFileToByteArray(
+            new File(sourceDir, fields[0]));
+        assertArrayEquals("Data of " + fields[0], expected,
+            Arrays.copyOfRange(data, offset, offset + length));
+        packed.add(fields[0]);
+      }
+      // and the container is a valid sequence file
+      try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+          SequenceFile.Reader.file(
+              local.makeQualified(new Path(container.toURI()))))) {
+        assertEquals(Text.class, reader.getKeyClass());
+      }
+    }
+    assertTrue("Only " + containers + " containers", containers > 1);
+    assertEquals("Packed files " + packed, 17, packed.size());
+    assertTrue("Not packed: top in " + packed, packed.contains("top"));
+  }
+
+  @Test
+  public void testPackWithUpdateRejected() throws Throwable {
+    createTestFiles(sourceDir, 4);
+    expectException(IllegalArgumentException.class,
+        new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-pack", "1k",
+        "-u");
+  }
+
+  /**
+   * With a window of one, the queue of the packers holds one file,
+   * so the listing waits on the packers.
+   */
+  @Test
+  public void testPackSmallFilesInSmallWindow() throws Throwable {
+    createTestFiles(sourceDir, 50);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-pack", "1k",
+        "-window", "1");
+    int packed = 0;
+    for (File index : FileUtils.listFiles(new File(destDir, "_packed"),
+        new String[]{"index"}, false)) {
+      packed += FileUtils.readLines(index).size();
+    }
+    assertEquals("Packed files", 51, packed);
+  }
+
+  @Test
+  public void testChecksumJournal() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+    File journal = new File(methodDir, "journal");
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-j", journal.getAbsolutePath(),
+        "-checksum", "crc32c",
+        "-verify");
+    assertEquals("Mismatch in files found", expected, countDestFiles());
+
+    // every completion records the CRC32C of the source file
+    int checksummed = 0;
+    for (String line : FileUtils.readLines(journal)) {
+      if (line.startsWith("succeeded\t")) {
+        String[] fields = line.split("\t");
+        assertEquals("Fields in " + line, 3, fields.length);
+        byte[] data = FileUtils.readFileToByteArray(
+            new File(sourceDir, fields[1]));
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(data, 0, data.length);
+        assertEquals("Checksum of " + fields[1],
+            String.format("crc32c:%08x", crc.getValue()), fields[2]);
+        checksummed++;
+      }
+    }
+    assertEquals("Checksummed files", expected, checksummed);
+
+    // the checksums do not stop the journal from being resumed
+    FileUtil.fullyDelete(destDir);
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-j", journal.getAbsolutePath(),
+        "-r");
+    assertFalse("Files were uploaded", destDir.exists());
+  }
+
+  @Test
+  public void testReport() throws Throwable {
+    int expected = createTestFiles(sourceDir, 16);
+    File reportDir = new File(methodDir, "report");
+    expectSuccess(new Cloudup(),
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-report", reportDir.getAbsolutePath());
+    List<String> rows = FileUtils.readLines(
+        new File(reportDir, "uploads.csv"));
+    assertEquals("Rows in " + rows, expected + 1, rows.size());
+    assertTrue("No upload of largest in " + rows,
+        rows.stream().anyMatch(r -> r.startsWith("\"subdir/largest\",")));
+    String summary = FileUtils.readFileToString(
+        new File(reportDir, "summary.json"));
+    assertTrue(summary, summary.contains("\"uploads\": " + expected));
+  }
+
+  /**
+   * Arguments for an upload to the simulated store, ignoring failures.
+   * Every write takes 100 ms, and there may be 30 requests a second
+   * in a directory: a write and a half at a time.
+   * @param dest destination
+   * @return the arguments
+   */
+  private String[] throttledUpload(String dest) {
+    return new String[]{
+        "-D", SimulatedStoreFileSystem.LATENCY + "create=50",
+        "-D", SimulatedStoreFileSystem.LATENCY + "close=50",
+        "-D", SimulatedStoreFileSystem.PREFIX_RATE + "=30",
+        "-s", sourceDir.toURI().toString(),
+        "-d", dest,
+        "-t", "16",
+        "-i"};
+  }
+
+  /**
+   * Get the simulated store of the last run from the filesystem cache,
+   * closing it so that the next run creates one with its own options.
+   * @param uri a path in the store
+   * @return the store, whose counters are still readable.
+   * @throws IOException failure
+   */
+  private static SimulatedStoreFileSystem simulatedStore(String uri)
+      throws IOException {
+    FileSystem fs = FileSystem.get(URI.create(uri), new Configuration());
+    fs.close();
+    return (SimulatedStoreFileSystem) fs;
+  }
+
+  /**
+   * Count the files under the destination directory.
+   * @return the number of files found in a recursive listing.
+   * @throws IOException failure to list
+   */
+  private int countDestFiles() throws IOException {
+    return countFiles(destDir);
+  }
+
+  /**
+   * Count the files under a directory.
+   * @param dir directory
+   * @return the number of files found in a recursive listing.
+   * @throws IOException failure to list
+   */
+  private int countFiles(File dir) throws IOException {
+    LocalFileSystem local = FileSystem.getLocal(new Configuration());
+    RemoteIterator<LocatedFileStatus> iterator
+        = local.listFiles(new Path(dir.toURI()), true);
+    int count = 0;
+    while (iterator.hasNext()) {
+      iterator.next();
+      count++;
+    }
+    return count;
+  }
+
 }
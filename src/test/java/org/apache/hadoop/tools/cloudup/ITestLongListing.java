@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.tools.cloudup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.store.StoreUtils;
+import org.apache.hadoop.fs.tools.cloudup.Cloudup;
+
+import static org.apache.hadoop.tools.store.StoreTestUtils.*;
+
+/**
+ * Upload, in a pool of one thread, more files than the queue between
+ * the listing and the uploads holds, with a window smaller than the
+ * queue: the listing, waiting for room in its queue, must not hold
+ * the thread which the uploads need.
+ * There are enough files to take tens of seconds to upload, so this
+ * has a longer timeout than {@link ITestLocalCloudup}.
+ */
+public class ITestLongListing extends Assert {
+
+  /** More than the listing queue holds. */
+  private static final int FILES = 10500;
+
+  @Rule
+  public Timeout testTimeout = new Timeout(5, TimeUnit.MINUTES);
+
+  private static File testDir;
+
+  private static File sourceDir;
+
+  private static int expected;
+
+  private File destDir;
+
+  @BeforeClass
+  public static void classSetup() throws Exception {
+    testDir = createTestDir();
+    sourceDir = new File(testDir, "src");
+    expected = createTestFiles(sourceDir, FILES);
+  }
+
+  @AfterClass
+  public static void classTeardown() throws Exception {
+    if (testDir != null) {
+      FileUtil.fullyDelete(testDir);
+    }
+  }
+
+  @Test
+  public void testSingleThread() throws Throwable {
+    upload("pool");
+  }
+
+  @Test
+  public void testSingleVirtualThread() throws Throwable {
+    upload("virtual", "-virtual");
+  }
+
+  private void upload(String name, String... options) throws Exception {
+    destDir = new File(testDir, name);
+    String[] args = {
+        "-s", sourceDir.toURI().toString(),
+        "-d", destDir.toURI().toString(),
+        "-t", "1",
+        "-window", "100"};
+    expectSuccess(new Cloudup(), StoreUtils.cat(args, options));
+    assertEquals("Mismatch in files found", expected,
+        FileUtils.listFiles(destDir, null, true).size());
+  }
+}